@@ -0,0 +1,62 @@
+package tools;
+
+/**
+* A {@link QTable} backed by a Q matrix of doubles. Not thread-safe.
+*/
+public class ArrayQTable implements QTable {
+
+  private final double[][] values;
+
+  /**
+  * Constructs a Q table with all Q values set to 0
+  *
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  */
+  public ArrayQTable(int stateCount, int actionCount) {
+    this(new double[stateCount][actionCount]);
+  }
+
+  /**
+  * Constructs a Q table that reads and writes the given Q matrix
+  *
+  * @param values the Q matrix
+  */
+  public ArrayQTable(double[][] values) {
+    this.values = values;
+  }
+
+  @Override
+  public int getStateCount() {
+    return values.length;
+  }
+
+  @Override
+  public int getActionCount() {
+    return values.length == 0 ? 0 : values[0].length;
+  }
+
+  @Override
+  public double get(int state, int action) {
+    return values[state][action];
+  }
+
+  @Override
+  public void set(int state, int action, double value) {
+    values[state][action] = value;
+  }
+
+  @Override
+  public void add(int state, int action, double delta) {
+    values[state][action] += delta;
+  }
+
+  @Override
+  public double[][] toArray() {
+    double[][] copy = new double[values.length][];
+    for (int s = 0; s < values.length; s++) {
+      copy[s] = values[s].clone();
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,374 @@
+package tools;
+
+import java.util.*;
+
+/**
+* Many copies of the {@link SimulatedLab}, stepped together.
+*
+* <p>The copies follow the dynamics of the simulated lab (see
+* simulator/simulator_flow.json), but their devices, light levels and sunshine
+* are held in one primitive array per quantity (a structure of arrays) instead
+* of one object per lab. Stepping all the copies at once is then a few counted
+* loops over these arrays, without branches or calls, which the JIT compiler
+* can unroll and vectorize.</p>
+*
+* <p>The sources target Java 8, so the loops do not use the Vector API
+* (jdk.incubator.vector), which needs Java 16 to compile against and the
+* incubator module at run time, and cannot be called through reflection
+* without losing its speed. They rely on the auto-vectorization of the JIT
+* compiler instead, and the scalar loops are the only code path.</p>
+*
+* <p>{@link #train(QTable, int[], int, double, double, double, double, int, TrainingBudget)}
+* runs one Q learning episode in each copy: the epsilon-greedy actions are
+* chosen, the copies are stepped and the Q values are updated for all the
+* copies in the same pass, and a copy starts a new episode as soon as its
+* episode ends.</p>
+*
+* <p>A batched simulator is not thread-safe.</p>
+*/
+public class BatchedSimulator {
+
+  /** The step cap of the episodes used when none is given */
+  public static final int DEFAULT_MAX_STEPS = QLearning.DEFAULT_MAX_STEPS;
+
+  private static final int RANDOM_START_ATTEMPTS = 32;
+
+  private final SimulatedLab lab = new SimulatedLab();
+  private final int copies;
+  private final SplittableRandom random;
+
+  /* The actions of the lab: the device they set (0..3) and the value they set it to */
+  private final int[] actionDevice;
+  private final double[] actionValue;
+  private final double[] actionCost;
+
+  /* The applicable actions of each state s: applicable[applicableStart[s]..applicableStart[s+1]) */
+  private final int[] applicableStart;
+  private final int[] applicable;
+
+  /* The state of each copy */
+  private final double[] z1Light;
+  private final double[] z2Light;
+  private final double[] z1Blinds;
+  private final double[] z2Blinds;
+  private final double[] z1Level;
+  private final double[] z2Level;
+  private final double[] sunshine;
+  private final double[] energyCost;
+  private final int[] states;
+
+  private final double[] noise;
+  private final double[] explore;
+  private final double[] pick;
+
+  /**
+  * Constructs copies of the simulated lab in the initial state of the Node-RED
+  * simulator
+  *
+  * @param copies the number of copies
+  * @param seed the seed of the sunshine fluctuations and of the exploration
+  */
+  public BatchedSimulator(int copies, long seed) {
+    if (copies < 1) {
+      throw new IllegalArgumentException("A batched simulator needs at least one copy");
+    }
+    this.copies = copies;
+    this.random = new SplittableRandom(seed);
+
+    int actionCount = lab.getActionCount();
+    actionDevice = new int[actionCount];
+    actionValue = new double[actionCount];
+    actionCost = new double[actionCount];
+    for (int a = 0; a < actionCount; a++) {
+      Action action = lab.getAction(a);
+      actionDevice[a] = action.getApplicableOnStateAxis() - 2;
+      actionValue[a] = (Boolean) action.getPayload()[0] ? 1 : 0;
+      actionCost[a] = QLearning.getReward(lab, a, 0, false);
+    }
+
+    int stateCount = lab.getStateCount();
+    applicableStart = new int[stateCount + 1];
+    List<Integer> actions = new ArrayList<>();
+    for (int s = 0; s < stateCount; s++) {
+      actions.addAll(lab.getApplicableActions(s));
+      applicableStart[s + 1] = actions.size();
+    }
+    applicable = new int[actions.size()];
+    for (int i = 0; i < applicable.length; i++) {
+      applicable[i] = actions.get(i);
+    }
+
+    z1Light = new double[copies];
+    z2Light = new double[copies];
+    z1Blinds = new double[copies];
+    z2Blinds = new double[copies];
+    z1Level = new double[copies];
+    z2Level = new double[copies];
+    sunshine = new double[copies];
+    energyCost = new double[copies];
+    states = new int[copies];
+    noise = new double[copies];
+    explore = new double[copies];
+    pick = new double[copies];
+
+    int initial = lab.readCurrentState();
+    for (int k = 0; k < copies; k++) {
+      reset(k, initial);
+    }
+  }
+
+  /**
+  * Returns the number of copies of the lab
+  */
+  public int getCopyCount() {
+    return copies;
+  }
+
+  /**
+  * Returns the simulated lab whose state and action spaces the copies share
+  */
+  public LearningEnvironment getEnvironment() {
+    return lab;
+  }
+
+  /**
+  * Returns the current state of a copy
+  *
+  * @param copy the copy
+  * @return the state
+  */
+  public int getState(int copy) {
+    return states[copy];
+  }
+
+  /**
+  * Returns the energy consumed by the lights of a copy since the simulator was
+  * constructed
+  *
+  * @param copy the copy
+  * @return the total energy cost of the copy
+  */
+  public double getTotalEnergyCost(int copy) {
+    return energyCost[copy];
+  }
+
+  /**
+  * Resets a copy to any state of the state space, like {@link SimulatedLab#reset(int)}
+  *
+  * @param copy the copy
+  * @param state the state
+  */
+  public void reset(int copy, int state) {
+    List<Integer> substates = lab.getState(state);
+
+    z1Level[copy] = SimulatedLab.LIGHT_LEVELS[substates.get(0)];
+    z2Level[copy] = SimulatedLab.LIGHT_LEVELS[substates.get(1)];
+    z1Light[copy] = substates.get(2);
+    z2Light[copy] = substates.get(3);
+    z1Blinds[copy] = substates.get(4);
+    z2Blinds[copy] = substates.get(5);
+    sunshine[copy] = SimulatedLab.SUNSHINE_LEVELS[substates.get(6)];
+    states[copy] = state;
+  }
+
+  /**
+  * Performs one action in every copy, and updates the environment of every copy
+  *
+  * @param actions the action of each copy, or -1 for no action
+  */
+  public void step(int[] actions) {
+    for (int k = 0; k < copies; k++) {
+      int a = actions[k];
+      if (a >= 0) {
+        setDevice(k, actionDevice[a], actionValue[a]);
+      }
+    }
+    updateEnvironment();
+  }
+
+  /**
+  * Learns the Q values for a goal with one-step Q learning and an epsilon-greedy
+  * policy, like {@link QLearning} with random starts, running an episode in
+  * every copy at once. The episodes that are still running when the last one
+  * starts are run to their end, so slightly more episodes than requested may
+  * be run. Once the budget is exhausted, the running episodes are cut and no
+  * new episode is started.
+  *
+  * @param qTable the Q table to update
+  * @param goal the goal, i.e. the required values of the first substates (e.g., [2,3])
+  * @param episodes the number of episodes
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability [0,1]
+  * @param reward the reward assigned when reaching the goal state
+  * @param maxSteps the largest number of actions of an episode, or 0 for no cap
+  * @param budget the budget of the training, or null for no budget
+  * @return the number of actions performed in all the copies
+  */
+  public long train(QTable qTable, int[] goal, int episodes, double alpha, double gamma,
+    double epsilon, double reward, int maxSteps, TrainingBudget budget) {
+    boolean[] goalStates = new boolean[lab.getStateCount()];
+    for (int s = 0; s < goalStates.length; s++) {
+      goalStates[s] = QLearning.isGoalState(lab, s, goal);
+    }
+    int stepCap = maxSteps == 0 ? Integer.MAX_VALUE : maxSteps;
+    TrainingBudget.Lease lease = budget == null ? null : budget.newLease();
+
+    boolean[] active = new boolean[copies];
+    int[] actions = new int[copies];
+    int[] previous = new int[copies];
+    int[] steps = new int[copies];
+    int started = 0;
+    int running = 0;
+    long actionCount = 0;
+
+    for (int k = 0; k < copies; k++) {
+      active[k] = started < episodes;
+      if (active[k]) {
+        resetRandom(k, goalStates);
+        started++;
+        running++;
+      }
+    }
+
+    while (running > 0) {
+      // Cut the episodes once the budget is exhausted
+      for (int k = 0; k < copies; k++) {
+        if (active[k] && lease != null && !lease.tryAcquireAction()) {
+          active[k] = false;
+          running--;
+          started = episodes;
+        }
+      }
+
+      // Choose A from S using the epsilon-greedy policy derived from Q
+      selectActions(qTable, active, epsilon, actions);
+      System.arraycopy(states, 0, previous, 0, copies);
+
+      // Take action A, observe R, S'
+      step(actions);
+
+      // Update Q, and start a new episode in the copies whose episode ended
+      for (int k = 0; k < copies; k++) {
+        if (!active[k]) {
+          continue;
+        }
+        int a = actions[k];
+        int sPrime = states[k];
+        boolean terminal = goalStates[sPrime];
+        double r = actionCost[a] + (terminal ? reward : 0.0);
+        double target = r + gamma * maxQ(qTable, sPrime);
+        qTable.add(previous[k], a, alpha * (target - qTable.get(previous[k], a)));
+        actionCount++;
+
+        if (terminal || ++steps[k] >= stepCap) {
+          steps[k] = 0;
+          if (started < episodes) {
+            resetRandom(k, goalStates);
+            started++;
+          } else {
+            active[k] = false;
+            running--;
+          }
+        }
+      }
+    }
+    if (lease != null) {
+      lease.release();
+    }
+    return actionCount;
+  }
+
+  /* Mirrors the "Update environment" node of the Node-RED simulator, in every copy */
+  private void updateEnvironment() {
+    for (int k = 0; k < copies; k++) {
+      noise[k] = random.nextDouble();
+    }
+
+    // Branch-free, so that the JIT compiler vectorizes the loop
+    for (int k = 0; k < copies; k++) {
+      double sun = sunshine[k];
+      double l1 = z1Light[k];
+      double l2 = z2Light[k];
+      double b1 = z1Blinds[k];
+      double b2 = z2Blinds[k];
+
+      // The terms of SimulatedLab.zone1Level and zone2Level, in the same order
+      z1Level[k] = 300 * l1 + 50 * l2 + sun * 0.5 * b1 + sun * 0.25 * b2;
+      z2Level[k] = 50 * l1 + 300 * l2 + sun * 0.25 * b1 + sun * 0.5 * b2;
+      energyCost[k] += l1 + l2;
+      sunshine[k] = 600 + 50 * noise[k];
+    }
+
+    for (int k = 0; k < copies; k++) {
+      states[k] = Lab.encodeState(Lab.discretizeLightLevel(z1Level[k]),
+        Lab.discretizeLightLevel(z2Level[k]), (int) z1Light[k], (int) z2Light[k],
+        (int) z1Blinds[k], (int) z2Blinds[k], Lab.discretizeSunshine(sunshine[k]));
+    }
+  }
+
+  private void setDevice(int copy, int device, double value) {
+    switch (device) {
+      case 0:
+        z1Light[copy] = value;
+        break;
+      case 1:
+        z2Light[copy] = value;
+        break;
+      case 2:
+        z1Blinds[copy] = value;
+        break;
+      case 3:
+        z2Blinds[copy] = value;
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void resetRandom(int copy, boolean[] goalStates) {
+    int start = -1;
+    for (int i = 0; i < RANDOM_START_ATTEMPTS && (start < 0 || goalStates[start]); i++) {
+      start = random.nextInt(goalStates.length);
+    }
+    reset(copy, start);
+  }
+
+  /* Chooses the epsilon-greedy action of every active copy, and -1 for the other copies */
+  private void selectActions(QTable qTable, boolean[] active, double epsilon, int[] actions) {
+    for (int k = 0; k < copies; k++) {
+      explore[k] = random.nextDouble();
+      pick[k] = random.nextDouble();
+    }
+
+    for (int k = 0; k < copies; k++) {
+      int s = states[k];
+      int from = applicableStart[s];
+      int count = applicableStart[s + 1] - from;
+
+      int greedy = applicable[from];
+      double maxValue = Double.NEGATIVE_INFINITY;
+      for (int i = from; i < from + count; i++) {
+        double q = qTable.get(s, applicable[i]);
+        if (q > maxValue) {
+          maxValue = q;
+          greedy = applicable[i];
+        }
+      }
+
+      int explorative = applicable[from + (int) (pick[k] * count)];
+      actions[k] = !active[k] ? -1 : explore[k] < epsilon ? explorative : greedy;
+    }
+  }
+
+  private double maxQ(QTable qTable, int s) {
+    double maxQ = Double.NEGATIVE_INFINITY;
+    for (int i = applicableStart[s]; i < applicableStart[s + 1]; i++) {
+      double q = qTable.get(s, applicable[i]);
+      if (q > maxQ) {
+        maxQ = q;
+      }
+    }
+    return maxQ;
+  }
+}
@@ -0,0 +1,65 @@
+package tools;
+
+import java.util.*;
+
+/**
+* Boltzmann (softmax) exploration: an action is chosen with a probability
+* proportional to exp(Q(S,A) / T).
+*
+* <p>A high temperature T makes the choice nearly uniform, and a low one
+* nearly greedy. The temperature is multiplied by a decay factor after each
+* episode, down to a minimum temperature.</p>
+*/
+public class BoltzmannExploration implements ExplorationStrategy {
+
+  private final double initialTemperature;
+  private final double minTemperature;
+  private final double decay;
+  private double temperature;
+  private double[] weights = new double[8];
+
+  /**
+  * @param temperature the temperature of the first episode
+  * @param minTemperature the lowest temperature
+  * @param decay the factor by which the temperature is multiplied after each episode
+  */
+  public BoltzmannExploration(double temperature, double minTemperature, double decay) {
+    if (temperature <= 0 || minTemperature <= 0) {
+      throw new IllegalArgumentException("Temperatures must be positive");
+    }
+    this.initialTemperature = temperature;
+    this.minTemperature = minTemperature;
+    this.decay = decay;
+    this.temperature = temperature;
+  }
+
+  @Override
+  public void startEpisode(int episode) {
+    temperature = Math.max(minTemperature, initialTemperature * Math.pow(decay, episode));
+  }
+
+  @Override
+  public int selectAction(QTable qTable, int state, List<Integer> actions, Random random) {
+    int n = actions.size();
+    if (weights.length < n) {
+      weights = new double[n];
+    }
+
+    // subtract the highest Q value so that exp does not overflow
+    double maxQ = QLearning.maxQ(qTable, state, actions);
+    double total = 0.0;
+    for (int i = 0; i < n; i++) {
+      weights[i] = Math.exp((qTable.get(state, actions.get(i)) - maxQ) / temperature);
+      total += weights[i];
+    }
+
+    double threshold = random.nextDouble() * total;
+    for (int i = 0; i < n - 1; i++) {
+      threshold -= weights[i];
+      if (threshold < 0) {
+        return actions.get(i);
+      }
+    }
+    return actions.get(n - 1);
+  }
+}
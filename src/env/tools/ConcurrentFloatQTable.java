@@ -0,0 +1,93 @@
+package tools;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+* A {@link QTable} of floats that can be updated by several threads without
+* locking, the concurrent counterpart of a {@link FloatQTable}.
+*
+* <p>The Q values are stored as the bits of floats in a single array laid out
+* row-major by state, and are rounded to floats like in a {@link FloatQTable}.
+* Writes through {@link #set(int, int, double)} are relaxed, and
+* {@link #add(int, int, double)} applies the delta with a compare-and-set loop
+* on the entry, like in a {@link ConcurrentQTable}. Stochastic rounding draws
+* from the random generator of the updating thread, so it is not reproducible
+* from a seed.</p>
+*/
+public class ConcurrentFloatQTable implements QTable {
+
+  private final int stateCount;
+  private final int actionCount;
+  private final AtomicIntegerArray values;
+  private final FloatQTable.Rounding rounding;
+
+  /**
+  * Constructs a Q table with all Q values set to 0
+  *
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @param rounding the rounding of the stored Q values
+  */
+  public ConcurrentFloatQTable(int stateCount, int actionCount, FloatQTable.Rounding rounding) {
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.values = new AtomicIntegerArray(stateCount * actionCount);
+    this.rounding = rounding;
+  }
+
+  @Override
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  @Override
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  @Override
+  public double get(int state, int action) {
+    return Float.intBitsToFloat(values.get(state * actionCount + action));
+  }
+
+  @Override
+  public void set(int state, int action, double value) {
+    values.lazySet(state * actionCount + action, Float.floatToRawIntBits(round(value)));
+  }
+
+  @Override
+  public void add(int state, int action, double delta) {
+    int i = state * actionCount + action;
+    int current;
+    int updated;
+    do {
+      current = values.get(i);
+      updated = Float.floatToRawIntBits(round(Float.intBitsToFloat(current) + delta));
+    } while (!values.compareAndSet(i, current, updated));
+  }
+
+  @Override
+  public double[][] toArray() {
+    double[][] qTable = new double[stateCount][actionCount];
+    for (int s = 0; s < stateCount; s++) {
+      for (int a = 0; a < actionCount; a++) {
+        qTable[s][a] = get(s, a);
+      }
+    }
+    return qTable;
+  }
+
+  private float round(double value) {
+    float nearest = (float) value;
+
+    if (rounding == FloatQTable.Rounding.NEAREST || nearest == value || Float.isInfinite(nearest)
+      || Double.isNaN(value)) {
+      return nearest;
+    }
+
+    float other = nearest < value ? Math.nextUp(nearest) : Math.nextDown(nearest);
+    double p = (value - nearest) / ((double) other - nearest);
+    return ThreadLocalRandom.current().nextDouble() < p ? other : nearest;
+  }
+}
@@ -0,0 +1,73 @@
+package tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+* A {@link QTable} that can be updated by several threads without locking.
+*
+* <p>The Q values are stored as the bits of doubles in a single array laid out
+* row-major by state. Writes through {@link #set(int, int, double)} are
+* relaxed (a write may become visible to other threads with a delay), and
+* {@link #add(int, int, double)} applies the delta with a compare-and-set loop
+* on the entry, so that concurrent updates of the same entry are not lost.</p>
+*/
+public class ConcurrentQTable implements QTable {
+
+  private final int stateCount;
+  private final int actionCount;
+  private final AtomicLongArray values;
+
+  /**
+  * Constructs a Q table with all Q values set to 0
+  *
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  */
+  public ConcurrentQTable(int stateCount, int actionCount) {
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.values = new AtomicLongArray(stateCount * actionCount);
+  }
+
+  @Override
+  public int getStateCount() {
+    return stateCount;
+  }
+
+  @Override
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  @Override
+  public double get(int state, int action) {
+    return Double.longBitsToDouble(values.get(state * actionCount + action));
+  }
+
+  @Override
+  public void set(int state, int action, double value) {
+    values.lazySet(state * actionCount + action, Double.doubleToRawLongBits(value));
+  }
+
+  @Override
+  public void add(int state, int action, double delta) {
+    int i = state * actionCount + action;
+    long current;
+    long updated;
+    do {
+      current = values.get(i);
+      updated = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+    } while (!values.compareAndSet(i, current, updated));
+  }
+
+  @Override
+  public double[][] toArray() {
+    double[][] qTable = new double[stateCount][actionCount];
+    for (int s = 0; s < stateCount; s++) {
+      for (int a = 0; a < actionCount; a++) {
+        qTable[s][a] = get(s, a);
+      }
+    }
+    return qTable;
+  }
+}
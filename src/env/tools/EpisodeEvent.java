@@ -0,0 +1,36 @@
+package tools;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+* A JDK Flight Recorder event for an episode of Q learning (see
+* {@link QLearning#runEpisode(QTable, int[])}). The duration of the event is
+* the duration of the episode, including the actions performed on the lab.
+*/
+@Name("was.Episode")
+@Label("Q Learning Episode")
+@Category({ "WAS", "Q Learning" })
+@Description("An episode of Q learning, from its start state to the goal")
+@StackTrace(false)
+public class EpisodeEvent extends Event {
+
+  @Label("Goal")
+  public String goal;
+
+  @Label("Episode")
+  public int episode;
+
+  @Label("Start State")
+  public int startState;
+
+  @Label("Steps")
+  public int steps;
+
+  @Label("Total Reward")
+  public double totalReward;
+}
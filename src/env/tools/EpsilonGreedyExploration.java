@@ -0,0 +1,84 @@
+package tools;
+
+import java.util.*;
+
+/**
+* Epsilon-greedy exploration: a random action is chosen with probability
+* epsilon, and the greedy action otherwise.
+*
+* <p>Epsilon is either constant, or decays after each episode from a start
+* value towards an end value, linearly over a number of episodes or
+* exponentially by a factor per episode.</p>
+*/
+public class EpsilonGreedyExploration implements ExplorationStrategy {
+
+  private enum Schedule { CONSTANT, LINEAR, EXPONENTIAL }
+
+  private final Schedule schedule;
+  private final double start;
+  private final double end;
+  private final double rate;
+  private double epsilon;
+
+  private EpsilonGreedyExploration(Schedule schedule, double start, double end, double rate) {
+    this.schedule = schedule;
+    this.start = start;
+    this.end = end;
+    this.rate = rate;
+    this.epsilon = start;
+  }
+
+  /**
+  * @param epsilon the exploration probability [0,1]
+  * @return a strategy with a constant epsilon
+  */
+  public static EpsilonGreedyExploration constant(double epsilon) {
+    return new EpsilonGreedyExploration(Schedule.CONSTANT, epsilon, epsilon, 0);
+  }
+
+  /**
+  * @param start the epsilon of the first episode
+  * @param end the epsilon reached after the decay
+  * @param episodes the number of episodes over which epsilon decays
+  * @return a strategy with a linearly decaying epsilon
+  */
+  public static EpsilonGreedyExploration linear(double start, double end, int episodes) {
+    return new EpsilonGreedyExploration(Schedule.LINEAR, start, end, Math.max(1, episodes));
+  }
+
+  /**
+  * @param start the epsilon of the first episode
+  * @param end the lowest epsilon
+  * @param factor the factor by which epsilon is multiplied after each episode
+  * @return a strategy with an exponentially decaying epsilon
+  */
+  public static EpsilonGreedyExploration exponential(double start, double end, double factor) {
+    return new EpsilonGreedyExploration(Schedule.EXPONENTIAL, start, end, factor);
+  }
+
+  public double getEpsilon() {
+    return epsilon;
+  }
+
+  @Override
+  public void startEpisode(int episode) {
+    switch (schedule) {
+      case LINEAR:
+        epsilon = Math.max(end, start - (start - end) * episode / rate);
+        break;
+      case EXPONENTIAL:
+        epsilon = Math.max(end, start * Math.pow(rate, episode));
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public int selectAction(QTable qTable, int state, List<Integer> actions, Random random) {
+    if (random.nextDouble() < epsilon) {
+      return actions.get(random.nextInt(actions.size()));
+    }
+    return QLearning.getBestAction(qTable, state, actions);
+  }
+}
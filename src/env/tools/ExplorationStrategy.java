@@ -0,0 +1,32 @@
+package tools;
+
+import java.util.*;
+
+/**
+* A strategy for choosing the actions performed while learning a
+* {@link QTable}, balancing exploration and exploitation.
+*
+* <p>A strategy may keep state across the steps and episodes of a training
+* (e.g., a decaying schedule or visit counts), so each learning thread uses
+* its own instance.</p>
+*/
+public interface ExplorationStrategy {
+
+  /**
+  * Called before each episode
+  *
+  * @param episode the number of episodes that have been run before this one
+  */
+  void startEpisode(int episode);
+
+  /**
+  * Chooses an action in a state
+  *
+  * @param qTable the Q table being learned
+  * @param state the state
+  * @param actions the actions applicable in the state
+  * @param random the source of randomness of the training
+  * @return the chosen action
+  */
+  int selectAction(QTable qTable, int state, List<Integer> actions, Random random);
+}
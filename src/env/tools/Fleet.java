@@ -0,0 +1,227 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+
+/**
+* Runs the control cycles of many rooms on a bounded number of threads.
+*
+* <p>Each room is a {@link LearningEnvironment} (e.g., a {@link Lab}) with a
+* goal. In each cycle, the fleet reads the current state of the room and, if
+* the goal is not satisfied, performs the greedy action of the policy learned
+* for the goal. The policies are looked up in the {@link PolicyRegistry}, so
+* rooms with the same fingerprint share them.</p>
+*
+* <p>The cycles of a room run one after the other on a scheduled executor, and
+* the delay between two cycles is the period of the fleet with a random jitter,
+* so that the requests of the rooms are spread over time instead of being
+* issued in bursts.</p>
+*/
+public class Fleet {
+
+  private final ScheduledExecutorService executor;
+  private final long periodMillis;
+  private final double jitter;
+  private final PolicyRegistry policies = PolicyRegistry.getInstance();
+  private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+  private final AtomicLong cycles = new AtomicLong();
+  private final AtomicLong actions = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong missingPolicies = new AtomicLong();
+
+  private static final Logger LOGGER = Logger.getLogger(Fleet.class.getName());
+
+  /**
+  * @param threads the number of threads that run the cycles
+  * @param periodMillis the mean delay between two cycles of a room in milliseconds
+  * @param jitter the maximum relative deviation of the delay from the period, with range [0,1]
+  */
+  public Fleet(int threads, long periodMillis, double jitter) {
+    if (threads < 1 || periodMillis < 1 || jitter < 0 || jitter > 1) {
+      throw new IllegalArgumentException("Invalid fleet settings: threads=" + threads + ", period="
+        + periodMillis + ", jitter=" + jitter);
+    }
+    this.periodMillis = periodMillis;
+    this.jitter = jitter;
+
+    ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(threads, runnable -> {
+      Thread thread = new Thread(runnable, "fleet");
+      thread.setDaemon(true);
+      return thread;
+    });
+    pool.setRemoveOnCancelPolicy(true);
+    this.executor = pool;
+  }
+
+  /**
+  * Adds a room to the fleet. The first cycle of the room runs after a random
+  * delay within one period.
+  *
+  * @param id the identifier of the room (e.g., the URL of its Thing Description)
+  * @param environment the environment of the room
+  * @param goal the goal of the room (e.g., [2,3])
+  * @throws IllegalArgumentException if a room with the same identifier exists
+  */
+  public void addRoom(String id, LearningEnvironment environment, int[] goal) {
+    Room room = new Room(id, environment, goal);
+
+    if (rooms.putIfAbsent(id, room) != null) {
+      throw new IllegalArgumentException("The room already exists: " + id);
+    }
+    policies.retain(room.fingerprint);
+    room.schedule((long) (ThreadLocalRandom.current().nextDouble() * periodMillis));
+  }
+
+  /**
+  * Removes a room from the fleet. A cycle of the room that is running completes.
+  *
+  * @param id the identifier of the room
+  * @return true if the room was removed
+  */
+  public boolean removeRoom(String id) {
+    Room room = rooms.remove(id);
+
+    if (room == null) {
+      return false;
+    }
+    room.cancel();
+    policies.release(room.fingerprint);
+    return true;
+  }
+
+  /**
+  * Changes the goal of a room
+  *
+  * @param id the identifier of the room
+  * @param goal the new goal
+  * @return true if the room exists
+  */
+  public boolean setGoal(String id, int[] goal) {
+    Room room = rooms.get(id);
+
+    if (room == null) {
+      return false;
+    }
+    room.goal = goal.clone();
+    return true;
+  }
+
+  /**
+  * Returns the environment of each room
+  */
+  public Map<String, LearningEnvironment> getRooms() {
+    Map<String, LearningEnvironment> environments = new HashMap<>();
+    rooms.forEach((id, room) -> environments.put(id, room.environment));
+    return environments;
+  }
+
+  /**
+  * Returns the goal of each room
+  */
+  public Map<String, int[]> getGoals() {
+    Map<String, int[]> goals = new HashMap<>();
+    rooms.forEach((id, room) -> goals.put(id, room.goal.clone()));
+    return goals;
+  }
+
+  public long getCycleCount() {
+    return cycles.get();
+  }
+
+  public long getActionCount() {
+    return actions.get();
+  }
+
+  /**
+  * Returns the number of cycles that failed to read the state of their room
+  */
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  /**
+  * Returns the number of cycles that found no policy for the goal of their room
+  */
+  public long getMissingPolicyCount() {
+    return missingPolicies.get();
+  }
+
+  /**
+  * Removes all the rooms and stops the threads of the fleet
+  */
+  public void shutdown() {
+    for (String id : new ArrayList<>(rooms.keySet())) {
+      removeRoom(id);
+    }
+    executor.shutdownNow();
+  }
+
+  /* A room and the scheduling of its cycles */
+  private class Room implements Runnable {
+    private final String id;
+    private final LearningEnvironment environment;
+    private final String fingerprint;
+    private volatile int[] goal;
+    private volatile boolean cancelled;
+    private ScheduledFuture<?> next;
+
+    private Room(String id, LearningEnvironment environment, int[] goal) {
+      this.id = id;
+      this.environment = environment;
+      this.fingerprint = environment.getFingerprint();
+      this.goal = goal.clone();
+    }
+
+    @Override
+    public void run() {
+      try {
+        cycle();
+      } catch (RuntimeException e) {
+        failures.incrementAndGet();
+        LOGGER.warning("The cycle of room " + id + " failed: " + e);
+      }
+
+      double deviation = jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+      schedule(Math.max(0, Math.round(periodMillis * (1 + deviation))));
+    }
+
+    private void cycle() {
+      cycles.incrementAndGet();
+      int state = environment.readCurrentState();
+      int[] goal = this.goal;
+
+      if (state < 0) {
+        failures.incrementAndGet();
+        return;
+      }
+      if (QLearning.isGoalState(environment, state, goal)) {
+        return;
+      }
+
+      Optional<PolicySnapshot> policy = policies.get(fingerprint, PolicyRegistry.getGoalKey(goal));
+      if (!policy.isPresent()) {
+        missingPolicies.incrementAndGet();
+        return;
+      }
+
+      environment.performAction(policy.get().getBestAction(environment.getApplicableActions(state), state));
+      actions.incrementAndGet();
+    }
+
+    private synchronized void schedule(long delayMillis) {
+      if (!cancelled && !executor.isShutdown()) {
+        next = executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private synchronized void cancel() {
+      cancelled = true;
+      if (next != null) {
+        next.cancel(false);
+      }
+    }
+  }
+}
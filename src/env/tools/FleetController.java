@@ -0,0 +1,204 @@
+package tools;
+
+import java.util.*;
+import java.util.logging.*;
+
+import cartago.Artifact;
+import cartago.OPERATION;
+import cartago.OpFeedbackParam;
+
+/**
+ * An artifact that controls the light levels of many rooms, instead of one
+ * illuminance agent with its own QLearner and ThingArtifact per room.
+ *
+ * <p>Each room is a {@link Lab} identified by the URL of its Thing Description.
+ * The control cycles of the rooms run on the bounded threads of a {@link Fleet},
+ * and the rooms follow the policies of the {@link PolicyRegistry}, which are
+ * shared by all the rooms with the same fingerprint (e.g., the policies learned
+ * by {@link QLearner} artifacts, or by {@link #calculateQParallel}).</p>
+ *
+ * <p>The policies are trained and published like those of a {@link QLearner}
+ * (see {@link PolicyTrainer}), with the same training options and publication
+ * gate.</p>
+ */
+public class FleetController extends Artifact {
+
+    private Fleet fleet;
+    private PolicyTrainer trainer;
+
+    private static final Logger LOGGER = Logger.getLogger(FleetController.class.getName());
+
+    public void init() {
+        init(8, 60000);
+    }
+
+    /**
+     * @param threads      the number of threads that run the control cycles
+     * @param periodMillis the mean delay between two cycles of a room in milliseconds
+     */
+    public void init(int threads, int periodMillis) {
+        this.fleet = new Fleet(threads, periodMillis, 0.2);
+        this.trainer = new PolicyTrainer(new SimulatedLab().getFingerprint());
+        defineObsProperty("fleetRooms", 0);
+    }
+
+    @Override
+    protected void dispose() {
+        fleet.shutdown();
+        trainer.close();
+    }
+
+    /**
+     * Adds a room to the fleet
+     *
+     * @param environmentURL  the URL of the Thing Description of the room
+     * @param goalDescription the goal of the room (e.g., [2,3])
+     */
+    @OPERATION
+    public void addRoom(String environmentURL, Object[] goalDescription) {
+        if (fleet.getRooms().containsKey(environmentURL)) {
+            failed("The room is already controlled: " + environmentURL);
+        }
+
+        fleet.addRoom(environmentURL, new Lab(environmentURL), getGoal(goalDescription));
+        updateObsProperty("fleetRooms", fleet.getRooms().size());
+    }
+
+    /**
+     * Removes a room from the fleet
+     *
+     * @param environmentURL the URL of the Thing Description of the room
+     */
+    @OPERATION
+    public void removeRoom(String environmentURL) {
+        if (!fleet.removeRoom(environmentURL)) {
+            failed("Unknown room: " + environmentURL);
+        }
+        updateObsProperty("fleetRooms", fleet.getRooms().size());
+    }
+
+    /**
+     * Changes the goal of a room
+     *
+     * @param environmentURL  the URL of the Thing Description of the room
+     * @param goalDescription the new goal of the room (e.g., [2,3])
+     */
+    @OPERATION
+    public void setRoomGoal(String environmentURL, Object[] goalDescription) {
+        if (!fleet.setGoal(environmentURL, getGoal(goalDescription))) {
+            failed("Unknown room: " + environmentURL);
+        }
+    }
+
+    /**
+     * Computes the missing policies of the rooms against simulated labs (see
+     * {@link QLearner#calculateQParallel}). Policies are computed once per
+     * fingerprint and goal, and only for rooms that can be simulated.
+     *
+     * @param episodes the number of episodes used for calculating each Q matrix
+     * @param alpha    the learning rate with range [0,1].
+     * @param gamma    the discount factor [0,1]
+     * @param epsilon  the exploration probability [0,1]
+     * @param reward   the reward assigned when reaching the goal state
+     * @param threads  the number of training threads
+     */
+    @OPERATION
+    public void calculateQParallel(Object episodes, Object alpha, Object gamma, Object epsilon, Object reward,
+                                   Object threads) {
+        calculateQParallel(episodes, alpha, gamma, epsilon, reward, threads, new Object[0]);
+    }
+
+    /**
+     * Computes the missing policies of the rooms like
+     * {@link #calculateQParallel(Object, Object, Object, Object, Object, Object)},
+     * with additional training options (see {@link TrainingOptions} and
+     * {@link QLearner#calculateQParallel(Object[], Object, Object, Object, Object, Object, Object, Object[])}).
+     * The calculation fails if the Q matrix of a goal does not pass the
+     * publication gate; the goals before it keep their published policies.
+     *
+     * @param episodes the number of episodes used for calculating each Q matrix
+     * @param alpha    the learning rate with range [0,1].
+     * @param gamma    the discount factor [0,1]
+     * @param epsilon  the exploration probability [0,1]
+     * @param reward   the reward assigned when reaching the goal state
+     * @param threads  the number of training threads
+     * @param options  the list of training options
+     */
+    @OPERATION
+    public void calculateQParallel(Object episodes, Object alpha, Object gamma, Object epsilon, Object reward,
+                                   Object threads, Object[] options) {
+        TrainingOptions trainingOptions = null;
+        try {
+            trainingOptions = TrainingOptions.parse(options);
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage());
+        }
+
+        Map<String, LearningEnvironment> rooms = fleet.getRooms();
+        Set<Integer> trainedGoals = new HashSet<>();
+
+        for (Map.Entry<String, int[]> room : fleet.getGoals().entrySet()) {
+            int[] goal = room.getValue();
+            LearningEnvironment lab = rooms.get(room.getKey());
+
+            if (lab == null || !trainer.getFingerprint().equals(lab.getFingerprint())) {
+                LOGGER.warning("The room " + room.getKey() + " cannot be simulated");
+                continue;
+            }
+            if (!trainedGoals.add(PolicyRegistry.getGoalKey(goal)) || trainer.isPublished(goal)) {
+                continue;
+            }
+
+            try {
+                trainer.trainParallel(goal, Integer.valueOf(episodes.toString()), Double.valueOf(alpha.toString()),
+                        Double.valueOf(gamma.toString()), Double.valueOf(epsilon.toString()),
+                        Double.valueOf(reward.toString()), Integer.valueOf(threads.toString()), trainingOptions);
+            } catch (IllegalStateException e) {
+                failed(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sets the minimum success rate of the policies computed by the fleet, like
+     * {@link QLearner#setPublicationGate(Object, Object)}
+     *
+     * @param minSuccessRate the minimum success rate [0,1]
+     * @param maxSteps       the number of steps within which a policy must
+     *                       reach the goal
+     */
+    @OPERATION
+    public void setPublicationGate(Object minSuccessRate, Object maxSteps) {
+        try {
+            trainer.setPublicationGate(Double.valueOf(minSuccessRate.toString()),
+                    Integer.valueOf(maxSteps.toString()));
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the counters of the control cycles of the fleet
+     *
+     * @param cycles          the number of cycles
+     * @param actions         the number of actions performed
+     * @param failures        the number of cycles that failed to read the state of their room
+     * @param missingPolicies the number of cycles that found no policy for their goal
+     */
+    @OPERATION
+    public void getFleetStats(OpFeedbackParam<Long> cycles, OpFeedbackParam<Long> actions,
+                              OpFeedbackParam<Long> failures, OpFeedbackParam<Long> missingPolicies) {
+        cycles.set(fleet.getCycleCount());
+        actions.set(fleet.getActionCount());
+        failures.set(fleet.getFailureCount());
+        missingPolicies.set(fleet.getMissingPolicyCount());
+    }
+
+    private int[] getGoal(Object[] goalDescription) {
+        int[] goal = new int[goalDescription.length];
+        for (int i = 0; i < goalDescription.length; i++) {
+            goal[i] = Integer.valueOf(goalDescription[i].toString());
+        }
+        return goal;
+    }
+}
@@ -0,0 +1,123 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.logging.*;
+
+/**
+* Trains one Q table with several threads in the style of Hogwild!.
+*
+* <p>Each worker thread steps its own {@link LearningEnvironment} instance
+* (e.g., a {@link SimulatedLab}) and updates a shared Q table without locking:
+* a {@link ConcurrentQTable}, or a {@link ConcurrentFloatQTable} if the
+* training options store the Q values as floats. The episodes are split evenly
+* among the workers, and are numbered by a counter shared by the workers, so
+* that the exploration schedule decays over the episodes of all the
+* workers.</p>
+*
+* <p>With a single thread, training runs on the calling thread against a
+* Q table stored as selected by the training options (by default, a plain
+* {@link ArrayQTable}), so that results are deterministic for a given seed
+* and environment.</p>
+*/
+public class HogwildTrainer {
+
+  private final IntFunction<? extends LearningEnvironment> environments;
+  private final int threads;
+
+  private static final Logger LOGGER = Logger.getLogger(HogwildTrainer.class.getName());
+
+  /**
+  * @param environments creates the environment of each worker from the index of the worker
+  * @param threads the number of worker threads
+  */
+  public HogwildTrainer(IntFunction<? extends LearningEnvironment> environments, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+    }
+    this.environments = environments;
+    this.threads = threads;
+  }
+
+  /**
+  * Computes a Q matrix for a goal
+  *
+  * @param goal the goal (e.g., [2,3])
+  * @param episodes the total number of episodes of all the workers
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability [0,1]
+  * @param reward the reward assigned when reaching the goal state
+  * @param seed the seed of the exploration of the first worker (worker i uses seed + i)
+  * @return the Q matrix
+  */
+  public double[][] train(int[] goal, int episodes, double alpha, double gamma, double epsilon,
+    double reward, long seed) {
+    return train(goal, episodes, alpha, gamma, epsilon, reward, seed, new TrainingOptions());
+  }
+
+  /**
+  * Computes a Q matrix for a goal with the given training options. Each worker
+  * uses its own instances of the selected update rule and exploration strategy,
+  * and chooses the start states of its episodes in its own environment. The
+  * exploration strategies of the workers follow the shared episode count.
+  *
+  * @param goal the goal (e.g., [2,3])
+  * @param episodes the total number of episodes of all the workers
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability [0,1]
+  * @param reward the reward assigned when reaching the goal state
+  * @param seed the seed of the exploration of the first worker (worker i uses seed + i)
+  * @param options the training options
+  * @return the Q matrix
+  */
+  public double[][] train(int[] goal, int episodes, double alpha, double gamma, double epsilon,
+    double reward, long seed, TrainingOptions options) {
+    LearningEnvironment first = environments.apply(0);
+    int stateCount = first.getStateCount();
+    int actionCount = first.getActionCount();
+    // the workers lease their actions from the budget of the training, if any
+    TrainingBudget budget = options.createBudget();
+
+    if (threads == 1) {
+      QTable qTable = options.createQTable(stateCount, actionCount, seed);
+      options.createLearning(first, alpha, gamma, epsilon, reward, new Random(seed))
+        .setBudget(budget)
+        .train(qTable, goal, episodes);
+      return qTable.toArray();
+    }
+
+    QTable qTable = options.createConcurrentQTable(stateCount, actionCount);
+    AtomicInteger episodeCounter = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> workers = new ArrayList<>();
+
+    try {
+      for (int i = 0; i < threads; i++) {
+        LearningEnvironment environment = i == 0 ? first : environments.apply(i);
+        int workerEpisodes = episodes / threads + (i < episodes % threads ? 1 : 0);
+        QLearning learning = options.createLearning(environment, alpha, gamma, epsilon, reward,
+          new Random(seed + i)).setBudget(budget).setEpisodeCounter(episodeCounter);
+
+        workers.add(executor.submit(() -> learning.train(qTable, goal, workerEpisodes)));
+      }
+
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while training", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A training worker failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    LOGGER.info("Trained " + episodes + " episodes on " + threads + " threads");
+    return qTable.toArray();
+  }
+}
@@ -0,0 +1,433 @@
+package tools;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+* A sweep over the hyperparameters of Q learning (the number of episodes, the
+* learning rate, the discount factor and the exploration probability), by grid
+* or random search.
+*
+* <p>Each configuration is trained with several seeds on {@link SimulatedLab}
+* instances, and the runs of all the configurations are spread over a pool of
+* threads. A run trains a Q table from scratch, and evaluates its greedy policy
+* at checkpoints during training: the success rate of the policy is the share
+* of the start states (that do not satisfy the goal) from which the policy
+* reaches the goal within a number of steps (see {@link PolicyEvaluator}).</p>
+*
+* <p>Each configuration is scored, on average over its seeds, by the final
+* success rate of its policy, by the time to convergence (the episodes and the
+* training time until the success rate reaches its final value for good), and
+* by the cost of the actions performed until convergence, i.e., the energy
+* cost that training against the real lab would incur (lights 50, blinds 1).
+* The configurations are ranked by success rate, then by cost to convergence,
+* then by episodes to convergence.</p>
+*/
+public class HyperparameterSweep {
+
+  /* The number of checkpoints at which the policy of a run is evaluated */
+  private static final int CHECKPOINTS = 20;
+
+  private final int[] goal;
+  private final double reward;
+  private final int threads;
+  private int seeds = 3;
+  private int maxSteps = 20;
+  private TrainingOptions options = new TrainingOptions().setStartMode("random");
+
+  /**
+  * A configuration of the hyperparameters, in the order of the parameters of
+  * {@link QLearner#calculateQ(Object[], Object, Object, Object, Object, Object)}
+  */
+  public static final class Configuration {
+    private final int episodes;
+    private final double alpha;
+    private final double gamma;
+    private final double epsilon;
+
+    public Configuration(int episodes, double alpha, double gamma, double epsilon) {
+      this.episodes = episodes;
+      this.alpha = alpha;
+      this.gamma = gamma;
+      this.epsilon = epsilon;
+    }
+
+    public int getEpisodes() {
+      return episodes;
+    }
+
+    public double getAlpha() {
+      return alpha;
+    }
+
+    public double getGamma() {
+      return gamma;
+    }
+
+    public double getEpsilon() {
+      return epsilon;
+    }
+
+    /**
+    * Returns the configuration as the arguments episodes, alpha, gamma and
+    * epsilon of {@link QLearner#calculateQ(Object[], Object, Object, Object, Object, Object)}
+    */
+    public Object[] toArguments() {
+      return new Object[]{ episodes, alpha, gamma, epsilon };
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "episodes=%d alpha=%.3g gamma=%.3g epsilon=%.3g", episodes,
+        alpha, gamma, epsilon);
+    }
+  }
+
+  /**
+  * The score of a configuration, on average over its seeds
+  */
+  public static final class Result {
+    private final Configuration configuration;
+    private final double successRate;
+    private final double convergenceEpisodes;
+    private final double convergenceMillis;
+    private final double convergenceCost;
+    private final double trainingCost;
+
+    private Result(Configuration configuration, double successRate, double convergenceEpisodes,
+      double convergenceMillis, double convergenceCost, double trainingCost) {
+      this.configuration = configuration;
+      this.successRate = successRate;
+      this.convergenceEpisodes = convergenceEpisodes;
+      this.convergenceMillis = convergenceMillis;
+      this.convergenceCost = convergenceCost;
+      this.trainingCost = trainingCost;
+    }
+
+    public Configuration getConfiguration() {
+      return configuration;
+    }
+
+    /**
+    * Returns the share of the start states from which the final policy reaches the goal
+    */
+    public double getSuccessRate() {
+      return successRate;
+    }
+
+    /**
+    * Returns the number of episodes until the success rate reached its final value for good
+    */
+    public double getConvergenceEpisodes() {
+      return convergenceEpisodes;
+    }
+
+    /**
+    * Returns the training time until convergence, without the time spent evaluating the policy
+    */
+    public double getConvergenceMillis() {
+      return convergenceMillis;
+    }
+
+    /**
+    * Returns the cost of the actions performed until convergence
+    */
+    public double getConvergenceCost() {
+      return convergenceCost;
+    }
+
+    /**
+    * Returns the cost of the actions performed during all the episodes
+    */
+    public double getTrainingCost() {
+      return trainingCost;
+    }
+
+    private JsonObject toJson() {
+      JsonObject json = new JsonObject();
+      json.addProperty("episodes", configuration.episodes);
+      json.addProperty("alpha", configuration.alpha);
+      json.addProperty("gamma", configuration.gamma);
+      json.addProperty("epsilon", configuration.epsilon);
+      json.addProperty("successRate", successRate);
+      json.addProperty("convergenceEpisodes", convergenceEpisodes);
+      json.addProperty("convergenceMillis", convergenceMillis);
+      json.addProperty("convergenceCost", convergenceCost);
+      json.addProperty("trainingCost", trainingCost);
+      return json;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: success %.1f%%, converged after %.1f episodes (%.1f ms, "
+        + "cost %.0f), training cost %.0f", configuration, 100 * successRate, convergenceEpisodes,
+        convergenceMillis, convergenceCost, trainingCost);
+    }
+  }
+
+  /* The measurements of one run (a configuration and a seed) */
+  private static class Run {
+    private double successRate;
+    private int convergenceEpisodes;
+    private double convergenceMillis;
+    private double convergenceCost;
+    private double trainingCost;
+  }
+
+  /**
+  * @param goal the goal (e.g., [2,3])
+  * @param reward the reward assigned when reaching the goal state
+  * @param threads the number of threads running the configurations
+  */
+  public HyperparameterSweep(int[] goal, double reward, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+    }
+    this.goal = goal;
+    this.reward = reward;
+    this.threads = threads;
+  }
+
+  /**
+  * Sets the number of seeds with which each configuration is trained (3 by default)
+  *
+  * @param seeds the number of seeds
+  * @return this sweep
+  */
+  public HyperparameterSweep setSeeds(int seeds) {
+    if (seeds < 1) {
+      throw new IllegalArgumentException("The number of seeds must be positive: " + seeds);
+    }
+    this.seeds = seeds;
+    return this;
+  }
+
+  /**
+  * Sets the number of steps within which a policy must reach the goal from a
+  * start state (20 by default)
+  *
+  * @param maxSteps the number of steps
+  * @return this sweep
+  */
+  public HyperparameterSweep setMaxSteps(int maxSteps) {
+    this.maxSteps = maxSteps;
+    return this;
+  }
+
+  /**
+  * Sets the training options of all the configurations. By default, the
+  * episodes start from random states.
+  *
+  * @param options the training options
+  * @return this sweep
+  */
+  public HyperparameterSweep setOptions(TrainingOptions options) {
+    this.options = options;
+    return this;
+  }
+
+  /**
+  * Returns every combination of the given values
+  */
+  public static List<Configuration> grid(int[] episodes, double[] alphas, double[] gammas,
+    double[] epsilons) {
+    List<Configuration> configurations = new ArrayList<>();
+    for (int e : episodes) {
+      for (double alpha : alphas) {
+        for (double gamma : gammas) {
+          for (double epsilon : epsilons) {
+            configurations.add(new Configuration(e, alpha, gamma, epsilon));
+          }
+        }
+      }
+    }
+    return configurations;
+  }
+
+  /**
+  * Returns the configurations of the default grid
+  */
+  public static List<Configuration> grid() {
+    return grid(new int[]{ 3, 10, 30, 100 }, new double[]{ 0.1, 0.5, 0.9 },
+      new double[]{ 0.5, 0.7, 0.9 }, new double[]{ 0.05, 0.1, 0.3 });
+  }
+
+  /**
+  * Returns configurations drawn at random: the number of episodes among the
+  * given values, alpha in [0.05,1], gamma in [0.5,0.99] and epsilon in [0.01,0.5]
+  *
+  * @param count the number of configurations
+  * @param episodes the numbers of episodes
+  * @param seed the seed of the draws
+  */
+  public static List<Configuration> random(int count, int[] episodes, long seed) {
+    Random random = new Random(seed);
+    List<Configuration> configurations = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      configurations.add(new Configuration(episodes[random.nextInt(episodes.length)],
+        0.05 + 0.95 * random.nextDouble(), 0.5 + 0.49 * random.nextDouble(),
+        0.01 + 0.49 * random.nextDouble()));
+    }
+    return configurations;
+  }
+
+  /**
+  * Trains and scores the configurations
+  *
+  * @param configurations the configurations
+  * @return the results of the configurations, best first
+  * @throws InterruptedException if interrupted while waiting for the runs
+  */
+  public List<Result> run(List<Configuration> configurations) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<List<Future<Run>>> runs = new ArrayList<>();
+
+    try {
+      for (Configuration configuration : configurations) {
+        List<Future<Run>> configurationRuns = new ArrayList<>();
+        for (int seed = 0; seed < seeds; seed++) {
+          long runSeed = seed;
+          configurationRuns.add(executor.submit(() -> run(configuration, runSeed)));
+        }
+        runs.add(configurationRuns);
+      }
+
+      List<Result> results = new ArrayList<>();
+      for (int i = 0; i < configurations.size(); i++) {
+        double successRate = 0;
+        double episodes = 0;
+        double millis = 0;
+        double cost = 0;
+        double trainingCost = 0;
+
+        for (Future<Run> future : runs.get(i)) {
+          Run run = future.get();
+          successRate += run.successRate / seeds;
+          episodes += (double) run.convergenceEpisodes / seeds;
+          millis += run.convergenceMillis / seeds;
+          cost += run.convergenceCost / seeds;
+          trainingCost += run.trainingCost / seeds;
+        }
+        results.add(new Result(configurations.get(i), successRate, episodes, millis, cost, trainingCost));
+      }
+
+      results.sort(Comparator.comparingDouble((Result r) -> -r.successRate)
+        .thenComparingDouble(r -> r.convergenceCost)
+        .thenComparingDouble(r -> r.convergenceEpisodes));
+      return results;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A run of the sweep failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /* Trains a configuration with a seed, and evaluates its policy at the checkpoints */
+  private Run run(Configuration configuration, long seed) {
+    double[] cost = new double[1];
+    SimulatedLab lab = new SimulatedLab(seed) {
+      @Override
+      public void performAction(int action) {
+        cost[0] -= QLearning.getReward(this, action, 0, false);
+        super.performAction(action);
+      }
+    };
+    PolicyEvaluator evaluator = new PolicyEvaluator(i -> new SimulatedLab(seed), 1)
+      .setMaxSteps(maxSteps);
+
+    QTable qTable = options.createQTable(lab.getStateCount(), lab.getActionCount(), seed);
+    QLearning learning = options.createLearning(lab, configuration.alpha, configuration.gamma,
+      configuration.epsilon, reward, new Random(seed));
+
+    int interval = Math.max(1, configuration.episodes / CHECKPOINTS);
+    List<double[]> checkpoints = new ArrayList<>();
+    long trainingNanos = 0;
+
+    for (int episode = 0; episode < configuration.episodes; episode++) {
+      long start = System.nanoTime();
+      learning.runEpisode(qTable, goal);
+      trainingNanos += System.nanoTime() - start;
+
+      if ((episode + 1) % interval == 0 || episode + 1 == configuration.episodes) {
+        checkpoints.add(new double[]{ episode + 1, trainingNanos / 1e6, cost[0],
+          evaluator.evaluate(PolicySnapshot.of(qTable.toArray()), goal).getSuccessRate() });
+      }
+    }
+
+    // The first checkpoint after which the success rate never drops below its final value
+    Run run = new Run();
+    double[] last = checkpoints.get(checkpoints.size() - 1);
+    double[] converged = last;
+    for (int i = checkpoints.size() - 1; i >= 0 && checkpoints.get(i)[3] >= last[3]; i--) {
+      converged = checkpoints.get(i);
+    }
+
+    run.successRate = last[3];
+    run.convergenceEpisodes = (int) converged[0];
+    run.convergenceMillis = converged[1];
+    run.convergenceCost = converged[2];
+    run.trainingCost = cost[0];
+    return run;
+  }
+
+  /**
+  * Returns the report of a sweep
+  *
+  * @param results the results of the sweep, best first
+  */
+  public JsonObject report(List<Result> results) {
+    JsonObject report = new JsonObject();
+    report.addProperty("goal", Arrays.toString(goal));
+    report.addProperty("reward", reward);
+    report.addProperty("seeds", seeds);
+    report.addProperty("maxSteps", maxSteps);
+    report.addProperty("options", options.toString());
+
+    JsonArray ranking = new JsonArray();
+    for (Result result : results) {
+      ranking.add(result.toJson());
+    }
+    report.add("ranking", ranking);
+    return report;
+  }
+
+  /**
+  * Runs a sweep on simulated labs and writes its report
+  *
+  * @param args [z1Level z2Level [random configurations, or 0 for the default
+  * grid [seeds [threads [report file]]]]]
+  */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int[] goal = args.length > 1
+      ? new int[]{ Integer.parseInt(args[0]), Integer.parseInt(args[1]) } : new int[]{ 3, 3 };
+    int count = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+    int seeds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+    int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+    File reportFile = new File(args.length > 5 ? args[5]
+      : "build/reports/sweep/sweep-" + System.currentTimeMillis() + ".json");
+
+    List<Configuration> configurations = count > 0
+      ? random(count, new int[]{ 3, 10, 30, 100 }, System.nanoTime()) : grid();
+    HyperparameterSweep sweep = new HyperparameterSweep(goal, 100, threads).setSeeds(seeds);
+    List<Result> results = sweep.run(configurations);
+
+    String json = new GsonBuilder().setPrettyPrinting().create().toJson(sweep.report(results));
+    if (reportFile.getParentFile() != null) {
+      reportFile.getParentFile().mkdirs();
+    }
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+      writer.write(json);
+    }
+
+    for (int i = 0; i < Math.min(10, results.size()); i++) {
+      System.out.println((i + 1) + ". " + results.get(i));
+    }
+    System.out.println("The report of " + results.size() + " configurations was written to " + reportFile);
+  }
+}
@@ -3,20 +3,23 @@ package tools;
 import java.io.IOException;
 import org.gradle.internal.impldep.com.google.common.collect.ImmutableSet;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.*;
 import com.google.common.collect.Sets;
 import ch.unisg.ics.interactions.wot.td.ThingDescription;
-import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
 import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
 import ch.unisg.ics.interactions.wot.td.affordances.Form;
 import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
-import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
 import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.BooleanSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
 import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+import wot.ResilientExecutor;
+import wot.TDLoadEvent;
+import wot.TraceWriter;
+import wot.WotRequestEvent;
 
 /**
 * An class that extends {@link LearningEnvironment} for representing a learning
@@ -51,6 +54,62 @@ public class Lab extends LearningEnvironment {
   */
   protected List<Integer> currentState = Arrays.asList(new Integer[7]);
 
+  /**
+  * The raw readings of the last status of the lab, in the order of the substates:
+  * the light levels and the sunshine in lux, and the lights and the blinds as 0 or 1
+  */
+  protected final double[] readings = new double[LabStatusDecoder.getReadingCount()];
+
+  /**
+  * The request and the decoder for reading the status of the lab, compiled once
+  * from the Thing Description. The retries and hedged attempts of a read, which
+  * may be in flight together with it, send new requests built from the form.
+  */
+  private TDHttpRequest statusRequest;
+  private Form statusForm;
+  private String statusTarget;
+
+  /**
+  * The form of the reset action of the lab, if its Thing Description offers one,
+  * and the encoder of its input
+  */
+  private Form resetForm;
+  private ObjectSchema resetSchema;
+  private LabStatusDecoder resetEncoder;
+
+  /* The targets of the forms of the actions, by action type */
+  private final Map<String, String> actionTargets = new HashMap<>();
+  private LabStatusDecoder statusDecoder;
+
+  /**
+  * The semantic type of the status property of the lab
+  */
+  static final String STATUS_TYPE = "https://example.org/was#Status";
+
+  /**
+  * The semantic type of the reset action of the lab, offered by the lab served
+  * by {@link SimulatedLabServer}
+  */
+  static final String RESET_TYPE = "https://example.org/was#Reset";
+
+  /**
+  * Bounds the time spent on the requests to the lab: deadlines, retries of the
+  * status reads and a circuit breaker shared with the other clients of the lab
+  */
+  private ResilientExecutor resilience;
+
+  /**
+  * The last confirmed status of the lights and the blinds (the substates 2 to 5),
+  * 0 or 1, or -1 if unknown, if the device state cache is enabled
+  */
+  private int[] confirmedDevices;
+  private long skippedActions;
+
+  /**
+  * The trace in which the status reads and the actions are recorded, if any
+  */
+  private volatile TraceWriter trace;
+
   /**
   * The state of the lab depends on the values of
   * z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine
@@ -105,6 +164,16 @@ public class Lab extends LearningEnvironment {
   */
   private static final HashMap<Integer,Integer> sunshine = new HashMap<>();
 
+  /**
+  * The semantic types of the action affordances that form the action space of the lab
+  */
+  private static final List<String> AFFORDANCE_TYPES = Arrays.asList(
+    "http://example.org/was#SetZ1Light",
+    "http://example.org/was#SetZ2Light",
+    "http://example.org/was#SetZ1Blinds",
+    "http://example.org/was#SetZ2Blinds"
+  );
+
   private static final Logger LOGGER = Logger.getLogger(Lab.class.getName());
 
   static {
@@ -134,6 +203,28 @@ public class Lab extends LearningEnvironment {
 
     };
 
+    /**
+    * Constructs a lab without a Thing Description, for subclasses that
+    * simulate the lab within the JVM.
+    * <p>The state space and the action space are the same as for a lab constructed
+    * from the Thing Description of the Interactions lab, but the actions do not
+    * carry HTTP requests.</p>
+    */
+    protected Lab() {
+      createStateSpace();
+      this.affordanceTypes = AFFORDANCE_TYPES;
+
+      for (String affType : affordanceTypes) {
+        String propName = affType.substring(affType.indexOf("#Set") + 4);
+
+        for (boolean propValue : Arrays.asList(false, true)) {
+          Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, null);
+          actionSpace.put(actionSpace.size(), action);
+        }
+      }
+      setApplicableActions();
+    }
+
     /**
     * A {@link Lab} instance is constructed based on the URL of the W3C Web of Things
     * Thing Description of a lab (simulated or real)
@@ -145,14 +236,17 @@ public class Lab extends LearningEnvironment {
       try {
 
         // Read the Thing Description from the URL
-        this.td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+        this.td = TDLoadEvent.read(url);
+        this.resilience = ResilientExecutor.forThing(url);
 
         // Create the state space
         createStateSpace();
         LOGGER.info("The lab has a state space of n="+ stateSpace.size());
 
         // Print the states of the state space
-        LOGGER.info(String.valueOf(stateSpace));
+        if (LOGGER.isLoggable(Level.FINE)) {
+          LOGGER.fine(String.valueOf(stateSpace));
+        }
 
         // Create the action space
         createActionSpace();
@@ -163,6 +257,10 @@ public class Lab extends LearningEnvironment {
           LOGGER.info(action.toString());
         }
 
+        // Compile the request and the decoder for reading the status of the lab
+        compileStatusRequest();
+        compileResetRequest();
+
         // Read the current state
         readCurrentState();
         LOGGER.info("The lab current state: " + this.currentState);
@@ -203,52 +301,127 @@ public class Lab extends LearningEnvironment {
     }
 
     /**
+    * Reads the status of the lab within the deadline of the {@link ResilientExecutor}
+    * of the lab, retrying failed reads.
+    *
+    * <p>If the status cannot be read or is incomplete, -1 is returned rather
+    * than the last known state, which may be stale.</p>
+    *
     * @see {@link LearningEnvironment#readCurrentState()}
     */
     @Override
     public int readCurrentState() {
-      Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType("https://example.org/was#Status");
-
-      if (p.isPresent()) {
-
-        Optional<Form> f = p.get().getFirstFormForOperationType(TD.readProperty);
-        DataSchema ds = p.get().getDataSchema();
+      if (statusRequest == null) {
+        return encodeState(this.currentState);
+      }
 
-        if (f.isPresent()) {
+      try {
+        AtomicBoolean sent = new AtomicBoolean();
+        TDHttpResponse response = resilience.read(() -> WotRequestEvent.execute(
+          sent.compareAndSet(false, true) ? statusRequest : new TDHttpRequest(statusForm, TD.readProperty),
+          STATUS_TYPE, TD.readProperty, statusTarget));
+        Optional<String> payload = response.getPayload();
+        record(STATUS_TYPE, response.getStatusCode(), payload.orElse(""));
+
+        if (payload.isPresent() && statusDecoder.decode(payload.get(), readings)) {
+          return acceptStatus();
+        }
+        LOGGER.severe("The status of the lab is incomplete: " + payload.orElse(""));
+      } catch (IOException e) {
+        LOGGER.severe("Unable to read the status of the lab: " + e.getMessage());
+      }
 
-          TDHttpRequest request = new TDHttpRequest(f.get(), TD.readProperty);
+      if (confirmedDevices != null) {
+        Arrays.fill(confirmedDevices, -1);
+      }
+      return -1;
+    }
 
-          try {
-            TDHttpResponse response = request.execute();
-            Map<String, Object> status = response.getPayloadAsObject((ObjectSchema) ds);
+    /* Sets the current state from the decoded readings, and refreshes the device state cache */
+    private int acceptStatus() {
+      if (confirmedDevices != null) {
+        for (int axis = 2; axis <= 5; axis++) {
+          confirmedDevices[axis] = (int) readings[axis];
+        }
+      }
+      return setCurrentState(readings);
+    }
 
-            int z1Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z1Level"));
-            int z2Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z2Level"));
+    /**
+    * Enables or disables the device state cache of the lab. When the cache is
+    * enabled, the lab remembers the status of the lights and the blinds, as
+    * confirmed by the last status read or by the successful actions since, and
+    * skips the actions that would not change it (e.g., switching on a light that
+    * is already on). Status reads refresh the cache; failed reads and failed
+    * actions invalidate it. The cache is disabled by default.
+    *
+    * @param enabled true for enabling the cache
+    */
+    public void setStateCache(boolean enabled) {
+      if (!enabled) {
+        confirmedDevices = null;
+      } else if (confirmedDevices == null) {
+        confirmedDevices = new int[currentState.size()];
+        Arrays.fill(confirmedDevices, -1);
+      }
+    }
 
-            boolean z1Light = (Boolean) status.get("http://example.org/was#Z1Light");
-            boolean z2Light = (Boolean) status.get("http://example.org/was#Z2Light");
+    /**
+    * Returns the number of actions skipped by the device state cache
+    */
+    public long getSkippedActionCount() {
+      return skippedActions;
+    }
 
-            boolean z1Blinds = (Boolean) status.get("http://example.org/was#Z1Blinds");
-            boolean z2Blinds = (Boolean) status.get("http://example.org/was#Z2Blinds");
+    /**
+    * Returns the executor that bounds the time spent on the requests to the lab,
+    * e.g., to configure its deadline, or null if the lab is simulated
+    */
+    public ResilientExecutor getResilience() {
+      return resilience;
+    }
 
-            int sunshine = discretizeSunshine((Double) status.get("http://example.org/was#Sunshine"));
+    /**
+    * Sets the current state of the lab from raw readings
+    *
+    * @param readings the readings of the substates, in the order of the substates
+    * @return the position of the state
+    */
+    protected int setCurrentState(double[] readings) {
+      int z1Level = discretizeLightLevel(readings[0]);
+      int z2Level = discretizeLightLevel(readings[1]);
+      int sunshine = discretizeSunshine(readings[6]);
+
+      currentState.set(0, z1Level);
+      currentState.set(1, z2Level);
+      currentState.set(2, (int) readings[2]);
+      currentState.set(3, (int) readings[3]);
+      currentState.set(4, (int) readings[4]);
+      currentState.set(5, (int) readings[5]);
+      currentState.set(6, sunshine);
+
+      return encodeState(z1Level, z2Level, (int) readings[2], (int) readings[3], (int) readings[4],
+        (int) readings[5], sunshine);
+    }
 
-            currentState.set(0, z1Level);
-            currentState.set(1, z2Level);
-            currentState.set(2, z1Light ? 1 : 0);
-            currentState.set(3, z2Light ? 1 : 0);
-            currentState.set(4, z1Blinds ? 1 : 0);
-            currentState.set(5, z2Blinds ? 1 : 0);
-            currentState.set(6, sunshine);
+    /**
+    * Records the status reads and the actions of the lab in a trace, e.g., to
+    * train against a {@link ReplayEnvironment} later on
+    *
+    * @param trace the trace writer, or null to stop recording
+    */
+    public void setTrace(TraceWriter trace) {
+      this.trace = trace;
+    }
 
-          } catch (IOException e) {
-            LOGGER.severe(e.getMessage());
-          }
+    private void record(String target, int statusCode, String payload) {
+      if (trace != null) {
+        try {
+          trace.recordRead(target, statusCode, payload);
+        } catch (IOException e) {
+          LOGGER.warning("Failed to record the status of the lab: " + e.getMessage());
         }
       }
-
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      return stateList.indexOf(this.currentState);
     }
 
     /**
@@ -258,8 +431,7 @@ public class Lab extends LearningEnvironment {
     public List<Integer> getApplicableActions(int state) {
 
       List<Integer> applicableActions = new ArrayList<>();
-      List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-      List<Integer> st = stateList.get(state);
+      List<Integer> st = getState(state);
 
       for (int action : actionSpace.keySet()) {
 
@@ -283,13 +455,176 @@ public class Lab extends LearningEnvironment {
     public void performAction(int action) {
       Action a = actionSpace.get(action);
 
+      // the action sets its device to the other status than the one it is applicable on
+      int axis = a.getApplicableOnStateAxis();
+      int value = 1 - a.getApplicableOnStateValue();
+      if (confirmedDevices != null) {
+        if (confirmedDevices[axis] == value) {
+          skippedActions++;
+          LOGGER.fine("Skipped " + a.getActionTag() + ": the device is already set");
+          return;
+        }
+        confirmedDevices[axis] = -1;
+      }
+
+      int statusCode = 0;
       try {
-        a.getRequest().execute();
+        statusCode = resilience.invoke(() -> WotRequestEvent.execute(a.getRequest(), a.getActionTag(),
+          TD.invokeAction, actionTargets.get(a.getActionTag()))).getStatusCode();
         LOGGER.info(a.getRequest().toString());
+
+        if (confirmedDevices != null && statusCode >= 200 && statusCode < 300) {
+          confirmedDevices[axis] = value;
+        }
       } catch (IOException e) {
         LOGGER.severe(e.getMessage());
       }
 
+      if (trace != null) {
+        try {
+          trace.recordInvoke(a.getActionTag(), TraceWriter.describePayload(a.getPayloadTags(),
+            a.getPayload()), statusCode);
+        } catch (IOException e) {
+          LOGGER.warning("Failed to record the action: " + e.getMessage());
+        }
+      }
+
+    }
+
+    /**
+    * @see {@link LearningEnvironment#supportsReset()}
+    */
+    @Override
+    public boolean supportsReset() {
+      return true;
+    }
+
+    /**
+    * Resets the lab to a state. If the Thing Description of the lab offers a
+    * reset action (e.g., the lab served by {@link SimulatedLabServer}), the lab
+    * is reset natively in one request, with representative values of the light
+    * levels and of the sunshine like {@link SimulatedLab#reset(int)}, and the
+    * response is the status that was reached.
+    *
+    * <p>Otherwise, the lab is reset by driving its actuators: the lights and the
+    * blinds are switched to the substates of the given state. The light levels
+    * and the sunshine cannot be controlled, so the returned state may differ
+    * from the given one in these substates.</p>
+    *
+    * @see {@link LearningEnvironment#reset(int)}
+    */
+    @Override
+    public int reset(int state) {
+      if (resetForm != null && statusDecoder != null) {
+        return resetNatively(state);
+      }
+
+      List<Integer> target = getState(state);
+      int current = readCurrentState();
+
+      // the actuators are the substates 2 (z1Light) to 5 (z2Blinds)
+      for (int axis = 2; axis <= 5 && current >= 0; axis++) {
+        if (!getState(current).get(axis).equals(target.get(axis))) {
+          for (int action : getApplicableActions(current)) {
+            if (getAction(action).getApplicableOnStateAxis() == axis) {
+              performAction(action);
+              current = readCurrentState();
+              break;
+            }
+          }
+        }
+      }
+      return current;
+    }
+
+    /* Resets the lab with its reset action, and returns the state in its response */
+    private int resetNatively(int state) {
+      List<Integer> substates = getState(state);
+      double[] target = new double[readings.length];
+      target[0] = SimulatedLab.LIGHT_LEVELS[substates.get(0)];
+      target[1] = SimulatedLab.LIGHT_LEVELS[substates.get(1)];
+      for (int axis = 2; axis <= 5; axis++) {
+        target[axis] = substates.get(axis);
+      }
+      target[6] = SimulatedLab.SUNSHINE_LEVELS[substates.get(6)];
+
+      TDHttpRequest request = new TDHttpRequest(resetForm, TD.invokeAction);
+      request.setObjectPayload(resetSchema, resetEncoder.encode(target));
+
+      TDHttpResponse response = null;
+      try {
+        response = resilience.invoke(() -> WotRequestEvent.execute(request, RESET_TYPE,
+          TD.invokeAction, resetForm.getTarget()));
+      } catch (IOException e) {
+        LOGGER.severe("Unable to reset the lab: " + e.getMessage());
+      }
+
+      // the reset is recorded as an action, followed by the status it reached
+      if (trace != null) {
+        try {
+          trace.recordInvoke(RESET_TYPE, TraceWriter.describePayload(new Object[0],
+            substates.toArray()), response == null ? 0 : response.getStatusCode());
+        } catch (IOException e) {
+          LOGGER.warning("Failed to record the reset: " + e.getMessage());
+        }
+      }
+
+      if (response != null && response.getStatusCode() >= 200 && response.getStatusCode() < 300) {
+        Optional<String> payload = response.getPayload();
+        record(STATUS_TYPE, response.getStatusCode(), payload.orElse(""));
+        try {
+          if (payload.isPresent() && statusDecoder.decode(payload.get(), readings)) {
+            return acceptStatus();
+          }
+        } catch (IOException e) {
+          LOGGER.severe(e.getMessage());
+        }
+      }
+      LOGGER.severe("The lab could not be reset to state " + state);
+
+      if (confirmedDevices != null) {
+        Arrays.fill(confirmedDevices, -1);
+      }
+      return readCurrentState();
+    }
+
+    /**
+    * Compiles the request for resetting the lab, if its Thing Description offers
+    * a reset action whose input has the properties of the status of the lab
+    */
+    private void compileResetRequest() {
+      Optional<ActionAffordance> a = this.td.getFirstActionBySemanticType(RESET_TYPE);
+
+      if (a.isPresent()) {
+        Optional<Form> f = a.get().getFirstFormForOperationType(TD.invokeAction);
+        Optional<DataSchema> ds = a.get().getInputSchema();
+
+        if (f.isPresent() && ds.isPresent() && ds.get() instanceof ObjectSchema) {
+          this.resetForm = f.get();
+          this.resetSchema = (ObjectSchema) ds.get();
+          this.resetEncoder = new LabStatusDecoder(resetSchema);
+          LOGGER.info("The lab can be reset natively");
+        }
+      }
+    }
+
+    /**
+    * Compiles the request and the decoder for reading the status of the lab
+    */
+    private void compileStatusRequest() {
+      Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType(STATUS_TYPE);
+
+      if (p.isPresent()) {
+        Optional<Form> f = p.get().getFirstFormForOperationType(TD.readProperty);
+        DataSchema ds = p.get().getDataSchema();
+
+        if (f.isPresent() && ds instanceof ObjectSchema) {
+          this.statusRequest = new TDHttpRequest(f.get(), TD.readProperty);
+          this.statusForm = f.get();
+          this.statusTarget = f.get().getTarget();
+          this.statusDecoder = new LabStatusDecoder((ObjectSchema) ds);
+        }
+      }
     }
 
     /**
@@ -297,12 +632,7 @@ public class Lab extends LearningEnvironment {
     */
     private void createActionSpace() {
 
-      this.affordanceTypes = Arrays.asList(
-      "http://example.org/was#SetZ1Light",
-      "http://example.org/was#SetZ2Light",
-      "http://example.org/was#SetZ1Blinds",
-      "http://example.org/was#SetZ2Blinds"
-      );
+      this.affordanceTypes = AFFORDANCE_TYPES;
 
       for (String affType : affordanceTypes) {
 
@@ -315,6 +645,7 @@ public class Lab extends LearningEnvironment {
 
           if (f.isPresent() && ds.isPresent()) {
 
+            actionTargets.put(affType, f.get().getTarget());
             Map<String, DataSchema> props = ((ObjectSchema) ds.get()).getProperties();
             Map<String, Object> payload = new HashMap<>();
 
@@ -345,7 +676,7 @@ public class Lab extends LearningEnvironment {
     * lux in [100,300) -> level 2
     * lux >= 300 -> level 3
     */
-    private int discretizeLightLevel(Double value) {
+    static int discretizeLightLevel(double value) {
       if (value < 50) {
         return 0;
       } else if (value < 100) {
@@ -363,7 +694,7 @@ public class Lab extends LearningEnvironment {
     * lux in [200,700) -> level 2
     * lux >= 700 -> level 3
     */
-    private int discretizeSunshine(Double value) {
+    static int discretizeSunshine(double value) {
       if (value < 50) {
         return 0;
       } else if (value < 200) {
@@ -374,11 +705,57 @@ public class Lab extends LearningEnvironment {
       return 3;
     }
 
+    /**
+    * Returns the position of a state in the state space of the lab.
+    * <p>The state space is the cartesian product of the substates, so the position
+    * is computed directly from the substates instead of searching the state space.
+    * </p>
+    *
+    * @return the position of the state
+    */
+    static int encodeState(int z1Level, int z2Level, int z1Light, int z2Light,
+      int z1Blinds, int z2Blinds, int sunshine) {
+      return ((((((z1Level * 4 + z2Level) * 2 + z1Light) * 2 + z2Light) * 2 + z1Blinds) * 2
+        + z2Blinds) * 4) + sunshine;
+    }
+
+    /**
+    * Returns the position of a state description in the state space of the lab
+    *
+    * @return the position of the state, or -1 if a substate is unknown
+    */
+    static int encodeState(List<Integer> state) {
+      for (Integer substate : state) {
+        if (substate == null) {
+          return -1;
+        }
+      }
+      return encodeState(state.get(0), state.get(1), state.get(2), state.get(3), state.get(4),
+        state.get(5), state.get(6));
+    }
+
     /**
     * Creates the state space of the lab
     */
     private void createStateSpace() {
-      this.stateSpace = Sets.cartesianProduct(
+      this.stateSpace = States.SPACE;
+    }
+
+    /**
+    * @see {@link LearningEnvironment#getState(int)}
+    */
+    @Override
+    public List<Integer> getState(int state) {
+      return States.LIST.get(state);
+    }
+
+    /**
+    * The state space of the lab, which is the same for every lab, so that labs
+    * (e.g., the rooms of a {@link Fleet}) share it instead of each caching
+    * their own states
+    */
+    private static final class States {
+      private static final Set<List<Integer>> SPACE = Sets.cartesianProduct(
                     ImmutableSet.copyOf(z1Level.keySet()),
                     ImmutableSet.copyOf(z2Level.keySet()),
                     ImmutableSet.copyOf(z1Light.keySet()),
@@ -387,8 +764,9 @@ public class Lab extends LearningEnvironment {
                     ImmutableSet.copyOf(z2Blinds.keySet()),
                     ImmutableSet.copyOf(sunshine.keySet())
                     );
-    }
 
+      private static final List<List<Integer>> LIST = Collections.unmodifiableList(new ArrayList<>(SPACE));
+    }
 
     /**
     * Returns the action that is applicable based on a given substate
@@ -0,0 +1,137 @@
+package tools;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import com.google.gson.stream.JsonReader;
+
+import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+import wot.PayloadDecoder;
+
+/**
+* A decoder for the status of a lab that is compiled once for the data schema
+* of the status property of the lab.
+*
+* <p>The decoder streams a status payload straight into an array of primitive
+* readings, one per substate of the lab and in the order of the substates:
+* the light levels and the sunshine in lux, and the lights and the blinds as 0
+* or 1. Unlike decoding the payload into a map, decoding a status allocates
+* almost nothing.</p>
+*
+* <p>A decoder compiled for a schema with the same properties as the status
+* (e.g., the input of the reset action of the lab) also encodes readings into
+* payloads.</p>
+*/
+class LabStatusDecoder {
+
+  private static final String[] SUBSTATE_TYPES = {
+    "http://example.org/was#Z1Level",
+    "http://example.org/was#Z2Level",
+    "http://example.org/was#Z1Light",
+    "http://example.org/was#Z2Light",
+    "http://example.org/was#Z1Blinds",
+    "http://example.org/was#Z2Blinds",
+    "http://example.org/was#Sunshine"
+  };
+
+  /* The substate of each property of the status, by property name */
+  private final Map<String, Integer> substates = new HashMap<>();
+  private final boolean[] booleanProperty = new boolean[SUBSTATE_TYPES.length];
+
+  /**
+  * Compiles a decoder for the data schema of the status of a lab
+  *
+  * @param schema the data schema of the status property
+  */
+  LabStatusDecoder(ObjectSchema schema) {
+    List<String> types = Arrays.asList(SUBSTATE_TYPES);
+
+    for (Map.Entry<String, DataSchema> property : schema.getProperties().entrySet()) {
+      int substate = types.indexOf(PayloadDecoder.getTag(property.getKey(), property.getValue()));
+
+      if (substate >= 0) {
+        substates.put(property.getKey(), substate);
+        booleanProperty[substate] = DataSchema.BOOLEAN.equals(property.getValue().getDatatype());
+      }
+    }
+  }
+
+  /* Maps the property names of the status of the simulator to the substates */
+  private LabStatusDecoder() {
+    for (int substate = 0; substate < SUBSTATE_TYPES.length; substate++) {
+      substates.put(SUBSTATE_TYPES[substate].substring(SUBSTATE_TYPES[substate].indexOf('#') + 1),
+        substate);
+      booleanProperty[substate] = substate >= 2 && substate <= 5;
+    }
+  }
+
+  /**
+  * Returns a decoder for status payloads without a data schema, which assumes
+  * the property names of the status of the simulator (e.g., "Z1Level")
+  */
+  static LabStatusDecoder forPropertyNames() {
+    return new LabStatusDecoder();
+  }
+
+  /**
+  * Returns the number of readings of a status
+  */
+  static int getReadingCount() {
+    return SUBSTATE_TYPES.length;
+  }
+
+  /**
+  * Decodes a status payload
+  *
+  * @param payload the JSON payload
+  * @param readings receives the reading of each substate
+  * @return true if the payload contained a reading for every substate
+  * @throws IOException if the payload is not a valid status
+  */
+  boolean decode(String payload, double[] readings) throws IOException {
+    int found = 0;
+
+    try (JsonReader reader = new JsonReader(new StringReader(payload))) {
+      reader.beginObject();
+
+      while (reader.hasNext()) {
+        Integer substate = substates.get(reader.nextName());
+
+        if (substate == null) {
+          reader.skipValue();
+        } else if (booleanProperty[substate]) {
+          readings[substate] = reader.nextBoolean() ? 1 : 0;
+          found |= 1 << substate;
+        } else {
+          readings[substate] = reader.nextDouble();
+          found |= 1 << substate;
+        }
+      }
+
+      reader.endObject();
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException("Invalid lab status: " + e.getMessage(), e);
+    }
+
+    return found == (1 << SUBSTATE_TYPES.length) - 1;
+  }
+
+  /**
+  * Encodes readings into the payload of an object schema, keyed by property name
+  *
+  * @param readings the reading of each substate
+  * @return the payload, with booleans for the lights and the blinds and numbers otherwise
+  */
+  Map<String, Object> encode(double[] readings) {
+    Map<String, Object> payload = new HashMap<>();
+
+    for (Map.Entry<String, Integer> property : substates.entrySet()) {
+      double reading = readings[property.getValue()];
+      payload.put(property.getKey(), booleanProperty[property.getValue()] ? (Object) (reading != 0)
+        : (Object) reading);
+    }
+    return payload;
+  }
+}
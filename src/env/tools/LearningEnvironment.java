@@ -1,5 +1,6 @@
 package tools;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -30,6 +31,12 @@ public abstract class LearningEnvironment {
   */
   protected List<String> affordanceTypes = new ArrayList<>();
 
+  /**
+  * The states of the state space in the iteration order of the state space,
+  * cached on first use
+  */
+  private List<List<Integer>> stateList;
+
   /**
   * Returns the size of the state space
   *
@@ -57,6 +64,44 @@ public abstract class LearningEnvironment {
     return actionSpace.get(action);
   }
 
+  /**
+  * Returns the description of a state of the state space, e.g., [0,1,0,1,0,0,2]
+  *
+  * @param state the position of the state in the state space
+  * @return the description of the state
+  */
+  public List<Integer> getState(int state) {
+    if (stateList == null) {
+      stateList = Collections.unmodifiableList(new ArrayList<>(stateSpace));
+    }
+    return stateList.get(state);
+  }
+
+  /**
+  * Returns a fingerprint of the state space and the action space of the
+  * environment.
+  * <p>Environments with the same fingerprint (e.g., several {@link Lab}
+  * instances created from the same Thing Description) index their states and
+  * actions in the same way, and can therefore share learned Q matrices.</p>
+  *
+  * @return the fingerprint
+  */
+  public String getFingerprint() {
+    StringBuilder descriptor = new StringBuilder();
+    descriptor.append(getStateCount()).append('|').append(getActionCount());
+
+    for (int key = 0; key < getActionCount(); key++) {
+      Action action = actionSpace.get(key);
+      descriptor.append('|').append(key)
+        .append(':').append(action.getActionTag())
+        .append(Arrays.toString(action.getPayload()))
+        .append('@').append(action.getApplicableOnStateAxis())
+        .append('=').append(action.getApplicableOnStateValue());
+    }
+
+    return UUID.nameUUIDFromBytes(descriptor.toString().getBytes(StandardCharsets.UTF_8)).toString();
+  }
+
   /**
   * Returns the states that are compatible to a given substate description.
   * <p>E.g., if the substate description is [3,3], then compatible states are
@@ -109,4 +154,39 @@ public abstract class LearningEnvironment {
   */
   public abstract void performAction(int action);
 
+  /**
+  * Returns whether the environment can be reset to a given state.
+  *
+  * @return true if {@link #reset(int)} is supported
+  */
+  public boolean supportsReset() {
+    return false;
+  }
+
+  /**
+  * Resets the environment to a given state, e.g., to start an episode from a
+  * state that has rarely been visited.
+  *<p>Environments that cannot control every substate (e.g., the light levels
+  * of a real lab) get as close to the given state as they can, and return
+  * the state that was reached.</p>
+  *
+  * @param state the state
+  * @return the state of the environment after the reset
+  * @throws UnsupportedOperationException if the environment cannot be reset
+  */
+  public int reset(int state) {
+    throw new UnsupportedOperationException("The environment cannot be reset");
+  }
+
+  /**
+  * Resets the environment to a random state
+  *
+  * @param random the source of randomness
+  * @return the state of the environment after the reset
+  * @throws UnsupportedOperationException if the environment cannot be reset
+  */
+  public int resetRandom(Random random) {
+    return reset(random.nextInt(getStateCount()));
+  }
+
 }
@@ -0,0 +1,270 @@
+package tools;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.*;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+* A load test of the illuminance control loop.
+*
+* <p>The load test runs a number of headless control loops against a lab
+* served over HTTP (by default, a {@link SimulatedLabServer} started by the
+* load test). Each loop has its own {@link Lab}, constructed from the Thing
+* Description of the lab, and runs the cycle of the illuminance agent at a
+* fixed rate: it reads the current state of the lab, chooses the greedy action
+* of a learned policy, and performs the action.</p>
+*
+* <p>The report gives the throughput of the cycles, the percentiles of their
+* latency, and the CPU time and the allocated heap per loop. It is written as
+* a JSON file, so that runs can be compared.</p>
+*/
+public class LoadTest {
+
+  private final String tdUrl;
+  private final int loops;
+  private final double cyclesPerSecond;
+  private final long durationMillis;
+  private PolicySnapshot policy;
+
+  /**
+  * @param tdUrl the URL of the Thing Description of the lab
+  * @param loops the number of concurrent control loops
+  * @param cyclesPerSecond the rate of the cycles of each loop
+  * @param durationMillis the duration of the load test in milliseconds
+  */
+  public LoadTest(String tdUrl, int loops, double cyclesPerSecond, long durationMillis) {
+    if (loops < 1 || cyclesPerSecond <= 0 || durationMillis <= 0) {
+      throw new IllegalArgumentException("The number of loops, the rate and the duration must be positive");
+    }
+    this.tdUrl = tdUrl;
+    this.loops = loops;
+    this.cyclesPerSecond = cyclesPerSecond;
+    this.durationMillis = durationMillis;
+  }
+
+  /**
+  * Sets the policy followed by the loops. By default, the loops follow a policy
+  * learned on a {@link SimulatedLab} for the goal [0,0].
+  *
+  * @param policy the policy
+  * @return this load test
+  */
+  public LoadTest setPolicy(PolicySnapshot policy) {
+    this.policy = policy;
+    return this;
+  }
+
+  /**
+  * Runs the load test
+  *
+  * @return the report of the load test
+  * @throws InterruptedException if interrupted while waiting for the loops
+  */
+  public JsonObject run() throws InterruptedException {
+    if (policy == null) {
+      TrainingOptions options = new TrainingOptions().setStartMode("random");
+      policy = PolicySnapshot.of(new HogwildTrainer(i -> new SimulatedLab(i), 1)
+        .train(new int[]{0, 0}, 200, 0.1, 0.9, 0.1, 100, 0, options));
+    }
+
+    // the labs are constructed before the loops start, so that parsing the
+    // Thing Descriptions is not measured
+    List<Lab> labs = new ArrayList<>();
+    for (int i = 0; i < loops; i++) {
+      labs.add(new Lab(tdUrl));
+    }
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+    ExecutorService executor = Executors.newFixedThreadPool(loops);
+    List<Future<LoopResult>> results = new ArrayList<>();
+    long start = System.nanoTime();
+    long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+    for (Lab lab : labs) {
+      results.add(executor.submit(() -> runLoop(lab, start, end, threads)));
+    }
+
+    List<LoopResult> loopResults = new ArrayList<>();
+    try {
+      for (Future<LoopResult> result : results) {
+        loopResults.add(result.get());
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A control loop failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+    long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+    return report(loopResults, elapsedSeconds, heapAfter - heapBefore);
+  }
+
+  /* Runs the cycles of one loop at a fixed rate until the end of the load test */
+  private LoopResult runLoop(Lab lab, long start, long end, ThreadMXBean threads) {
+    LoopResult result = new LoopResult();
+    long period = (long) (1e9 / cyclesPerSecond);
+    long cpuBefore = threads.getCurrentThreadCpuTime();
+    long allocatedBefore = getAllocatedBytes(threads);
+
+    for (long next = start; next < end && !Thread.currentThread().isInterrupted(); next += period) {
+      for (long delay = next - System.nanoTime(); delay > 0; delay = next - System.nanoTime()) {
+        LockSupport.parkNanos(delay);
+      }
+
+      // the latency is measured from the scheduled start of the cycle, so that
+      // cycles delayed by slow cycles are accounted for
+      int state = lab.readCurrentState();
+      if (state < 0) {
+        result.failures++;
+      } else {
+        lab.performAction(policy.getBestAction(lab.getApplicableActions(state), state));
+      }
+      result.record(System.nanoTime() - next);
+    }
+
+    result.cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+    result.allocatedBytes = getAllocatedBytes(threads) - allocatedBefore;
+    return result;
+  }
+
+  private JsonObject report(List<LoopResult> loopResults, double elapsedSeconds, long heapGrowth) {
+    int cycles = 0;
+    int failures = 0;
+    long cpuNanos = 0;
+    long allocatedBytes = 0;
+
+    for (LoopResult result : loopResults) {
+      cycles += result.count;
+      failures += result.failures;
+      cpuNanos += result.cpuNanos;
+      allocatedBytes += result.allocatedBytes;
+    }
+
+    long[] latencies = new long[cycles];
+    int offset = 0;
+    for (LoopResult result : loopResults) {
+      System.arraycopy(result.latencies, 0, latencies, offset, result.count);
+      offset += result.count;
+    }
+    Arrays.sort(latencies);
+
+    JsonObject report = new JsonObject();
+    report.addProperty("tdUrl", tdUrl);
+    report.addProperty("loops", loops);
+    report.addProperty("targetCyclesPerSecondPerLoop", cyclesPerSecond);
+    report.addProperty("durationSeconds", elapsedSeconds);
+    report.addProperty("cycles", cycles);
+    report.addProperty("failedCycles", failures);
+    report.addProperty("throughputCyclesPerSecond", cycles / elapsedSeconds);
+
+    JsonObject latency = new JsonObject();
+    latency.addProperty("p50Millis", percentile(latencies, 0.5) / 1e6);
+    latency.addProperty("p99Millis", percentile(latencies, 0.99) / 1e6);
+    latency.addProperty("p999Millis", percentile(latencies, 0.999) / 1e6);
+    latency.addProperty("maxMillis", cycles == 0 ? 0 : latencies[cycles - 1] / 1e6);
+    report.add("latency", latency);
+
+    JsonObject perLoop = new JsonObject();
+    perLoop.addProperty("cpuMillis", cpuNanos / 1e6 / loops);
+    perLoop.addProperty("cpuUtilization", cpuNanos / 1e9 / elapsedSeconds / loops);
+    perLoop.addProperty("allocatedBytes", allocatedBytes / loops);
+    perLoop.addProperty("allocatedBytesPerCycle", cycles == 0 ? 0 : allocatedBytes / cycles);
+    perLoop.addProperty("heapGrowthBytes", heapGrowth / loops);
+    report.add("perLoop", perLoop);
+
+    return report;
+  }
+
+  /* Nearest-rank percentile of sorted values */
+  private static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(p * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+  }
+
+  /* The allocated bytes of the current thread, if the JVM measures them */
+  private static long getAllocatedBytes(ThreadMXBean threads) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  /* The measurements of one loop */
+  private static class LoopResult {
+    private long[] latencies = new long[1024];
+    private int count;
+    private int failures;
+    private long cpuNanos;
+    private long allocatedBytes;
+
+    private void record(long latency) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = latency;
+    }
+  }
+
+  /**
+  * Runs a load test against a {@link SimulatedLabServer} and writes its report
+  *
+  * @param args [loops [cycles per second per loop [duration s [min latency ms
+  * [max latency ms [error rate [report file]]]]]]]
+  */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int loops = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    double rate = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+    long duration = args.length > 2 ? Long.parseLong(args[2]) : 30;
+    long minLatency = args.length > 3 ? Long.parseLong(args[3]) : 0;
+    long maxLatency = args.length > 4 ? Long.parseLong(args[4]) : minLatency;
+    double errorRate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+    File reportFile = new File(args.length > 6 ? args[6]
+      : "build/reports/loadtest/loadtest-" + System.currentTimeMillis() + ".json");
+
+    // the loops log every action otherwise
+    Logger.getLogger(Lab.class.getName()).setLevel(Level.WARNING);
+
+    SimulatedLabServer server = new SimulatedLabServer(0, 0)
+      .setLatency(minLatency, maxLatency)
+      .setErrorRate(errorRate)
+      .setUpdatePeriod(0);
+    server.start();
+
+    try {
+      JsonObject report = new LoadTest(server.getTdUrl(), loops, rate, duration * 1000).run();
+      report.addProperty("injectedMinLatencyMillis", minLatency);
+      report.addProperty("injectedMaxLatencyMillis", maxLatency);
+      report.addProperty("injectedErrorRate", errorRate);
+
+      String json = new GsonBuilder().setPrettyPrinting().create().toJson(report);
+      if (reportFile.getParentFile() != null) {
+        reportFile.getParentFile().mkdirs();
+      }
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+        writer.write(json);
+      }
+
+      System.out.println(json);
+      System.out.println("The report was written to " + reportFile);
+    } finally {
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package tools;
+
+import java.util.*;
+
+/**
+* The n-step Q learning update.
+*
+* <p>The Q value of a state-action pair is updated n steps after the pair
+* was visited, towards the discounted rewards of the n steps plus the
+* discounted maximum Q value of the state reached after them:
+* G = R1 + gamma * R2 + ... + gamma^(n-1) * Rn + gamma^n * max_a Q(Sn,a).
+* At the end of an episode, the pending pairs are updated with the rewards
+* observed until the end.</p>
+*
+* <p>The pending steps are kept in ring buffers of primitives of length n.</p>
+*/
+public class NStepQUpdate implements UpdateRule {
+
+  private final double alpha;
+  private final double gamma;
+  private final int n;
+
+  private final int[] states;
+  private final int[] actions;
+  private final double[] rewards;
+  private int first;
+  private int size;
+  private double lastMaxQ;
+
+  /**
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param n the number of steps of the returns
+  */
+  public NStepQUpdate(double alpha, double gamma, int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException("The number of steps must be positive: " + n);
+    }
+    this.alpha = alpha;
+    this.gamma = gamma;
+    this.n = n;
+    this.states = new int[n];
+    this.actions = new int[n];
+    this.rewards = new double[n];
+  }
+
+  @Override
+  public void startEpisode() {
+    first = 0;
+    size = 0;
+  }
+
+  @Override
+  public void update(QTable qTable, int s, int a, double r, int sPrime, List<Integer> actionsPrime,
+    int aPrime, boolean terminal) {
+    int last = (first + size) % n;
+    states[last] = s;
+    actions[last] = a;
+    rewards[last] = r;
+    size++;
+
+    if (terminal) {
+      flush(qTable, 0.0);
+    } else {
+      lastMaxQ = QLearning.maxQ(qTable, sPrime, actionsPrime);
+      if (size == n) {
+        updateFirst(qTable, lastMaxQ);
+      }
+    }
+  }
+
+  @Override
+  public void endEpisode(QTable qTable) {
+    // an episode that was cut before reaching a terminal state bootstraps from
+    // the last state that was reached
+    flush(qTable, lastMaxQ);
+  }
+
+  private void flush(QTable qTable, double bootstrap) {
+    while (size > 0) {
+      updateFirst(qTable, bootstrap);
+    }
+  }
+
+  /* Updates the oldest pending pair with the rewards of the pending steps, and removes it */
+  private void updateFirst(QTable qTable, double bootstrap) {
+    double target = 0.0;
+    double discount = 1.0;
+
+    for (int i = 0; i < size; i++) {
+      target += discount * rewards[(first + i) % n];
+      discount *= gamma;
+    }
+    target += discount * bootstrap;
+
+    int s = states[first];
+    int a = actions[first];
+    qTable.add(s, a, alpha * (target - qTable.get(s, a)));
+
+    first = (first + 1) % n;
+    size--;
+  }
+}
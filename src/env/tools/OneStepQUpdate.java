@@ -0,0 +1,37 @@
+package tools;
+
+import java.util.*;
+
+/**
+* The one-step Q learning update:
+* Q(S,A) = Q(S,A) + alpha * (R + gamma * max_a Q(S',a) - Q(S,A))
+*/
+public class OneStepQUpdate implements UpdateRule {
+
+  private final double alpha;
+  private final double gamma;
+
+  /**
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  */
+  public OneStepQUpdate(double alpha, double gamma) {
+    this.alpha = alpha;
+    this.gamma = gamma;
+  }
+
+  @Override
+  public void startEpisode() {
+  }
+
+  @Override
+  public void update(QTable qTable, int s, int a, double r, int sPrime, List<Integer> actionsPrime,
+    int aPrime, boolean terminal) {
+    double target = r + gamma * QLearning.maxQ(qTable, sPrime, actionsPrime);
+    qTable.add(s, a, alpha * (target - qTable.get(s, a)));
+  }
+
+  @Override
+  public void endEpisode(QTable qTable) {
+  }
+}
@@ -0,0 +1,158 @@
+package tools;
+
+import java.util.*;
+
+/**
+* Compares the greedy policies of two snapshots of a Q matrix, e.g., a policy
+* learned with doubles and the same policy learned with floats or quantized.
+*
+* <p>Two policies agree in a state if they choose the same greedy action among
+* the applicable actions. Where they choose different actions, the actions may
+* still be equally good according to the reference policy (a tie), or the other
+* policy may lose value: the report gives the number of states of each kind,
+* and the largest loss of Q value.</p>
+*/
+public class PolicyAgreement {
+
+  private final int states;
+  private final int agreements;
+  private final int ties;
+  private final double maxValueLoss;
+  private final double maxValueError;
+  private final List<Integer> disagreements;
+
+  private PolicyAgreement(int states, int agreements, int ties, double maxValueLoss,
+    double maxValueError, List<Integer> disagreements) {
+    this.states = states;
+    this.agreements = agreements;
+    this.ties = ties;
+    this.maxValueLoss = maxValueLoss;
+    this.maxValueError = maxValueError;
+    this.disagreements = Collections.unmodifiableList(disagreements);
+  }
+
+  /**
+  * Compares the greedy actions of two policies in every state of an environment
+  *
+  * @param environment the environment of the policies
+  * @param reference the reference policy
+  * @param other the compared policy
+  * @return the agreement of the policies
+  */
+  public static PolicyAgreement compare(LearningEnvironment environment, PolicySnapshot reference,
+    PolicySnapshot other) {
+    int agreements = 0;
+    int ties = 0;
+    double maxValueLoss = 0;
+    double maxValueError = 0;
+    List<Integer> disagreements = new ArrayList<>();
+
+    for (int state = 0; state < environment.getStateCount(); state++) {
+      List<Integer> actions = environment.getApplicableActions(state);
+
+      for (int a : actions) {
+        maxValueError = Math.max(maxValueError,
+          Math.abs(reference.getValue(state, a) - other.getValue(state, a)));
+      }
+
+      int referenceAction = reference.getBestAction(actions, state);
+      int otherAction = other.getBestAction(actions, state);
+
+      if (referenceAction == otherAction) {
+        agreements++;
+      } else {
+        double loss = reference.getValue(state, referenceAction) - reference.getValue(state, otherAction);
+        if (loss == 0) {
+          ties++;
+        } else {
+          maxValueLoss = Math.max(maxValueLoss, loss);
+          disagreements.add(state);
+        }
+      }
+    }
+
+    return new PolicyAgreement(environment.getStateCount(), agreements, ties, maxValueLoss,
+      maxValueError, disagreements);
+  }
+
+  public int getStateCount() {
+    return states;
+  }
+
+  /**
+  * Returns the number of states in which the policies choose the same action
+  */
+  public int getAgreementCount() {
+    return agreements;
+  }
+
+  /**
+  * Returns the number of states in which the policies choose different actions
+  * of the same value according to the reference policy
+  */
+  public int getTieCount() {
+    return ties;
+  }
+
+  /**
+  * Returns the states in which the compared policy chooses an action of lower
+  * value according to the reference policy
+  */
+  public List<Integer> getDisagreements() {
+    return disagreements;
+  }
+
+  /**
+  * Returns the largest loss of Q value (according to the reference policy) of
+  * the actions chosen by the compared policy
+  */
+  public double getMaxValueLoss() {
+    return maxValueLoss;
+  }
+
+  /**
+  * Returns the largest difference of the Q values of applicable actions
+  */
+  public double getMaxValueError() {
+    return maxValueError;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "agreement %d/%d states (%.2f%%), %d ties, %d disagreements, "
+      + "max value loss %.6g, max value error %.6g", agreements, states, 100.0 * agreements / states,
+      ties, disagreements.size(), maxValueLoss, maxValueError);
+  }
+
+  /**
+  * Learns a policy on a {@link SimulatedLab} with each storage mode, and
+  * reports the agreement of each policy with the policy learned with doubles
+  *
+  * @param args [z1Level z2Level [episodes [seed]]]
+  */
+  public static void main(String[] args) {
+    int[] goal = args.length > 1
+      ? new int[]{ Integer.parseInt(args[0]), Integer.parseInt(args[1]) } : new int[]{ 3, 3 };
+    int episodes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : 0L;
+
+    SimulatedLab lab = new SimulatedLab(seed);
+    PolicySnapshot reference = train(goal, episodes, seed, "double");
+    System.out.println("double: published " + reference.getValueBytes() + " bytes");
+
+    for (String storage : Arrays.asList("float", "float-stochastic", "quantized")) {
+      PolicySnapshot policy = train(goal, episodes, seed, storage);
+      System.out.println(storage + ": published " + policy.getValueBytes() + " bytes, "
+        + compare(lab, reference, policy));
+    }
+    System.out.println("double quantized after training: "
+      + compare(lab, reference, reference.quantize()));
+  }
+
+  private static PolicySnapshot train(int[] goal, int episodes, long seed, String storage) {
+    TrainingOptions options = new TrainingOptions().setStartMode("random").setStorage(storage);
+    double[][] qTable = new HogwildTrainer(i -> new SimulatedLab(seed + i), 1)
+      .train(goal, episodes, 0.1, 0.9, 0.1, 100, seed, options);
+    return options.createSnapshot(qTable);
+  }
+}
@@ -0,0 +1,313 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+
+/**
+* Evaluates the greedy policy of a Q matrix from every start state of an
+* environment, e.g., before the policy is published or applied to the real lab.
+*
+* <p>From each start state that does not satisfy the goal, the environment is
+* reset to the state and the greedy action of the policy is performed until the
+* goal is reached, a state is revisited, or the step cap is reached. A revisit
+* means that the policy loops (in a deterministic environment such as a
+* {@link SimulatedLab}, it would loop forever); otherwise, a rollout that does
+* not reach the goal within the step cap fails. The start states are split
+* among several threads, each with its own environment.</p>
+*
+* <p>The energy cost of a rollout is the cost of its actions: switching the
+* lights costs 50, moving the blinds costs 1 (see {@link QLearning#getReward}).</p>
+*
+* <p>An evaluator is thread-safe as long as it is not used for several
+* evaluations at once, and should be closed when it is no longer used.</p>
+*/
+public class PolicyEvaluator implements AutoCloseable {
+
+  private final LearningEnvironment[] environments;
+  private final ExecutorService executor;
+  private int maxSteps = 20;
+
+  /**
+  * The result of evaluating a policy for a goal
+  */
+  public static final class Evaluation {
+    private final int[] goal;
+    private final int starts;
+    private final int successes;
+    private final long totalSteps;
+    private final int maxSteps;
+    private final double totalCost;
+    private final List<Integer> loopingStates;
+    private final List<Integer> failedStates;
+
+    private Evaluation(int[] goal, int starts, int successes, long totalSteps, int maxSteps,
+      double totalCost, List<Integer> loopingStates, List<Integer> failedStates) {
+      this.goal = goal;
+      this.starts = starts;
+      this.successes = successes;
+      this.totalSteps = totalSteps;
+      this.maxSteps = maxSteps;
+      this.totalCost = totalCost;
+      this.loopingStates = Collections.unmodifiableList(loopingStates);
+      this.failedStates = Collections.unmodifiableList(failedStates);
+    }
+
+    public int[] getGoal() {
+      return goal.clone();
+    }
+
+    /**
+    * Returns the number of start states, i.e., the states that do not satisfy the goal
+    */
+    public int getStartCount() {
+      return starts;
+    }
+
+    public int getSuccessCount() {
+      return successes;
+    }
+
+    /**
+    * Returns the share of the start states from which the policy reaches the goal
+    */
+    public double getSuccessRate() {
+      return starts == 0 ? 1 : (double) successes / starts;
+    }
+
+    /**
+    * Returns the mean number of steps to the goal of the successful rollouts
+    */
+    public double getMeanSteps() {
+      return successes == 0 ? 0 : (double) totalSteps / successes;
+    }
+
+    /**
+    * Returns the largest number of steps to the goal of the successful rollouts
+    */
+    public int getMaxSteps() {
+      return maxSteps;
+    }
+
+    /**
+    * Returns the mean energy cost of the successful rollouts
+    */
+    public double getMeanCost() {
+      return successes == 0 ? 0 : totalCost / successes;
+    }
+
+    /**
+    * Returns the start states from which the policy revisits a state before reaching the goal
+    */
+    public List<Integer> getLoopingStates() {
+      return loopingStates;
+    }
+
+    /**
+    * Returns the start states from which the policy does not reach the goal
+    * within the step cap, without revisiting a state
+    */
+    public List<Integer> getFailedStates() {
+      return failedStates;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "goal %s: success %d/%d (%.1f%%), steps mean %.2f max %d, "
+        + "mean cost %.1f, %d looping, %d failed", Arrays.toString(goal), successes, starts,
+        100 * getSuccessRate(), getMeanSteps(), maxSteps, getMeanCost(), loopingStates.size(),
+        failedStates.size());
+    }
+  }
+
+  /* The measurements of the rollouts of one thread */
+  private static class Rollouts {
+    private int starts;
+    private int successes;
+    private long totalSteps;
+    private int maxSteps;
+    private double totalCost;
+    private final List<Integer> loopingStates = new ArrayList<>();
+    private final List<Integer> failedStates = new ArrayList<>();
+  }
+
+  /**
+  * @param environments creates the environment of each thread from the index of
+  * the thread; the environments must support resets
+  * @param threads the number of threads
+  */
+  public PolicyEvaluator(IntFunction<? extends LearningEnvironment> environments, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+    }
+    this.environments = new LearningEnvironment[threads];
+    for (int i = 0; i < threads; i++) {
+      this.environments[i] = environments.apply(i);
+      if (!this.environments[i].supportsReset()) {
+        throw new IllegalArgumentException("The environments of an evaluator must support resets");
+      }
+    }
+    this.executor = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, runnable -> {
+      Thread thread = new Thread(runnable, "policy-evaluator");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+  * Sets the number of steps within which the policy must reach the goal from
+  * a start state (20 by default)
+  *
+  * @param maxSteps the number of steps
+  * @return this evaluator
+  */
+  public PolicyEvaluator setMaxSteps(int maxSteps) {
+    if (maxSteps < 1) {
+      throw new IllegalArgumentException("The step cap must be positive: " + maxSteps);
+    }
+    this.maxSteps = maxSteps;
+    return this;
+  }
+
+  /**
+  * Evaluates the greedy policy of a Q matrix for a goal, with the step cap of
+  * the evaluator
+  *
+  * @param policy the policy
+  * @param goal the goal (e.g., [2,3])
+  * @return the evaluation
+  */
+  public Evaluation evaluate(PolicySnapshot policy, int[] goal) {
+    return evaluate(policy, goal, maxSteps);
+  }
+
+  /**
+  * Evaluates the greedy policy of a Q matrix for a goal, with a step cap that
+  * only applies to this evaluation
+  *
+  * @param policy the policy
+  * @param goal the goal (e.g., [2,3])
+  * @param maxSteps the number of steps within which the policy must reach the goal
+  * @return the evaluation
+  */
+  public Evaluation evaluate(PolicySnapshot policy, int[] goal, int maxSteps) {
+    if (maxSteps < 1) {
+      throw new IllegalArgumentException("The step cap must be positive: " + maxSteps);
+    }
+    int threads = environments.length;
+    int stateCount = environments[0].getStateCount();
+    List<Future<Rollouts>> futures = new ArrayList<>();
+
+    for (int i = 1; i < threads; i++) {
+      LearningEnvironment environment = environments[i];
+      int from = i * stateCount / threads;
+      int to = (i + 1) * stateCount / threads;
+      futures.add(executor.submit(() -> rollout(environment, policy, goal, maxSteps, from, to)));
+    }
+
+    List<Rollouts> results = new ArrayList<>();
+    results.add(rollout(environments[0], policy, goal, maxSteps, 0, stateCount / threads));
+    try {
+      for (Future<Rollouts> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while evaluating a policy", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("An evaluation thread failed", e.getCause());
+    }
+
+    int starts = 0;
+    int successes = 0;
+    long totalSteps = 0;
+    int maxStepsToGoal = 0;
+    double totalCost = 0;
+    List<Integer> loopingStates = new ArrayList<>();
+    List<Integer> failedStates = new ArrayList<>();
+
+    for (Rollouts rollouts : results) {
+      starts += rollouts.starts;
+      successes += rollouts.successes;
+      totalSteps += rollouts.totalSteps;
+      maxStepsToGoal = Math.max(maxStepsToGoal, rollouts.maxSteps);
+      totalCost += rollouts.totalCost;
+      loopingStates.addAll(rollouts.loopingStates);
+      failedStates.addAll(rollouts.failedStates);
+    }
+
+    return new Evaluation(goal.clone(), starts, successes, totalSteps, maxStepsToGoal, totalCost,
+      loopingStates, failedStates);
+  }
+
+  /**
+  * Evaluates the greedy policies of several goals
+  *
+  * @param policies the policies by goal key (see {@link PolicyRegistry#getGoalKey(int[])})
+  * @return the evaluations by goal key
+  */
+  public Map<Integer, Evaluation> evaluateAll(Map<Integer, PolicySnapshot> policies) {
+    Map<Integer, Evaluation> evaluations = new TreeMap<>();
+    policies.forEach((goalKey, policy) ->
+      evaluations.put(goalKey, evaluate(policy, new int[]{ goalKey / 10, goalKey % 10 })));
+    return evaluations;
+  }
+
+  /* Rolls out the policy from the start states in [from, to) */
+  private Rollouts rollout(LearningEnvironment environment, PolicySnapshot policy, int[] goal,
+    int maxSteps, int from, int to) {
+    Rollouts rollouts = new Rollouts();
+    // the start state of the rollout in which each state was last visited
+    int[] visits = new int[environment.getStateCount()];
+    Arrays.fill(visits, -1);
+
+    for (int start = from; start < to; start++) {
+      if (QLearning.isGoalState(environment, start, goal)) {
+        continue;
+      }
+      rollouts.starts++;
+
+      int state = environment.reset(start);
+      double cost = 0;
+      boolean looping = false;
+      boolean reached = false;
+      int steps = 0;
+
+      while (steps < maxSteps) {
+        visits[state] = start;
+        int action = policy.getBestAction(environment.getApplicableActions(state), state);
+        environment.performAction(action);
+        cost -= QLearning.getReward(environment, action, 0, false);
+        state = environment.readCurrentState();
+        steps++;
+
+        if (QLearning.isGoalState(environment, state, goal)) {
+          reached = true;
+          break;
+        } else if (visits[state] == start) {
+          looping = true;
+          break;
+        }
+      }
+
+      if (reached) {
+        rollouts.successes++;
+        rollouts.totalSteps += steps;
+        rollouts.maxSteps = Math.max(rollouts.maxSteps, steps);
+        rollouts.totalCost += cost;
+      } else if (looping) {
+        rollouts.loopingStates.add(start);
+      } else {
+        rollouts.failedStates.add(start);
+      }
+    }
+    return rollouts;
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
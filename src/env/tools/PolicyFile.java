@@ -0,0 +1,164 @@
+package tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+* A policy snapshot stored in a file, with the fingerprint of the lab and the
+* goal for which it was learned, so that policies trained headless (see
+* {@link TrainPolicies}) can be loaded by the learners of the same lab (see
+* {@link QLearner#loadPolicies(String)}).
+*
+* <p>The file is binary: MAGIC, VERSION, the fingerprint, the goal, a
+* description of the training, and the snapshot as doubles, as floats or as
+* 16-bit quantized values. Files of version 1 cannot hold floats, and are
+* still read.</p>
+*/
+public final class PolicyFile {
+
+  /** The extension of policy files */
+  public static final String EXTENSION = ".policy";
+
+  static final int MAGIC = 0x51504F4C;
+  static final int VERSION = 2;
+
+  private final String fingerprint;
+  private final int[] goal;
+  private final String description;
+  private final PolicySnapshot snapshot;
+
+  /**
+  * @param fingerprint the fingerprint of the lab (see {@link LearningEnvironment#getFingerprint()})
+  * @param goal the goal (e.g., [2,3])
+  * @param description a description of the training (e.g., its parameters)
+  * @param snapshot the policy
+  */
+  public PolicyFile(String fingerprint, int[] goal, String description, PolicySnapshot snapshot) {
+    this.fingerprint = fingerprint;
+    this.goal = goal.clone();
+    this.description = description;
+    this.snapshot = snapshot;
+  }
+
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public int[] getGoal() {
+    return goal.clone();
+  }
+
+  /**
+  * Returns the key of the goal in the {@link PolicyRegistry}
+  */
+  public int getGoalKey() {
+    return PolicyRegistry.getGoalKey(goal);
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public PolicySnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+  * Returns the name of the file of the policy of a goal (e.g., policy-2-3.policy)
+  */
+  public static String getFileName(int[] goal) {
+    StringBuilder name = new StringBuilder("policy");
+    for (int value : goal) {
+      name.append('-').append(value);
+    }
+    return name.append(EXTENSION).toString();
+  }
+
+  /**
+  * Writes the policy to a file, replacing the file if it exists
+  *
+  * @param file the file
+  * @throws IOException if the file cannot be written
+  */
+  public void write(File file) throws IOException {
+    if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+
+    // written next to the file first, and moved over it atomically, so that readers see either
+    // the old or the new policy, even if the writer dies
+    File partial = new File(file.getPath() + ".part");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(fingerprint);
+      out.writeInt(goal.length);
+      for (int value : goal) {
+        out.writeInt(value);
+      }
+      out.writeUTF(description);
+      snapshot.write(out);
+    }
+    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+      StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+  * Reads a policy file
+  *
+  * @param file the file
+  * @return the policy
+  * @throws IOException if the file cannot be read or is not a policy file
+  */
+  public static PolicyFile read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a policy file: " + file);
+      }
+      int version = in.readInt();
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported version " + version + " of policy file: " + file);
+      }
+      String fingerprint = in.readUTF();
+      int[] goal = new int[in.readInt()];
+      for (int i = 0; i < goal.length; i++) {
+        goal[i] = in.readInt();
+      }
+      String description = in.readUTF();
+      return new PolicyFile(fingerprint, goal, description, PolicySnapshot.read(in));
+    }
+  }
+
+  /**
+  * Reads a policy file, or the policy files of a directory
+  *
+  * @param path the path of a policy file or a directory
+  * @return the policies, sorted by file name
+  * @throws IOException if a file cannot be read or is not a policy file
+  */
+  public static List<PolicyFile> readAll(File path) throws IOException {
+    List<PolicyFile> policies = new ArrayList<>();
+    if (!path.isDirectory()) {
+      policies.add(read(path));
+      return policies;
+    }
+
+    File[] files = path.listFiles((directory, name) -> name.endsWith(EXTENSION));
+    if (files == null) {
+      throw new IOException("Unable to list " + path);
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      policies.add(read(file));
+    }
+    return policies;
+  }
+
+  @Override
+  public String toString() {
+    return "policy for goal " + Arrays.toString(goal) + " of lab " + fingerprint + " ("
+      + description + ")";
+  }
+}
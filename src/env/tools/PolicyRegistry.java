@@ -0,0 +1,160 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.*;
+
+/**
+* A JVM-wide registry of the Q matrices learned for environments that share
+* the same fingerprint (see {@link LearningEnvironment#getFingerprint()}).
+*
+* <p>Q matrices are stored per fingerprint and goal as immutable
+* {@link PolicySnapshot} instances. Readers access them without locking, and
+* training results are published copy-on-write by replacing the snapshot of a
+* goal. Each fingerprint is reference-counted by its users (e.g., the
+* {@link QLearner} artifacts of a lab), and its snapshots are evicted once the
+* last user has released it. Snapshots are only kept for fingerprints that are
+* retained: a snapshot published for a fingerprint without users is dropped,
+* since it would be evicted at once.</p>
+*/
+public final class PolicyRegistry {
+
+  private static final PolicyRegistry INSTANCE = new PolicyRegistry();
+
+  private static final Logger LOGGER = Logger.getLogger(PolicyRegistry.class.getName());
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private PolicyRegistry() {
+  }
+
+  /**
+  * Returns the registry of the JVM
+  *
+  * @return the registry
+  */
+  public static PolicyRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+  * Returns the key of the Q matrices learned for a goal of the lab: the goal
+  * [z1Level, z2Level] has the key z1Level * 10 + z2Level
+  *
+  * @param goal the goal (e.g., [2,3])
+  * @return the key of the goal
+  */
+  public static int getGoalKey(int[] goal) {
+    return goal[0] * 10 + goal[1];
+  }
+
+  /**
+  * Registers a user of the Q matrices of a fingerprint
+  *
+  * @param fingerprint the environment fingerprint
+  */
+  public void retain(String fingerprint) {
+    entries.compute(fingerprint, (key, entry) -> {
+      Entry e = entry == null ? new Entry() : entry;
+      e.references++;
+      return e;
+    });
+  }
+
+  /**
+  * Unregisters a user of the Q matrices of a fingerprint. The Q matrices are
+  * evicted when no users are left, and later publications for the fingerprint
+  * are dropped until it is retained again.
+  *
+  * @param fingerprint the environment fingerprint
+  */
+  public void release(String fingerprint) {
+    entries.computeIfPresent(fingerprint, (key, entry) -> {
+      entry.references--;
+      if (entry.references <= 0) {
+        LOGGER.info("Evicting " + entry.snapshots.size() + " Q matrices of " + key);
+        return null;
+      }
+      return entry;
+    });
+  }
+
+  /**
+  * Returns the number of users of the Q matrices of a fingerprint
+  *
+  * @param fingerprint the environment fingerprint
+  * @return the number of users
+  */
+  public int getReferenceCount(String fingerprint) {
+    Entry entry = entries.get(fingerprint);
+    return entry == null ? 0 : entry.references;
+  }
+
+  /**
+  * Returns the Q matrix learned for a goal
+  *
+  * @param fingerprint the environment fingerprint
+  * @param goalKey the key of the goal
+  * @return the snapshot of the Q matrix, if any
+  */
+  public Optional<PolicySnapshot> get(String fingerprint, int goalKey) {
+    Entry entry = entries.get(fingerprint);
+    return entry == null ? Optional.empty() : Optional.ofNullable(entry.snapshots.get(goalKey));
+  }
+
+  /**
+  * Returns the Q matrices learned for all the goals of a fingerprint
+  *
+  * @param fingerprint the environment fingerprint
+  * @return an unmodifiable view of the snapshots by goal key
+  */
+  public Map<Integer, PolicySnapshot> getAll(String fingerprint) {
+    Entry entry = entries.get(fingerprint);
+    return entry == null ? Collections.emptyMap() : Collections.unmodifiableMap(entry.snapshots);
+  }
+
+  /**
+  * Publishes a Q matrix learned for a goal. The matrix is copied, and the
+  * copy replaces the previous snapshot of the goal.
+  *
+  * @param fingerprint the environment fingerprint
+  * @param goalKey the key of the goal
+  * @param qTable the Q matrix
+  * @return true if the matrix was published, false if no user retains the
+  * fingerprint, in which case the matrix is dropped
+  */
+  public boolean publish(String fingerprint, int goalKey, double[][] qTable) {
+    return publish(fingerprint, goalKey, PolicySnapshot.of(qTable));
+  }
+
+  /**
+  * Publishes a snapshot for a goal, replacing the previous snapshot of the goal.
+  * The snapshot is stored atomically with respect to {@link #release(String)},
+  * so that it is either published to a retained fingerprint, or dropped.
+  *
+  * @param fingerprint the environment fingerprint
+  * @param goalKey the key of the goal
+  * @param snapshot the snapshot
+  * @return true if the snapshot was published, false if no user retains the
+  * fingerprint, in which case the snapshot is dropped
+  */
+  public boolean publish(String fingerprint, int goalKey, PolicySnapshot snapshot) {
+    Entry published = entries.computeIfPresent(fingerprint, (key, entry) -> {
+      entry.snapshots.put(goalKey, snapshot);
+      return entry;
+    });
+
+    if (published == null) {
+      LOGGER.warning("Dropping the Q matrix of goal " + goalKey + ": no user retains fingerprint "
+        + fingerprint);
+      return false;
+    }
+    return true;
+  }
+
+  private static final class Entry {
+    /* Only updated inside compute methods of the entries map, and never 0 in the map */
+    private volatile int references;
+    private final ConcurrentHashMap<Integer, PolicySnapshot> snapshots = new ConcurrentHashMap<>();
+  }
+}
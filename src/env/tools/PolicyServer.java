@@ -0,0 +1,504 @@
+package tools;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+* An HTTP server that answers (goal, state) → action queries with the greedy
+* policies of the Q matrices of the {@link PolicyRegistry}, for consumers
+* outside of the agent platform (e.g., dashboards or gateways).
+*
+* <p>The server exposes the following endpoints:</p>
+* <ul>
+* <li> GET /policies/goals returns the goals with a published policy
+* <li> GET /policies/action?goal=3,3&amp;state=17 returns the action of a goal
+* in a state, given by its position in the state space or by its substates
+* (e.g., state=3,3,0,0,1,1,2)
+* <li> POST /policies/actions answers a JSON array of queries, e.g.,
+* [{"goal":[3,3],"state":17}, ...], with an array of actions in the same order
+* </ul>
+*
+* <p>The queries of concurrent requests are micro-batched: the HTTP threads
+* hand their queries over to a small pool of decision threads, each of which
+* drains the pending requests (up to the batch size) and answers them at once,
+* looking up the policy of each goal once per batch. The policies are read from
+* the registry without locking, so a Q matrix published by a learner (or loaded
+* from a policy file) replaces the previous one from the next batch on, without
+* restarting the server.</p>
+*/
+public class PolicyServer {
+
+  private final int port;
+  private final String fingerprint;
+  private final LearningEnvironment environment;
+  private final PolicyRegistry registry = PolicyRegistry.getInstance();
+
+  /* The applicable actions of each state, and the positions of the states by substates */
+  private final List<List<Integer>> applicableActions = new ArrayList<>();
+  private final Map<List<Integer>, Integer> states = new HashMap<>();
+
+  private int decisionThreads = 2;
+  private int maxBatchSize = 256;
+  private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+  private final List<Thread> deciders = new ArrayList<>();
+  private HttpServer server;
+
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private static final Logger LOGGER = Logger.getLogger(PolicyServer.class.getName());
+
+  static {
+    // the JDK server writes the headers and the body of a response separately, so
+    // small responses would wait for delayed ACKs (about 40 ms) without TCP_NODELAY;
+    // the property is read when the first JDK server is created
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  /**
+  * The queries of an HTTP request, answered by a decision thread
+  */
+  private static final class Request {
+    private final int[] goalKeys;
+    private final int[] states;
+    private final int[] actions;
+    private final CountDownLatch answered = new CountDownLatch(1);
+
+    private Request(int[] goalKeys, int[] states) {
+      this.goalKeys = goalKeys;
+      this.states = states;
+      this.actions = new int[goalKeys.length];
+    }
+  }
+
+  /**
+  * @param port the port of the server (0 for any free port)
+  * @param environment the environment of the policies, whose fingerprint
+  * selects the policies in the registry
+  */
+  public PolicyServer(int port, LearningEnvironment environment) {
+    this.port = port;
+    this.environment = environment;
+    this.fingerprint = environment.getFingerprint();
+
+    for (int state = 0; state < environment.getStateCount(); state++) {
+      applicableActions.add(Collections.unmodifiableList(environment.getApplicableActions(state)));
+      states.put(environment.getState(state), state);
+    }
+  }
+
+  /**
+  * Sets the number of threads that answer the queries (2 by default). Takes
+  * effect when the server is started.
+  *
+  * @param threads the number of threads
+  * @return this server
+  */
+  public PolicyServer setDecisionThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+    }
+    this.decisionThreads = threads;
+    return this;
+  }
+
+  /**
+  * Sets the largest number of queries answered at once by a decision thread
+  * (256 by default). A request with more queries is answered in a batch of its own.
+  *
+  * @param maxBatchSize the number of queries
+  * @return this server
+  */
+  public PolicyServer setMaxBatchSize(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be positive: " + maxBatchSize);
+    }
+    this.maxBatchSize = maxBatchSize;
+    return this;
+  }
+
+  /**
+  * Starts the server
+  *
+  * @throws IOException if the server cannot be bound to its port
+  */
+  public synchronized void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    server.setExecutor(Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()),
+      daemonThreads("policy-server")));
+
+    server.createContext("/policies/goals", exchange -> handle(exchange, "GET", () -> getGoals(exchange)));
+    server.createContext("/policies/action", exchange -> handle(exchange, "GET", () -> getAction(exchange)));
+    server.createContext("/policies/actions", exchange -> handle(exchange, "POST", () -> getActions(exchange)));
+
+    // the policies of the fingerprint are kept while the server is running
+    registry.retain(fingerprint);
+    for (int i = 0; i < decisionThreads; i++) {
+      Thread decider = daemonThreads("policy-server-decisions").newThread(this::decide);
+      deciders.add(decider);
+      decider.start();
+    }
+    server.start();
+    LOGGER.info("The policies of lab fingerprint " + fingerprint + " are served at " + getBaseUrl());
+  }
+
+  /**
+  * Stops the server
+  */
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      ((ExecutorService) server.getExecutor()).shutdownNow();
+      server = null;
+
+      for (Thread decider : deciders) {
+        decider.interrupt();
+      }
+      deciders.clear();
+      registry.release(fingerprint);
+    }
+  }
+
+  /**
+  * Returns the base URL of the server (e.g., http://localhost:8080)
+  */
+  public String getBaseUrl() {
+    int boundPort = server == null ? port : server.getAddress().getPort();
+    return "http://localhost:" + boundPort;
+  }
+
+  /**
+  * Returns the greedy action of the policy of a goal in a state, without batching
+  *
+  * @param goalKey the key of the goal (see {@link PolicyRegistry#getGoalKey(int[])})
+  * @param state the state
+  * @return the action, or -1 if no policy was published for the goal
+  */
+  public int getBestAction(int goalKey, int state) {
+    Optional<PolicySnapshot> policy = registry.get(fingerprint, goalKey);
+    return policy.isPresent() ? policy.get().getBestAction(applicableActions.get(state), state) : -1;
+  }
+
+  /* Answers batches of requests until the thread is interrupted */
+  private void decide() {
+    List<Request> batch = new ArrayList<>();
+    Map<Integer, PolicySnapshot> policies = new HashMap<>();
+
+    try {
+      while (true) {
+        Request first = requests.take();
+        batch.add(first);
+        for (int size = first.goalKeys.length; size < maxBatchSize; ) {
+          Request next = requests.peek();
+          if (next == null || size + next.goalKeys.length > maxBatchSize || !requests.remove(next)) {
+            break;
+          }
+          batch.add(next);
+          size += next.goalKeys.length;
+        }
+
+        // each policy is looked up once per batch, so that a batch uses a consistent policy per goal
+        for (Request request : batch) {
+          for (int i = 0; i < request.goalKeys.length; i++) {
+            PolicySnapshot policy = policies.computeIfAbsent(request.goalKeys[i],
+              goalKey -> registry.get(fingerprint, goalKey).orElse(null));
+            int state = request.states[i];
+            request.actions[i] = policy == null ? -1
+              : policy.getBestAction(applicableActions.get(state), state);
+          }
+          request.answered.countDown();
+        }
+        batch.clear();
+        policies.clear();
+      }
+    } catch (InterruptedException e) {
+      // the server was stopped
+    }
+  }
+
+  /* Hands queries over to the decision threads, and waits for the actions */
+  private int[] submit(int[] goalKeys, int[] states) throws IOException, InterruptedException {
+    Request request = new Request(goalKeys, states);
+    requests.add(request);
+    if (!request.answered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+      throw new IOException("The queries were not answered within " + TIMEOUT_MILLIS + " ms");
+    }
+    return request.actions;
+  }
+
+  private void getGoals(HttpExchange exchange) throws IOException {
+    JsonArray goals = new JsonArray();
+    for (int goalKey : new TreeSet<>(registry.getAll(fingerprint).keySet())) {
+      goals.add(toGoal(goalKey));
+    }
+
+    JsonObject body = new JsonObject();
+    body.addProperty("fingerprint", fingerprint);
+    body.add("goals", goals);
+    respond(exchange, 200, body);
+  }
+
+  private void getAction(HttpExchange exchange) throws IOException, InterruptedException {
+    Map<String, String> parameters = parseQuery(exchange.getRequestURI());
+    int goalKey;
+    int state;
+
+    try {
+      goalKey = parseGoal(parameters.get("goal"));
+      state = parseState(parameters.get("state"));
+    } catch (IllegalArgumentException e) {
+      respondError(exchange, 400, e.getMessage());
+      return;
+    }
+
+    int action = submit(new int[]{ goalKey }, new int[]{ state })[0];
+    if (action < 0) {
+      respondError(exchange, 404, "No policy was published for goal " + toGoal(goalKey));
+    } else {
+      respond(exchange, 200, toResult(goalKey, state, action));
+    }
+  }
+
+  private void getActions(HttpExchange exchange) throws IOException, InterruptedException {
+    JsonArray queries;
+    int[] goalKeys;
+    int[] states;
+
+    try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+      JsonElement body = JsonParser.parseReader(reader);
+      if (!body.isJsonArray()) {
+        throw new IllegalArgumentException("The queries must be a JSON array");
+      }
+      queries = body.getAsJsonArray();
+      goalKeys = new int[queries.size()];
+      states = new int[queries.size()];
+
+      for (int i = 0; i < queries.size(); i++) {
+        if (!queries.get(i).isJsonObject()) {
+          throw new IllegalArgumentException("Query " + i + " must be a JSON object");
+        }
+        JsonObject query = queries.get(i).getAsJsonObject();
+        goalKeys[i] = parseGoal(toParameter(query.get("goal")));
+        states[i] = parseState(toParameter(query.get("state")));
+      }
+    } catch (RuntimeException e) {
+      respondError(exchange, 400, "Invalid queries: " + e.getMessage());
+      return;
+    }
+
+    int[] actions = goalKeys.length == 0 ? new int[0] : submit(goalKeys, states);
+    JsonArray results = new JsonArray();
+    for (int i = 0; i < actions.length; i++) {
+      if (actions[i] < 0) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", "No policy was published for goal " + toGoal(goalKeys[i]));
+        results.add(error);
+      } else {
+        results.add(toResult(goalKeys[i], states[i], actions[i]));
+      }
+    }
+    respond(exchange, 200, results);
+  }
+
+  private JsonObject toResult(int goalKey, int state, int action) {
+    Action description = environment.getAction(action);
+    JsonObject result = new JsonObject();
+    result.add("goal", toGoal(goalKey));
+    result.addProperty("state", state);
+    result.addProperty("action", action);
+    result.addProperty("actionTag", description.getActionTag());
+    result.add("payloadTags", toArray(description.getPayloadTags()));
+    result.add("payload", toArray(description.getPayload()));
+    return result;
+  }
+
+  private static JsonArray toGoal(int goalKey) {
+    JsonArray goal = new JsonArray();
+    goal.add(goalKey / 10);
+    goal.add(goalKey % 10);
+    return goal;
+  }
+
+  private static JsonArray toArray(Object[] values) {
+    JsonArray array = new JsonArray();
+    for (Object value : values) {
+      if (value instanceof Boolean) {
+        array.add((Boolean) value);
+      } else if (value instanceof Number) {
+        array.add((Number) value);
+      } else {
+        array.add(String.valueOf(value));
+      }
+    }
+    return array;
+  }
+
+  /* Turns a JSON array (e.g., [3,3]) or number into the form of a query parameter (e.g., 3,3) */
+  private static String toParameter(JsonElement element) {
+    if (element == null || element.isJsonNull()) {
+      return null;
+    } else if (!element.isJsonArray()) {
+      return element.getAsString();
+    }
+    StringJoiner joiner = new StringJoiner(",");
+    for (JsonElement value : element.getAsJsonArray()) {
+      joiner.add(value.getAsString());
+    }
+    return joiner.toString();
+  }
+
+  private static int parseGoal(String goal) {
+    if (goal == null) {
+      throw new IllegalArgumentException("Missing goal");
+    }
+    int[] levels = parseIntegers(goal);
+    if (levels.length != 2 || levels[0] < 0 || levels[0] > 9 || levels[1] < 0 || levels[1] > 9) {
+      throw new IllegalArgumentException("Invalid goal: " + goal);
+    }
+    return PolicyRegistry.getGoalKey(levels);
+  }
+
+  /* Parses the position of a state, or its substates */
+  private int parseState(String state) {
+    if (state == null) {
+      throw new IllegalArgumentException("Missing state");
+    }
+
+    int[] values = parseIntegers(state);
+    Integer position;
+    if (values.length == 1) {
+      position = values[0] >= 0 && values[0] < applicableActions.size() ? values[0] : null;
+    } else {
+      List<Integer> substates = new ArrayList<>();
+      for (int value : values) {
+        substates.add(value);
+      }
+      position = states.get(substates);
+    }
+
+    if (position == null) {
+      throw new IllegalArgumentException("Invalid state: " + state);
+    }
+    return position;
+  }
+
+  private static int[] parseIntegers(String list) {
+    String[] values = list.split(",");
+    int[] integers = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      try {
+        integers[i] = Integer.parseInt(values[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Not an integer: " + values[i]);
+      }
+    }
+    return integers;
+  }
+
+  private static Map<String, String> parseQuery(URI uri) {
+    Map<String, String> parameters = new HashMap<>();
+    String query = uri.getQuery();
+    if (query != null) {
+      for (String parameter : query.split("&")) {
+        int separator = parameter.indexOf('=');
+        if (separator > 0) {
+          parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+        }
+      }
+    }
+    return parameters;
+  }
+
+  private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+    try {
+      if (!method.equals(exchange.getRequestMethod())) {
+        respondError(exchange, 405, "Method not allowed");
+        return;
+      }
+      handler.handle();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warning("Failed to handle " + exchange.getRequestURI() + ": " + e.getMessage());
+      respondError(exchange, 500, String.valueOf(e.getMessage()));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void respondError(HttpExchange exchange, int statusCode, String message) throws IOException {
+    JsonObject error = new JsonObject();
+    error.addProperty("error", message);
+    respond(exchange, statusCode, error);
+  }
+
+  private static void respond(HttpExchange exchange, int statusCode, JsonElement body) throws IOException {
+    byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(statusCode, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /* Handles a request */
+  private interface Handler {
+    void handle() throws IOException, InterruptedException;
+  }
+
+  /**
+  * Serves policy files (see {@link PolicyFile}) of the simulated lab until the
+  * JVM is stopped
+  *
+  * @param args port, policy file or directory [decision threads]
+  */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.err.println("Usage: PolicyServer <port> <policy file or directory> [decision threads]");
+      System.exit(2);
+    }
+
+    SimulatedLab lab = new SimulatedLab();
+    // the policies are kept until the JVM is stopped
+    PolicyRegistry.getInstance().retain(lab.getFingerprint());
+    for (PolicyFile file : PolicyFile.readAll(new File(args[1]))) {
+      if (!file.getFingerprint().equals(lab.getFingerprint())) {
+        System.err.println("Skipping the " + file + ": the simulated lab has fingerprint " + lab.getFingerprint());
+        continue;
+      }
+      PolicyRegistry.getInstance().publish(file.getFingerprint(), file.getGoalKey(), file.getSnapshot());
+      System.out.println("Loaded the " + file);
+    }
+
+    PolicyServer server = new PolicyServer(Integer.parseInt(args[0]), lab);
+    if (args.length > 2) {
+      server.setDecisionThreads(Integer.parseInt(args[2]));
+    }
+    server.start();
+    System.out.println("Policies served at " + server.getBaseUrl() + "/policies/goals");
+
+    // the threads of the server are daemon threads
+    Thread.currentThread().join();
+  }
+}
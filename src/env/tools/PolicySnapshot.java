@@ -0,0 +1,328 @@
+package tools;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* An immutable snapshot of a Q matrix that has been learned for a goal.
+*
+* <p>The Q values are copied into a single array laid out row-major by state
+* when the snapshot is created, so a snapshot can be read by any number of
+* threads without locking.</p>
+*
+* <p>A snapshot can store its Q values as floats (see {@link #toFloats()}),
+* which takes half of the memory of doubles, e.g., for Q values learned as
+* floats (see {@link FloatQTable}). A snapshot can also be quantized (see
+* {@link #quantize()}): its Q values are then stored as 16-bit fixed-point
+* values between the smallest and the largest Q value, which takes a quarter
+* of the memory of doubles. Quantized snapshots are meant for frozen policies;
+* the greedy actions may differ where the Q values of actions differ by less
+* than {@link #getResolution()} (see {@link PolicyAgreement}).</p>
+*/
+public final class PolicySnapshot {
+
+  private static final int QUANTIZATION_LEVELS = 65535;
+
+  /* The encodings of the Q values in the binary form of a snapshot */
+  private static final byte DOUBLES = 0;
+  private static final byte QUANTIZED = 1;
+  private static final byte FLOATS = 2;
+
+  private final int stateCount;
+  private final int actionCount;
+  private final double[] values;
+
+  /* The Q values, if the snapshot stores them as floats */
+  private final float[] floatValues;
+
+  /* The quantized Q values, offset by Short.MIN_VALUE, if the snapshot is quantized */
+  private final short[] quantized;
+  private final double minimum;
+  private final double resolution;
+
+  private PolicySnapshot(int stateCount, int actionCount, double[] values) {
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.values = values;
+    this.floatValues = null;
+    this.quantized = null;
+    this.minimum = 0;
+    this.resolution = 0;
+  }
+
+  private PolicySnapshot(int stateCount, int actionCount, float[] floatValues) {
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.values = null;
+    this.floatValues = floatValues;
+    this.quantized = null;
+    this.minimum = 0;
+    this.resolution = 0;
+  }
+
+  private PolicySnapshot(int stateCount, int actionCount, short[] quantized, double minimum,
+    double resolution) {
+    this.stateCount = stateCount;
+    this.actionCount = actionCount;
+    this.values = null;
+    this.floatValues = null;
+    this.quantized = quantized;
+    this.minimum = minimum;
+    this.resolution = resolution;
+  }
+
+  /**
+  * Creates a snapshot of the given Q matrix. Later changes to the matrix
+  * are not visible in the snapshot.
+  *
+  * @param qTable the Q matrix
+  * @return the snapshot
+  */
+  public static PolicySnapshot of(double[][] qTable) {
+    int stateCount = qTable.length;
+    int actionCount = stateCount == 0 ? 0 : qTable[0].length;
+    double[] values = new double[stateCount * actionCount];
+
+    for (int s = 0; s < stateCount; s++) {
+      System.arraycopy(qTable[s], 0, values, s * actionCount, actionCount);
+    }
+
+    return new PolicySnapshot(stateCount, actionCount, values);
+  }
+
+  public int getStateCount() {
+    return this.stateCount;
+  }
+
+  public int getActionCount() {
+    return this.actionCount;
+  }
+
+  /**
+  * Returns the Q value of an action in a state
+  *
+  * @param state the state
+  * @param action the action
+  * @return the Q value
+  */
+  public double getValue(int state, int action) {
+    return valueAt(state * actionCount + action);
+  }
+
+  /* Returns the Q value at a position of the row-major layout */
+  private double valueAt(int i) {
+    if (values != null) {
+      return values[i];
+    }
+    return floatValues != null ? floatValues[i] : dequantize(i);
+  }
+
+  /**
+  * Returns a copy of this snapshot whose Q values are stored as floats. The Q
+  * values are rounded to the nearest float, which does not change Q values
+  * learned as floats.
+  *
+  * @return the snapshot of floats, or this snapshot if it already stores
+  * floats or is quantized
+  */
+  public PolicySnapshot toFloats() {
+    if (values == null) {
+      return this;
+    }
+
+    float[] floats = new float[values.length];
+    for (int i = 0; i < values.length; i++) {
+      floats[i] = (float) values[i];
+    }
+    return new PolicySnapshot(stateCount, actionCount, floats);
+  }
+
+  /**
+  * Returns a quantized copy of this snapshot. The Q values are rounded to the
+  * nearest of 65536 evenly spaced values between the smallest and the largest
+  * Q value.
+  *
+  * @return the quantized snapshot, or this snapshot if it is already quantized
+  */
+  public PolicySnapshot quantize() {
+    if (quantized != null) {
+      return this;
+    }
+
+    int length = stateCount * actionCount;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < length; i++) {
+      min = Math.min(min, valueAt(i));
+      max = Math.max(max, valueAt(i));
+    }
+    if (length == 0) {
+      min = max = 0;
+    }
+
+    double step = max > min ? (max - min) / QUANTIZATION_LEVELS : 1;
+    short[] levels = new short[length];
+    for (int i = 0; i < length; i++) {
+      levels[i] = (short) (Math.round((valueAt(i) - min) / step) + Short.MIN_VALUE);
+    }
+    return new PolicySnapshot(stateCount, actionCount, levels, min, step);
+  }
+
+  /**
+  * Returns whether the Q values are stored as 16-bit fixed-point values
+  */
+  public boolean isQuantized() {
+    return quantized != null;
+  }
+
+  /**
+  * Returns whether the Q values are stored as floats
+  */
+  public boolean isFloat() {
+    return floatValues != null;
+  }
+
+  /**
+  * Returns the largest difference between two Q values that are stored as the
+  * same value, or 0 if the snapshot is not quantized
+  */
+  public double getResolution() {
+    return resolution;
+  }
+
+  /**
+  * Returns the number of bytes used by the Q values
+  */
+  public long getValueBytes() {
+    if (values != null) {
+      return 8L * values.length;
+    }
+    return floatValues != null ? 4L * floatValues.length : 2L * quantized.length;
+  }
+
+  private double dequantize(int i) {
+    return minimum + (quantized[i] - Short.MIN_VALUE) * resolution;
+  }
+
+  /**
+  * Returns the applicable action with the highest Q value in a state
+  *
+  * @param actions the applicable actions
+  * @param state the state
+  * @return the greedy action
+  */
+  public int getBestAction(List<Integer> actions, int state) {
+    int row = state * actionCount;
+    int bestAction = actions.get(0);
+    double maxValue = Double.NEGATIVE_INFINITY;
+
+    if (quantized != null) {
+      // the order of the quantized values is the order of the Q values
+      int maxLevel = Integer.MIN_VALUE;
+      for (int a : actions) {
+        if (quantized[row + a] > maxLevel) {
+          maxLevel = quantized[row + a];
+          bestAction = a;
+        }
+      }
+      return bestAction;
+    }
+
+    if (floatValues != null) {
+      for (int a : actions) {
+        if (floatValues[row + a] > maxValue) {
+          maxValue = floatValues[row + a];
+          bestAction = a;
+        }
+      }
+      return bestAction;
+    }
+
+    for (int a : actions) {
+      if (values[row + a] > maxValue) {
+        maxValue = values[row + a];
+        bestAction = a;
+      }
+    }
+    return bestAction;
+  }
+
+  /**
+  * Writes the snapshot as doubles, floats or quantized values (see {@link PolicyFile})
+  */
+  void write(DataOutput out) throws IOException {
+    out.writeInt(stateCount);
+    out.writeInt(actionCount);
+
+    if (quantized != null) {
+      out.writeByte(QUANTIZED);
+      out.writeDouble(minimum);
+      out.writeDouble(resolution);
+      for (short level : quantized) {
+        out.writeShort(level);
+      }
+    } else if (floatValues != null) {
+      out.writeByte(FLOATS);
+      for (float value : floatValues) {
+        out.writeFloat(value);
+      }
+    } else {
+      out.writeByte(DOUBLES);
+      for (double value : values) {
+        out.writeDouble(value);
+      }
+    }
+  }
+
+  /**
+  * Reads a snapshot written with {@link #write(DataOutput)}
+  */
+  static PolicySnapshot read(DataInput in) throws IOException {
+    int stateCount = in.readInt();
+    int actionCount = in.readInt();
+    byte encoding = in.readByte();
+
+    if (encoding == QUANTIZED) {
+      double minimum = in.readDouble();
+      double resolution = in.readDouble();
+      short[] levels = new short[stateCount * actionCount];
+      for (int i = 0; i < levels.length; i++) {
+        levels[i] = in.readShort();
+      }
+      return new PolicySnapshot(stateCount, actionCount, levels, minimum, resolution);
+    }
+
+    if (encoding == FLOATS) {
+      float[] floats = new float[stateCount * actionCount];
+      for (int i = 0; i < floats.length; i++) {
+        floats[i] = in.readFloat();
+      }
+      return new PolicySnapshot(stateCount, actionCount, floats);
+    }
+
+    if (encoding != DOUBLES) {
+      throw new IOException("Unknown encoding of Q values: " + encoding);
+    }
+    double[] values = new double[stateCount * actionCount];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readDouble();
+    }
+    return new PolicySnapshot(stateCount, actionCount, values);
+  }
+
+  /**
+  * Returns a mutable copy of the snapshot as a Q matrix
+  *
+  * @return the Q matrix
+  */
+  public double[][] toArray() {
+    double[][] qTable = new double[stateCount][actionCount];
+
+    for (int s = 0; s < stateCount; s++) {
+      for (int a = 0; a < actionCount; a++) {
+        qTable[s][a] = getValue(s, a);
+      }
+    }
+    return qTable;
+  }
+}
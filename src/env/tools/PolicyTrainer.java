@@ -0,0 +1,198 @@
+package tools;
+
+import java.util.*;
+import java.util.logging.*;
+
+/**
+* Trains the policies of a lab against simulated labs, and publishes them to
+* the {@link PolicyRegistry}, for the artifacts that learn policies (e.g.,
+* {@link QLearner} and {@link FleetController}).
+*
+* <p>Policies go through the publication gate of the trainer before they are
+* published: if a minimum success rate is set, the greedy policy of a Q matrix
+* is evaluated on simulated labs (see {@link PolicyEvaluator}), and a Q matrix
+* whose success rate is lower is not published. The gate is disabled by
+* default (a success rate of 0). The gate passes its own step cap to each
+* evaluation, so the evaluations of other operations with the same evaluator
+* (see {@link #getEvaluator()}) do not change it.</p>
+*
+* <p>Failures (e.g., a lab that cannot be simulated, or a Q matrix rejected by
+* the gate) are thrown as {@link IllegalStateException}s, whose messages the
+* artifacts report. A trainer is not thread-safe, and should be closed when it
+* is no longer used.</p>
+*/
+public class PolicyTrainer implements AutoCloseable {
+
+  private final String fingerprint;
+  private final PolicyRegistry policies;
+  private PolicyEvaluator evaluator;
+  private double minSuccessRate;
+  private int gateMaxSteps = 20;
+
+  private static final Logger LOGGER = Logger.getLogger(PolicyTrainer.class.getName());
+
+  /**
+  * @param fingerprint the fingerprint of the lab whose policies are trained
+  * (see {@link LearningEnvironment#getFingerprint()})
+  */
+  public PolicyTrainer(String fingerprint) {
+    this.fingerprint = fingerprint;
+    this.policies = PolicyRegistry.getInstance();
+  }
+
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+  * Returns true if the lab can be simulated, i.e., if it has the fingerprint
+  * of the {@link SimulatedLab}
+  */
+  public boolean canSimulate() {
+    return new SimulatedLab().getFingerprint().equals(fingerprint);
+  }
+
+  /**
+  * Returns true if a Q matrix was published for a goal
+  *
+  * @param goal the goal (e.g., [2,3])
+  */
+  public boolean isPublished(int[] goal) {
+    return policies.get(fingerprint, PolicyRegistry.getGoalKey(goal)).isPresent();
+  }
+
+  /**
+  * Sets the publication gate
+  *
+  * @param minSuccessRate the minimum success rate [0,1], or 0 to disable the gate
+  * @param maxSteps the number of steps within which a policy must reach the goal
+  */
+  public void setPublicationGate(double minSuccessRate, int maxSteps) {
+    if (minSuccessRate > 0) {
+      getEvaluator();
+      if (maxSteps < 1) {
+        throw new IllegalArgumentException("The step cap must be positive: " + maxSteps);
+      }
+      this.gateMaxSteps = maxSteps;
+    }
+    this.minSuccessRate = minSuccessRate;
+  }
+
+  public double getMinSuccessRate() {
+    return minSuccessRate;
+  }
+
+  /**
+  * Computes a Q matrix for a goal against simulated labs, with several threads
+  * (see {@link HogwildTrainer}), and publishes it through the publication gate.
+  * With a single thread, the training is deterministic.
+  *
+  * @param goal the goal (e.g., [2,3])
+  * @param episodes the number of episodes
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability [0,1]
+  * @param reward the reward assigned when reaching the goal state
+  * @param threads the number of training threads
+  * @param options the training options, e.g., the step cap and the budget
+  * @return the published snapshot
+  * @throws IllegalStateException if the lab cannot be simulated, or the Q
+  * matrix did not pass the publication gate
+  */
+  public PolicySnapshot trainParallel(int[] goal, int episodes, double alpha, double gamma,
+    double epsilon, double reward, int threads, TrainingOptions options) {
+    requireSimulation();
+
+    long seed = threads == 1 ? 0L : System.nanoTime();
+    double[][] qTable = new HogwildTrainer(i -> new SimulatedLab(seed + i), threads)
+      .train(goal, episodes, alpha, gamma, epsilon, reward, seed, options);
+
+    PolicySnapshot snapshot = options.createSnapshot(qTable);
+    publish(goal, snapshot);
+    return snapshot;
+  }
+
+  /**
+  * Publishes a Q matrix if its policy passes the publication gate
+  *
+  * @param goal the goal (e.g., [2,3])
+  * @param snapshot the Q matrix
+  * @throws IllegalStateException if the Q matrix did not pass the gate, or no
+  * user retains the fingerprint (see {@link PolicyRegistry#retain(String)})
+  */
+  public void publish(int[] goal, PolicySnapshot snapshot) {
+    if (minSuccessRate > 0) {
+      PolicyEvaluator.Evaluation evaluation = getEvaluator().evaluate(snapshot, goal, gateMaxSteps);
+      LOGGER.info("Evaluated " + evaluation);
+
+      if (evaluation.getSuccessRate() < minSuccessRate) {
+        throw new IllegalStateException("The Q matrix for goal " + Arrays.toString(goal)
+          + " was not published: " + evaluation);
+      }
+    }
+    if (!policies.publish(fingerprint, PolicyRegistry.getGoalKey(goal), snapshot)) {
+      throw new IllegalStateException("The Q matrix for goal " + Arrays.toString(goal)
+        + " was not published: no user retains the lab " + fingerprint);
+    }
+  }
+
+  /**
+  * Publishes a Q matrix trained so far if its policy is better than the best
+  * one published during the training, and returns the evaluation of the best
+  * policy. Without a simulation of the lab, the policies cannot be compared,
+  * and the latest Q matrix is published.
+  *
+  * @param goal the goal (e.g., [2,3])
+  * @param snapshot the Q matrix trained so far
+  * @param best the evaluation of the best policy published so far, or null
+  * @return the evaluation of the best policy, or null if none passed the gate
+  * or the lab cannot be simulated
+  */
+  public PolicyEvaluator.Evaluation publishBest(int[] goal, PolicySnapshot snapshot,
+    PolicyEvaluator.Evaluation best) {
+    if (!canSimulate()) {
+      policies.publish(fingerprint, PolicyRegistry.getGoalKey(goal), snapshot);
+      return null;
+    }
+
+    PolicyEvaluator.Evaluation evaluation = getEvaluator().evaluate(snapshot, goal, gateMaxSteps);
+    boolean better = best == null || evaluation.getSuccessRate() > best.getSuccessRate()
+      || evaluation.getSuccessRate() == best.getSuccessRate() && evaluation.getMeanCost() < best.getMeanCost();
+
+    if (evaluation.getSuccessRate() < minSuccessRate || !better) {
+      return best;
+    }
+    LOGGER.info("Publishing the best Q matrix so far: " + evaluation);
+    policies.publish(fingerprint, PolicyRegistry.getGoalKey(goal), snapshot);
+    return evaluation;
+  }
+
+  /**
+  * Returns the evaluator of the policies, created on first use. Operations
+  * pass their step cap to each evaluation instead of setting the step cap of
+  * the evaluator.
+  *
+  * @throws IllegalStateException if the lab cannot be simulated
+  */
+  public PolicyEvaluator getEvaluator() {
+    requireSimulation();
+    if (evaluator == null) {
+      evaluator = new PolicyEvaluator(i -> new SimulatedLab(i), Runtime.getRuntime().availableProcessors());
+    }
+    return evaluator;
+  }
+
+  private void requireSimulation() {
+    if (!canSimulate()) {
+      throw new IllegalStateException("The lab " + fingerprint + " cannot be simulated");
+    }
+  }
+
+  @Override
+  public void close() {
+    if (evaluator != null) {
+      evaluator.close();
+      evaluator = null;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package tools;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.logging.*;
 
@@ -12,7 +14,10 @@ public class QLearner extends Artifact {
     private Lab lab;
     private int stateCount;
     private int actionCount;
-    private HashMap<Integer, double[][]> qTables;
+    private String fingerprint;
+    private PolicyRegistry policies;
+    private PolicyTrainer trainer;
+    private PolicyServer server;
 
     private static final Logger LOGGER = Logger.getLogger(QLearner.class.getName());
 
@@ -26,7 +31,20 @@ public class QLearner extends Artifact {
         this.actionCount = this.lab.getActionCount();
         LOGGER.info("Initialized with an action space of m=" + actionCount);
 
-        qTables = new HashMap<>();
+        // Q matrices are shared with every learner of a lab with the same fingerprint
+        this.fingerprint = this.lab.getFingerprint();
+        this.policies = PolicyRegistry.getInstance();
+        this.policies.retain(fingerprint);
+        LOGGER.info("Sharing Q matrices of lab fingerprint " + fingerprint + " with "
+                + (policies.getReferenceCount(fingerprint) - 1) + " other learners");
+        this.trainer = new PolicyTrainer(fingerprint);
+    }
+
+    @Override
+    protected void dispose() {
+        policies.release(fingerprint);
+        trainer.close();
+        stopPolicyServer();
     }
 
     @OPERATION
@@ -38,12 +56,12 @@ public class QLearner extends Artifact {
             currentStateDesc.add(Integer.valueOf(currentStateDescription[i].toString()));
         }
 
-        double[][] qTable = qTables.get(getGoalDescKey(goalDescription));
+        Optional<PolicySnapshot> qTable = policies.get(fingerprint, getGoalDescKey(goalDescription));
 
-        if (qTable != null) {
+        if (qTable.isPresent()) {
             int currentState = new ArrayList<>(lab.stateSpace).indexOf(currentStateDesc);
             List<Integer> actions = lab.getApplicableActions(currentState);
-            int selectedAction = getBestAction(actions, qTable, currentState);
+            int selectedAction = qTable.get().getBestAction(actions, currentState);
 
             Action action = lab.getAction(selectedAction);
             actionTag.set(lab.getAction(selectedAction).getActionTag());
@@ -79,6 +97,15 @@ public class QLearner extends Artifact {
      * <p>
      * HINT 3: Use the method {@link #printQTable(double[][])} to print a Q matrix.
      * </p>
+     * <p>
+     * The computed Q matrix is published to the {@link PolicyRegistry}, and the
+     * calculation is skipped if another learner of a lab with the same fingerprint
+     * already published a Q matrix for the goal.
+     * </p>
+     * <p>
+     * The episodes are cut after {@value QLearning#DEFAULT_MAX_STEPS} actions,
+     * since some goals (e.g., [0,3]) cannot be reached.
+     * </p>
      *
      * @param goalDescription the desired goal against the which the Q matrix is
      *                        calculated (e.g., [2,3])
@@ -92,114 +119,498 @@ public class QLearner extends Artifact {
     @OPERATION
     public void calculateQ(Object[] goalDescription, Object episodes, Object alpha, Object gamma, Object epsilon,
                            Object reward) {
+        calculateQ(goalDescription, episodes, alpha, gamma, epsilon, reward, new Object[0]);
+    }
+
+    /**
+     * Computes a Q matrix like {@link #calculateQ(Object[], Object, Object, Object, Object, Object)},
+     * with additional training options (see {@link TrainingOptions}), e.g.,
+     * [["update", "watkins", 0.8]] to learn with Watkins's Q(lambda),
+     * [["update", "n-step", 3]] to learn with 3-step returns, or
+     * [["exploration", "linear", 0.5, 0.01, 50]] to decay epsilon over 50 episodes, or
+     * [["starts", "least-visited"]] to reset the lab before each episode towards the
+     * least visited state, or [["storage", "quantized"]] to learn with floats and
+     * share a 16-bit quantized Q matrix.
+     * The epsilon parameter is only used by the default exploration strategy.
+     *
+     * <p>
+     * The training can be bounded with [["max-steps", 50], ["budget", "time", 60000]]
+     * (or ["budget", "actions", n]): episodes are cut after 50 actions instead of
+     * {@value QLearning#DEFAULT_MAX_STEPS}, and the training stops after a minute,
+     * even if fewer episodes were run. [["max-steps", 0]] runs every episode until
+     * it reaches the goal, which never ends if the goal cannot be reached. With
+     * ["publish-every", n], the Q matrix is published every n episodes while
+     * the training runs; if the lab can be simulated, it is only published if
+     * its policy is better than the best one published so far (see
+     * {@link PolicyEvaluator}), and the best one is kept at the end.
+     * </p>
+     *
+     * @param goalDescription the desired goal against the which the Q matrix is
+     *                        calculated (e.g., [2,3])
+     * @param episodes        the number of episodes used for calculating the Q
+     *                        matrix
+     * @param alpha           the learning rate with range [0,1].
+     * @param gamma           the discount factor [0,1]
+     * @param epsilon         the exploration probability [0,1]
+     * @param reward          the reward assigned when reaching the goal state
+     * @param options         the list of training options
+     */
+    @OPERATION
+    public void calculateQ(Object[] goalDescription, Object episodes, Object alpha, Object gamma, Object epsilon,
+                           Object reward, Object[] options) {
 
         LOGGER.info("Called method calculateQ");
 
-        // Initialize Q(s,a) arbitrarily
-        double[][] qTable = initializeQTable();
-
-        // loop for each episode
-        for (int i = 0; i < Integer.valueOf(episodes.toString()); i++) {
-            LOGGER.info(episodes.toString());
-            // initialize S (and other variables)
-            int s = lab.readCurrentState();
-            int sPrime;
-            boolean terminal = terminalStateReached(goalDescription);
-            LOGGER.info("Terminal: " + terminal);
-
-            // loop for each step of episode until S is terminal
-            while (!terminal) {
-                LOGGER.info("While loop");
-                // Choose A from S using policy derived from Q
-                int action = getAction(s, Double.valueOf(epsilon.toString()), qTable);
-
-                // take action A, observe R, S'
-                lab.performAction(action);
-                sPrime = lab.readCurrentState();
-                List<Integer> actionsNew = lab.getApplicableActions(sPrime);
-                terminal = terminalStateReached(goalDescription);
-
-                double actionReward = getReward(action, Double.valueOf(reward.toString()), terminal);
-                qTable[s][action] = qTable[s][action] + Double.valueOf(alpha.toString()) * (actionReward + Double.valueOf(gamma.toString()) * maxQ(qTable, sPrime, actionsNew) - qTable[s][action]);
-                s = sPrime;
-                LOGGER.info("STATE: " + s + " action: " + action + " reward: " + actionReward);
-            }
-            LOGGER.info("Reached terminal state");
+        TrainingOptions trainingOptions = null;
+        try {
+            trainingOptions = TrainingOptions.parse(options);
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage());
+        }
+
+        int goalKey = getGoalDescKey(goalDescription);
+        if (policies.get(fingerprint, goalKey).isPresent()) {
+            LOGGER.info("Reusing the shared Q matrix for goal " + Arrays.toString(goalDescription));
+            return;
+        }
+
+        // Initialize Q(s,a) arbitrarily, stored as selected by the options
+        QTable table = "double".equals(trainingOptions.getStorage()) ? new ArrayQTable(initializeQTable())
+                : trainingOptions.createQTable(stateCount, actionCount, System.nanoTime());
+
+        QLearning learning = trainingOptions.createLearning(lab, Double.valueOf(alpha.toString()),
+                Double.valueOf(gamma.toString()), Double.valueOf(epsilon.toString()),
+                Double.valueOf(reward.toString()), new Random());
+        int[] goal = getGoal(goalDescription);
+
+        TrainingBudget budget = trainingOptions.createBudget();
+        learning.setBudget(budget);
+        int publishInterval = trainingOptions.getPublishInterval();
+        PolicyEvaluator.Evaluation best = null;
+
+        // loop for each episode, until the budget is exhausted
+        int episodeCount = Integer.valueOf(episodes.toString());
+        for (int i = 0; i < episodeCount && !learning.isBudgetExhausted(); i++) {
+            int steps = learning.runEpisode(table, goal);
+            LOGGER.info("Episode " + i + " ended after " + steps + " steps");
             //printQTable(qTable);
+
+            if (publishInterval > 0 && (i + 1) % publishInterval == 0 && i + 1 < episodeCount) {
+                best = publishBest(goal, trainingOptions.createSnapshot(table.toArray()), best);
+            }
         }
-        qTables.put(getGoalDescKey(goalDescription), qTable);
+        if (budget != null) {
+            LOGGER.info("Trained goal " + Arrays.toString(goal) + " within a budget of " + budget);
+        }
+
+        PolicySnapshot snapshot = trainingOptions.createSnapshot(table.toArray());
+        if (publishInterval == 0) {
+            publish(goal, snapshot);
+        } else if (publishBest(goal, snapshot, best) == null && canSimulate()) {
+            failed("No Q matrix for goal " + Arrays.toString(goal) + " passed the publication gate");
+        }
+    }
+
+    /**
+     * Computes a Q matrix like {@link #calculateQ(Object[], Object, Object, Object, Object, Object)},
+     * but against simulated labs (see {@link SimulatedLab}) instead of the lab of the
+     * artifact. The episodes are split among several threads that update the Q matrix
+     * concurrently (see {@link HogwildTrainer}). With a single thread, the training is
+     * deterministic.
+     *
+     * @param goalDescription the desired goal against the which the Q matrix is
+     *                        calculated (e.g., [2,3])
+     * @param episodes        the number of episodes used for calculating the Q
+     *                        matrix
+     * @param alpha           the learning rate with range [0,1].
+     * @param gamma           the discount factor [0,1]
+     * @param epsilon         the exploration probability [0,1]
+     * @param reward          the reward assigned when reaching the goal state
+     * @param threads         the number of training threads
+     */
+    @OPERATION
+    public void calculateQParallel(Object[] goalDescription, Object episodes, Object alpha, Object gamma,
+                                   Object epsilon, Object reward, Object threads) {
+        calculateQParallel(goalDescription, episodes, alpha, gamma, epsilon, reward, threads, new Object[0]);
     }
 
+    /**
+     * Computes a Q matrix like
+     * {@link #calculateQParallel(Object[], Object, Object, Object, Object, Object, Object)},
+     * with additional training options (see {@link TrainingOptions}), like
+     * {@link #calculateQ(Object[], Object, Object, Object, Object, Object, Object)}.
+     * Each thread applies the options to its own episodes; the budget is shared
+     * by all the threads, and the "publish-every" option is not supported.
+     *
+     * @param goalDescription the desired goal against the which the Q matrix is
+     *                        calculated (e.g., [2,3])
+     * @param episodes        the number of episodes used for calculating the Q
+     *                        matrix
+     * @param alpha           the learning rate with range [0,1].
+     * @param gamma           the discount factor [0,1]
+     * @param epsilon         the exploration probability [0,1]
+     * @param reward          the reward assigned when reaching the goal state
+     * @param threads         the number of training threads
+     * @param options         the list of training options
+     */
     @OPERATION
-    public void getCurrentState(OpFeedbackParam<Object[]> state) {
-        state.set(lab.currentState.toArray());
+    public void calculateQParallel(Object[] goalDescription, Object episodes, Object alpha, Object gamma,
+                                   Object epsilon, Object reward, Object threads, Object[] options) {
+
+        TrainingOptions trainingOptions = null;
+        try {
+            trainingOptions = TrainingOptions.parse(options);
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage());
+        }
+
+        int[] goal = getGoal(goalDescription);
+        if (trainer.isPublished(goal)) {
+            LOGGER.info("Reusing the shared Q matrix for goal " + Arrays.toString(goalDescription));
+            return;
+        }
+
+        try {
+            trainer.trainParallel(goal, Integer.valueOf(episodes.toString()), Double.valueOf(alpha.toString()),
+                    Double.valueOf(gamma.toString()), Double.valueOf(epsilon.toString()),
+                    Double.valueOf(reward.toString()), Integer.valueOf(threads.toString()), trainingOptions);
+        } catch (IllegalStateException e) {
+            failed(e.getMessage());
+        }
     }
 
-    // Usage of this method thanks to Jonathan
-    private int getGoalDescKey(Object[] goalDescription) {
-        return Integer.valueOf(goalDescription[0].toString()) * 10 + Integer.valueOf(goalDescription[1].toString());
+    /**
+     * Computes a Q matrix like
+     * {@link #calculateQParallel(Object[], Object, Object, Object, Object, Object, Object)},
+     * but on one thread that steps many copies of the simulated lab at once (see
+     * {@link BatchedSimulator}). The training is deterministic. The episodes are
+     * cut after {@value QLearning#DEFAULT_MAX_STEPS} actions, since some goals
+     * (e.g., [0,3]) cannot be reached.
+     *
+     * @param goalDescription the desired goal against the which the Q matrix is
+     *                        calculated (e.g., [2,3])
+     * @param episodes        the number of episodes used for calculating the Q
+     *                        matrix
+     * @param alpha           the learning rate with range [0,1].
+     * @param gamma           the discount factor [0,1]
+     * @param epsilon         the exploration probability [0,1]
+     * @param reward          the reward assigned when reaching the goal state
+     * @param copies          the number of copies of the lab stepped at once
+     */
+    @OPERATION
+    public void calculateQBatched(Object[] goalDescription, Object episodes, Object alpha, Object gamma,
+                                  Object epsilon, Object reward, Object copies) {
+        calculateQBatched(goalDescription, episodes, alpha, gamma, epsilon, reward, copies, new Object[0]);
     }
 
-    private double maxQ(double[][] qTable, int s, List<Integer> actions) {
-        double maxQ = Double.MIN_VALUE;
-        for (int a : actions) {
-            if (qTable[s][a] > maxQ) maxQ = qTable[s][a];
+    /**
+     * Computes a Q matrix like
+     * {@link #calculateQBatched(Object[], Object, Object, Object, Object, Object, Object)},
+     * with the training options that bound the training (see {@link TrainingOptions}):
+     * [["max-steps", n]] sets the step cap of the episodes, and
+     * ["budget", "time", milliseconds] or ["budget", "actions", n] the budget of
+     * the training. The Q matrix is stored as selected by the "storage" option;
+     * the other options are not supported by the batched training.
+     *
+     * @param goalDescription the desired goal against the which the Q matrix is
+     *                        calculated (e.g., [2,3])
+     * @param episodes        the number of episodes used for calculating the Q
+     *                        matrix
+     * @param alpha           the learning rate with range [0,1].
+     * @param gamma           the discount factor [0,1]
+     * @param epsilon         the exploration probability [0,1]
+     * @param reward          the reward assigned when reaching the goal state
+     * @param copies          the number of copies of the lab stepped at once
+     * @param options         the list of training options
+     */
+    @OPERATION
+    public void calculateQBatched(Object[] goalDescription, Object episodes, Object alpha, Object gamma,
+                                  Object epsilon, Object reward, Object copies, Object[] options) {
+
+        TrainingOptions trainingOptions = null;
+        try {
+            trainingOptions = TrainingOptions.parse(options);
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage());
         }
-        return maxQ;
+
+        int goalKey = getGoalDescKey(goalDescription);
+        if (policies.get(fingerprint, goalKey).isPresent()) {
+            LOGGER.info("Reusing the shared Q matrix for goal " + Arrays.toString(goalDescription));
+            return;
+        }
+
+        if (!canSimulate()) {
+            failed("The lab " + fingerprint + " cannot be simulated");
+        }
+
+        int[] goal = getGoal(goalDescription);
+        int maxSteps = trainingOptions.getMaxSteps();
+        TrainingBudget budget = trainingOptions.createBudget();
+        ArrayQTable qTable = new ArrayQTable(stateCount, actionCount);
+        long actions = new BatchedSimulator(Integer.valueOf(copies.toString()), 0L).train(qTable, goal,
+                Integer.valueOf(episodes.toString()), Double.valueOf(alpha.toString()),
+                Double.valueOf(gamma.toString()), Double.valueOf(epsilon.toString()),
+                Double.valueOf(reward.toString()), maxSteps, budget);
+        LOGGER.info("Performed " + actions + " simulated actions for goal " + Arrays.toString(goal)
+                + (budget != null ? " within a budget of " + budget : ""));
+        publish(goal, trainingOptions.createSnapshot(qTable.toArray()));
     }
 
-    private double getReward(int a, double r, boolean t) {
-        double reward = 0.0;
-        if (t) reward = r;
+    /**
+     * Computes Q matrices for several goals like
+     * {@link #calculateQParallel(Object[], Object, Object, Object, Object, Object, Object)},
+     * but in several worker processes (see {@link ShardedTrainer}), so that the
+     * training is not limited by the heap and the garbage collector of one JVM.
+     * The Q matrices of goals that were already learned are not computed again.
+     *
+     * @param goalDescriptions the goals (e.g., [[2,3],[3,3]])
+     * @param episodes         the number of episodes used for calculating each Q
+     *                         matrix
+     * @param alpha            the learning rate with range [0,1].
+     * @param gamma            the discount factor [0,1]
+     * @param epsilon          the exploration probability [0,1]
+     * @param reward           the reward assigned when reaching the goal state
+     * @param workers          the number of worker processes
+     */
+    @OPERATION
+    public void calculateQSharded(Object[] goalDescriptions, Object episodes, Object alpha, Object gamma,
+                                  Object epsilon, Object reward, Object workers) {
 
-        Action action = lab.getAction(a);
-        int stateAxis = action.getApplicableOnStateAxis();
+        if (!new SimulatedLab().getFingerprint().equals(fingerprint)) {
+            failed("The lab " + fingerprint + " cannot be simulated");
+        }
 
-        if (stateAxis == 2 || stateAxis == 3) {
-            reward += -50.0;
-        } else if (stateAxis == 4 || stateAxis == 5) {
-            reward += -1.0;
+        List<int[]> goals = new ArrayList<>();
+        for (Object goalDescription : goalDescriptions) {
+            int[] goal = getGoal((Object[]) goalDescription);
+            if (!policies.get(fingerprint, PolicyRegistry.getGoalKey(goal)).isPresent()) {
+                goals.add(goal);
+            }
+        }
+        if (goals.isEmpty()) {
+            LOGGER.info("Reusing the shared Q matrices for goals " + Arrays.deepToString(goalDescriptions));
+            return;
+        }
+
+        try {
+            Map<Integer, double[][]> qTables = new ShardedTrainer(Integer.valueOf(workers.toString()))
+                    .train(goals, Integer.valueOf(episodes.toString()), Double.valueOf(alpha.toString()),
+                            Double.valueOf(gamma.toString()), Double.valueOf(epsilon.toString()),
+                            Double.valueOf(reward.toString()), System.nanoTime(), new TrainingOptions());
+            for (int[] goal : goals) {
+                publish(goal, PolicySnapshot.of(qTables.get(PolicyRegistry.getGoalKey(goal))));
+            }
+        } catch (IOException e) {
+            failed(e.getMessage());
         }
-        return reward;
     }
 
-    private int getAction(int s, double e, double[][] qTable) {
-        LOGGER.info("state s: " + s);
-        List<Integer> actions = this.lab.getApplicableActions(s);
-        int action = 0;
+    /**
+     * Searches for the hyperparameters of
+     * {@link #calculateQ(Object[], Object, Object, Object, Object, Object)} on
+     * simulated labs (see {@link HyperparameterSweep}), and returns the best
+     * configuration as the arguments [episodes, alpha, gamma, epsilon] of
+     * calculateQ. Each configuration is trained with 3 seeds, and scored by the
+     * success rate of its policy, then by the cost of the actions performed
+     * until convergence.
+     *
+     * @param goalDescription the desired goal against the which the
+     *                        configurations are scored (e.g., [2,3])
+     * @param reward          the reward assigned when reaching the goal state
+     * @param configurations  the number of random configurations, or 0 for
+     *                        the default grid
+     * @param threads         the number of threads running the configurations
+     * @param best            the best configuration [episodes, alpha, gamma, epsilon]
+     */
+    @OPERATION
+    public void sweepHyperparameters(Object[] goalDescription, Object reward, Object configurations,
+                                     Object threads, OpFeedbackParam<Object[]> best) {
 
-        // greedy select action
-        Random r = new Random();
-        if (r.nextDouble() < e) {
-            action = actions.get(r.nextInt(actions.size()));
-        } else {
-            action = getBestAction(actions, qTable, s);
+        if (!new SimulatedLab().getFingerprint().equals(fingerprint)) {
+            failed("The lab " + fingerprint + " cannot be simulated");
+        }
 
+        int count = Integer.valueOf(configurations.toString());
+        List<HyperparameterSweep.Configuration> candidates = count > 0
+                ? HyperparameterSweep.random(count, new int[]{3, 10, 30, 100}, System.nanoTime())
+                : HyperparameterSweep.grid();
+
+        try {
+            List<HyperparameterSweep.Result> results = new HyperparameterSweep(getGoal(goalDescription),
+                    Double.valueOf(reward.toString()), Integer.valueOf(threads.toString())).run(candidates);
+            for (int i = 0; i < Math.min(5, results.size()); i++) {
+                LOGGER.info("Sweep rank " + (i + 1) + ": " + results.get(i));
+            }
+            best.set(results.get(0).getConfiguration().toArguments());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed("Interrupted while sweeping the hyperparameters");
         }
-        return action;
     }
 
-    private int getBestAction(List<Integer> actions, double[][] qTable, int s) {
-        int action = 0;
-        double maxValue = Double.MIN_VALUE;
-        for (int a : actions) {
-            if (qTable[s][a] > maxValue) {
-                maxValue = qTable[s][a];
-                action = a;
+    /**
+     * Evaluates the shared Q matrices of goals on simulated labs (see
+     * {@link PolicyEvaluator}): the greedy policy of each goal is rolled out
+     * from every start state, with a step cap. The evaluation of each goal is
+     * given as [z1Level, z2Level, successRate, meanSteps, maxSteps, meanCost,
+     * loopingStates, failedStates]. Goals without a shared Q matrix are skipped.
+     *
+     * @param goalDescriptions the goals (e.g., [[2,3],[3,3]])
+     * @param maxSteps         the number of steps within which a policy must
+     *                         reach the goal
+     * @param evaluations      the evaluations of the goals
+     */
+    @OPERATION
+    public void evaluatePolicies(Object[] goalDescriptions, Object maxSteps,
+                                 OpFeedbackParam<Object[]> evaluations) {
+
+        List<Object> results = new ArrayList<>();
+        for (Object goalDescription : goalDescriptions) {
+            int[] goal = getGoal((Object[]) goalDescription);
+            Optional<PolicySnapshot> policy = policies.get(fingerprint, PolicyRegistry.getGoalKey(goal));
+
+            if (!policy.isPresent()) {
+                LOGGER.info("No shared Q matrix to evaluate for goal " + Arrays.toString(goal));
+                continue;
             }
+
+            PolicyEvaluator.Evaluation evaluation = getEvaluator()
+                    .evaluate(policy.get(), goal, Integer.valueOf(maxSteps.toString()));
+            LOGGER.info("Evaluated " + evaluation);
+            results.add(new Object[]{goal[0], goal[1], evaluation.getSuccessRate(), evaluation.getMeanSteps(),
+                    evaluation.getMaxSteps(), evaluation.getMeanCost(), evaluation.getLoopingStates().toArray(),
+                    evaluation.getFailedStates().toArray()});
         }
-        return action;
+        evaluations.set(results.toArray());
     }
 
     /**
-     * Check if terminal state is reached
+     * Sets the minimum success rate of the Q matrices computed by this learner:
+     * before a Q matrix is published, its greedy policy is evaluated on
+     * simulated labs (see {@link PolicyEvaluator}), and the calculation fails
+     * without publishing the Q matrix if the success rate is lower. The gate
+     * is disabled by default (a success rate of 0).
+     *
+     * @param minSuccessRate the minimum success rate [0,1]
+     * @param maxSteps       the number of steps within which a policy must
+     *                       reach the goal
      */
-    private Boolean terminalStateReached(Object[] goals) {
-        for (int i = 0; i < goals.length; i++) {
-            if (lab.currentState.get(i) != Integer.valueOf(goals[i].toString()))
-                return false;
+    @OPERATION
+    public void setPublicationGate(Object minSuccessRate, Object maxSteps) {
+        try {
+            trainer.setPublicationGate(Double.valueOf(minSuccessRate.toString()),
+                    Integer.valueOf(maxSteps.toString()));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            failed(e.getMessage());
+        }
+    }
+
+    /* Publishes a Q matrix if its policy passes the publication gate (see PolicyTrainer) */
+    private void publish(int[] goal, PolicySnapshot snapshot) {
+        try {
+            trainer.publish(goal, snapshot);
+        } catch (IllegalStateException e) {
+            failed(e.getMessage());
+        }
+    }
+
+    /* Publishes a Q matrix trained so far if it is the best one so far (see PolicyTrainer) */
+    private PolicyEvaluator.Evaluation publishBest(int[] goal, PolicySnapshot snapshot,
+                                                   PolicyEvaluator.Evaluation best) {
+        return trainer.publishBest(goal, snapshot, best);
+    }
+
+    private boolean canSimulate() {
+        return trainer.canSimulate();
+    }
+
+    private PolicyEvaluator getEvaluator() {
+        if (!canSimulate()) {
+            failed("The lab " + fingerprint + " cannot be simulated");
+        }
+        return trainer.getEvaluator();
+    }
+
+    /**
+     * Loads policies trained headless (see {@link TrainPolicies}) and shares
+     * them with every learner of the lab, like the Q matrices computed by
+     * {@link #calculateQ(Object[], Object, Object, Object, Object, Object)}.
+     * Policies of labs with another fingerprint are skipped. Policies are
+     * subject to the publication gate, if any (see
+     * {@link #setPublicationGate(Object, Object)}).
+     *
+     * @param path the path of a policy file, or of a directory of policy files
+     */
+    @OPERATION
+    public void loadPolicies(String path) {
+
+        List<PolicyFile> files = null;
+        try {
+            files = PolicyFile.readAll(new File(path));
+        } catch (IOException e) {
+            failed("Unable to load the policies: " + e.getMessage());
+        }
+
+        for (PolicyFile file : files) {
+            if (!file.getFingerprint().equals(fingerprint)) {
+                LOGGER.warning("Skipping the " + file + ": the lab has fingerprint " + fingerprint);
+                continue;
+            }
+            publish(file.getGoal(), file.getSnapshot());
+            LOGGER.info("Loaded the " + file);
+        }
+    }
+
+    /**
+     * Starts a {@link PolicyServer} that answers (goal, state) queries over
+     * HTTP with the Q matrices shared by the learners of the lab, e.g., for
+     * consumers outside of the agent platform. Q matrices published later on
+     * (by calculateQ or loadPolicies) are served as soon as they are published.
+     *
+     * @param port the port of the server (0 for any free port)
+     * @param url  the base URL of the server
+     */
+    @OPERATION
+    public void startPolicyServer(Object port, OpFeedbackParam<String> url) {
+        stopPolicyServer();
+        try {
+            server = new PolicyServer(Integer.valueOf(port.toString()), lab);
+            server.start();
+        } catch (IOException e) {
+            server = null;
+            failed("Unable to start the policy server: " + e.getMessage());
+        }
+        url.set(server.getBaseUrl());
+    }
+
+    /**
+     * Stops the policy server of the learner, if any
+     */
+    @OPERATION
+    public void stopPolicyServer() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    @OPERATION
+    public void getCurrentState(OpFeedbackParam<Object[]> state) {
+        state.set(lab.currentState.toArray());
+    }
+
+    // Usage of this method thanks to Jonathan
+    private int getGoalDescKey(Object[] goalDescription) {
+        return PolicyRegistry.getGoalKey(getGoal(goalDescription));
+    }
+
+    private int[] getGoal(Object[] goalDescription) {
+        int[] goal = new int[goalDescription.length];
+        for (int i = 0; i < goalDescription.length; i++) {
+            goal[i] = Integer.valueOf(goalDescription[i].toString());
         }
-        return true;
+        return goal;
     }
 
     /**
@@ -0,0 +1,364 @@
+package tools;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+
+/**
+* The Q learning algorithm, independent of the CArtAgO artifacts that use it.
+*
+* <p>A {@link QLearning} instance learns the Q values of a {@link QTable}
+* by interacting with a {@link LearningEnvironment}. The rewards follow the
+* energy costs of the lab: switching the lights costs 50, moving the blinds
+* costs 1, and reaching the goal state is rewarded.</p>
+*
+* <p>An instance is not thread-safe, but several instances can train the same
+* {@link ConcurrentQTable} or {@link ConcurrentFloatQTable} concurrently.</p>
+*/
+public class QLearning {
+
+  /**
+  * The ways of choosing the start state of an episode
+  */
+  public enum StartMode {
+    /** Start from the current state of the environment */
+    CURRENT,
+    /** Reset the environment to a random state that does not satisfy the goal */
+    RANDOM,
+    /** Reset the environment to the least visited state that does not satisfy the goal */
+    LEAST_VISITED
+  }
+
+  /** The step cap of the episodes used when none is set */
+  public static final int DEFAULT_MAX_STEPS = 100;
+
+  private static final int RANDOM_START_ATTEMPTS = 32;
+
+  private final LearningEnvironment environment;
+  private final UpdateRule updateRule;
+  private final ExplorationStrategy exploration;
+  private final double reward;
+  private final Random random;
+  private int episode;
+  private AtomicInteger episodeCounter;
+  private StartMode startMode = StartMode.CURRENT;
+  private int[] stateVisits;
+  private int maxSteps = DEFAULT_MAX_STEPS;
+  private TrainingBudget.Lease budget;
+
+  private static final Logger LOGGER = Logger.getLogger(QLearning.class.getName());
+
+  /**
+  * @param environment the environment used for learning
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability [0,1]
+  * @param reward the reward assigned when reaching the goal state
+  * @param random the source of randomness for exploration
+  */
+  public QLearning(LearningEnvironment environment, double alpha, double gamma, double epsilon,
+    double reward, Random random) {
+    this(environment, new OneStepQUpdate(alpha, gamma), EpsilonGreedyExploration.constant(epsilon),
+      reward, random);
+  }
+
+  /**
+  * @param environment the environment used for learning
+  * @param updateRule the rule for updating the Q values after each step
+  * @param exploration the strategy for choosing the actions
+  * @param reward the reward assigned when reaching the goal state
+  * @param random the source of randomness for exploration
+  */
+  public QLearning(LearningEnvironment environment, UpdateRule updateRule,
+    ExplorationStrategy exploration, double reward, Random random) {
+    this.environment = environment;
+    this.updateRule = updateRule;
+    this.exploration = exploration;
+    this.reward = reward;
+    this.random = random;
+  }
+
+  /**
+  * Sets how the start state of each episode is chosen. Exploring starts
+  * ({@link StartMode#RANDOM} and {@link StartMode#LEAST_VISITED}) require an
+  * environment that can be reset (see {@link LearningEnvironment#supportsReset()});
+  * other environments always start from their current state.
+  *
+  * @param startMode the start mode
+  * @return this instance
+  */
+  public QLearning setStartMode(StartMode startMode) {
+    this.startMode = startMode;
+    return this;
+  }
+
+  /**
+  * Sets the largest number of actions of an episode. An episode that does not
+  * reach the goal within the step cap (e.g., because the goal cannot be reached
+  * under the current sunshine) is cut, and its last state is treated as
+  * non-terminal by the update rule. The default step cap is
+  * {@value #DEFAULT_MAX_STEPS} actions.
+  *
+  * @param maxSteps the step cap, or 0 for no cap, in which case an episode
+  * towards an unreachable goal never ends
+  * @return this instance
+  */
+  public QLearning setMaxSteps(int maxSteps) {
+    if (maxSteps < 0) {
+      throw new IllegalArgumentException("The step cap cannot be negative: " + maxSteps);
+    }
+    this.maxSteps = maxSteps == 0 ? Integer.MAX_VALUE : maxSteps;
+    return this;
+  }
+
+  /**
+  * Sets the budget of the training: once it is exhausted, the current episode
+  * is cut and {@link #train(QTable, int[], int)} starts no new episode
+  *
+  * @param budget the budget, possibly shared with other instances, or null for no budget
+  * @return this instance
+  */
+  public QLearning setBudget(TrainingBudget budget) {
+    this.budget = budget == null ? null : budget.newLease();
+    return this;
+  }
+
+  /**
+  * Numbers the episodes with a counter shared with other instances that train
+  * the same Q table (e.g., the workers of a {@link HogwildTrainer}), so that
+  * the exploration schedule decays over the episodes of all the instances
+  * instead of over the episodes of this instance
+  *
+  * @param episodeCounter the shared counter, or null to number the episodes of
+  * this instance only
+  * @return this instance
+  */
+  public QLearning setEpisodeCounter(AtomicInteger episodeCounter) {
+    this.episodeCounter = episodeCounter;
+    return this;
+  }
+
+  /**
+  * Returns true if the budget of the training is exhausted
+  */
+  public boolean isBudgetExhausted() {
+    return budget != null && budget.isExhausted();
+  }
+
+  /**
+  * Learns the Q values for a goal over a number of episodes, or until the
+  * budget of the training is exhausted
+  *
+  * @param qTable the Q table to update
+  * @param goal the goal, i.e. the required values of the first substates (e.g., [2,3])
+  * @param episodes the number of episodes
+  */
+  public void train(QTable qTable, int[] goal, int episodes) {
+    for (int i = 0; i < episodes && !isBudgetExhausted(); i++) {
+      int steps = runEpisode(qTable, goal);
+      LOGGER.fine("Episode " + i + " ended after " + steps + " steps");
+    }
+    if (budget != null) {
+      budget.release();
+    }
+  }
+
+  /**
+  * Runs one episode, starting from a state chosen according to the start mode
+  * (by default, the current state of the environment) and ending when the goal
+  * is reached, the step cap is reached or the budget is exhausted.
+  *
+  * @param qTable the Q table to update
+  * @param goal the goal
+  * @return the number of actions performed during the episode
+  */
+  public int runEpisode(QTable qTable, int[] goal) {
+    EpisodeEvent episodeEvent = new EpisodeEvent();
+    episodeEvent.begin();
+
+    int s = chooseStart(goal);
+    int start = s;
+    boolean terminal = isGoalState(environment, s, goal);
+    int steps = 0;
+    double totalReward = 0;
+    int number = episodeCounter == null ? episode : episodeCounter.getAndIncrement();
+
+    exploration.startEpisode(number);
+    updateRule.startEpisode();
+
+    // Choose A from S using policy derived from Q, if the episode is not cut yet
+    boolean running = !terminal && canStep(steps);
+    int action = running ? selectAction(qTable, s) : -1;
+
+    // loop for each step of episode until S is terminal, or the episode is cut
+    while (running) {
+      StepEvent stepEvent = new StepEvent();
+      stepEvent.begin();
+
+      // take action A, observe R, S'
+      environment.performAction(action);
+      int sPrime = requireState(environment.readCurrentState());
+      terminal = isGoalState(environment, sPrime, goal);
+      double actionReward = getReward(environment, action, reward, terminal);
+
+      // Choose A' from S' using policy derived from Q, and update Q. A' is only chosen
+      // by the exploration strategy (which may count it) if it will be performed
+      running = !terminal && canStep(steps + 1);
+      List<Integer> actionsPrime = environment.getApplicableActions(sPrime);
+      int actionPrime = running ? selectAction(qTable, sPrime)
+        : terminal ? -1 : getBestAction(qTable, sPrime, actionsPrime);
+      double q = stepEvent.isEnabled() ? qTable.get(s, action) : 0;
+      updateRule.update(qTable, s, action, actionReward, sPrime, actionsPrime, actionPrime, terminal);
+
+      if (stepEvent.shouldCommit()) {
+        stepEvent.goal = Arrays.toString(goal);
+        stepEvent.state = s;
+        stepEvent.action = action;
+        stepEvent.reward = actionReward;
+        stepEvent.nextState = sPrime;
+        stepEvent.qDelta = qTable.get(s, action) - q;
+        stepEvent.commit();
+      }
+
+      LOGGER.finest("STATE: " + s + " action: " + action + " reward: " + actionReward);
+      if (stateVisits != null) {
+        stateVisits[s]++;
+      }
+      s = sPrime;
+      action = actionPrime;
+      totalReward += actionReward;
+      steps++;
+    }
+
+    updateRule.endEpisode(qTable);
+
+    if (episodeEvent.shouldCommit()) {
+      episodeEvent.goal = Arrays.toString(goal);
+      episodeEvent.episode = number;
+      episodeEvent.startState = start;
+      episodeEvent.steps = steps;
+      episodeEvent.totalReward = totalReward;
+      episodeEvent.commit();
+    }
+    episode++;
+    return steps;
+  }
+
+  private int chooseStart(int[] goal) {
+    if (startMode == StartMode.CURRENT || !environment.supportsReset()) {
+      return requireState(environment.readCurrentState());
+    }
+
+    int start = -1;
+    if (startMode == StartMode.RANDOM) {
+      for (int i = 0; i < RANDOM_START_ATTEMPTS && (start < 0 || isGoalState(environment, start, goal)); i++) {
+        start = random.nextInt(environment.getStateCount());
+      }
+    } else {
+      if (stateVisits == null) {
+        stateVisits = new int[environment.getStateCount()];
+      }
+      int minVisits = Integer.MAX_VALUE;
+      for (int state = 0; state < stateVisits.length; state++) {
+        if (stateVisits[state] < minVisits && !isGoalState(environment, state, goal)) {
+          minVisits = stateVisits[state];
+          start = state;
+        }
+      }
+    }
+    return requireState(start < 0 ? environment.readCurrentState() : environment.reset(start));
+  }
+
+  /* Returns true if the episode may perform one more action after the given number of steps */
+  private boolean canStep(int steps) {
+    return steps < maxSteps && (budget == null || budget.tryAcquireAction());
+  }
+
+  private int selectAction(QTable qTable, int s) {
+    return exploration.selectAction(qTable, s, environment.getApplicableActions(s), random);
+  }
+
+  /**
+  * Returns a state read from an environment, or fails the episode if the state
+  * could not be read (e.g., when a lab does not respond, see {@link Lab#readCurrentState()})
+  *
+  * @param state the state, or -1 if it could not be read
+  * @return the state
+  */
+  static int requireState(int state) {
+    if (state < 0) {
+      throw new IllegalStateException("The state of the environment could not be read");
+    }
+    return state;
+  }
+
+  /**
+  * Checks whether a state satisfies a goal
+  *
+  * @param environment the environment
+  * @param state the state
+  * @param goal the required values of the first substates
+  * @return true if the state satisfies the goal
+  */
+  public static boolean isGoalState(LearningEnvironment environment, int state, int[] goal) {
+    List<Integer> substates = environment.getState(state);
+    for (int i = 0; i < goal.length; i++) {
+      if (substates.get(i) != goal[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+  * Returns the reward of performing an action
+  *
+  * @param environment the environment
+  * @param action the action
+  * @param goalReward the reward assigned when reaching the goal state
+  * @param terminal whether the action reached the goal state
+  * @return the reward
+  */
+  public static double getReward(LearningEnvironment environment, int action, double goalReward,
+    boolean terminal) {
+    double reward = terminal ? goalReward : 0.0;
+    int stateAxis = environment.getAction(action).getApplicableOnStateAxis();
+
+    if (stateAxis == 2 || stateAxis == 3) {
+      reward += -50.0;
+    } else if (stateAxis == 4 || stateAxis == 5) {
+      reward += -1.0;
+    }
+    return reward;
+  }
+
+  /**
+  * Returns the highest Q value among the given actions in a state
+  */
+  public static double maxQ(QTable qTable, int s, List<Integer> actions) {
+    double maxQ = Double.NEGATIVE_INFINITY;
+    for (int a : actions) {
+      double q = qTable.get(s, a);
+      if (q > maxQ) {
+        maxQ = q;
+      }
+    }
+    return maxQ;
+  }
+
+  /**
+  * Returns the action with the highest Q value among the given actions in a state
+  */
+  public static int getBestAction(QTable qTable, int s, List<Integer> actions) {
+    int action = actions.get(0);
+    double maxValue = Double.NEGATIVE_INFINITY;
+    for (int a : actions) {
+      double q = qTable.get(s, a);
+      if (q > maxValue) {
+        maxValue = q;
+        action = a;
+      }
+    }
+    return action;
+  }
+}
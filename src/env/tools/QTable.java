@@ -0,0 +1,60 @@
+package tools;
+
+/**
+* A Q matrix with a value for each pair of state and action of a
+* {@link LearningEnvironment}.
+*
+* <p>States and actions are represented by their positions in the state space
+* and the action space of the environment.</p>
+*/
+public interface QTable {
+
+  /**
+  * Returns the number of states (rows) of the Q matrix
+  *
+  * @return the number of states
+  */
+  int getStateCount();
+
+  /**
+  * Returns the number of actions (columns) of the Q matrix
+  *
+  * @return the number of actions
+  */
+  int getActionCount();
+
+  /**
+  * Returns the Q value of an action in a state
+  *
+  * @param state the state
+  * @param action the action
+  * @return the Q value
+  */
+  double get(int state, int action);
+
+  /**
+  * Sets the Q value of an action in a state
+  *
+  * @param state the state
+  * @param action the action
+  * @param value the Q value
+  */
+  void set(int state, int action, double value);
+
+  /**
+  * Adds a delta to the Q value of an action in a state. Implementations that
+  * are shared among threads apply the delta atomically.
+  *
+  * @param state the state
+  * @param action the action
+  * @param delta the delta
+  */
+  void add(int state, int action, double delta);
+
+  /**
+  * Returns a copy of the Q values as a Q matrix
+  *
+  * @return the Q matrix
+  */
+  double[][] toArray();
+}
@@ -0,0 +1,237 @@
+package tools;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.*;
+
+import wot.TraceReader;
+import wot.TraceRecord;
+import wot.TraceWriter;
+
+/**
+* A {@link Lab} that replays, or samples from, the traces recorded by labs or
+* ThingArtifacts (see {@link Lab#setTrace(TraceWriter)}), so that agents
+* can be trained and benchmarked against the recorded dynamics of a real lab
+* at CPU speed.
+*
+* <p>The traces are read into transitions: an action that succeeded, followed
+* by a successful status read, is a transition from the state read before the
+* action to the state read after it. Status reads without an action in between
+* are part of the recorded trajectory, but not transitions.</p>
+*
+* <ul>
+* <li> {@link Mode#REPLAY}: the lab starts in the first recorded state and
+* follows the recorded trajectory as long as the performed actions are the
+* recorded ones. When they differ, the next state is sampled, and the replay
+* resumes at the next recorded transition from the reached state.
+* <li> {@link Mode#SAMPLE}: the next state is sampled uniformly among the
+* recorded successors of the current state and the performed action.
+* </ul>
+*
+* <p>If no successor was recorded for a state and an action, the action only
+* changes the device it actuates, and the light levels and the sunshine keep
+* their readings (see {@link #getUnobservedCount()}).</p>
+*/
+public class ReplayEnvironment extends Lab {
+
+  /**
+  * The ways of choosing the next states
+  */
+  public enum Mode {
+    /** Follow the recorded trajectory, and sample when the actions differ from it */
+    REPLAY,
+    /** Sample among the recorded successors */
+    SAMPLE
+  }
+
+  private final Mode mode;
+  private final Random random;
+
+  /* The recorded successors (readings) of each state and action */
+  private final Map<Integer, List<double[]>> successors = new HashMap<>();
+
+  /* The recorded transitions in the order of the traces */
+  private final List<Integer> fromStates = new ArrayList<>();
+  private final List<Integer> actions = new ArrayList<>();
+  private final List<double[]> toReadings = new ArrayList<>();
+  private final double[] firstReadings;
+
+  private int cursor;
+  private int state;
+  private int transitionCount;
+  private long unobservedCount;
+
+  private static final Logger LOGGER = Logger.getLogger(ReplayEnvironment.class.getName());
+
+  /**
+  * @param traces the paths of the trace files
+  * @param mode the way of choosing the next states
+  * @param seed the seed of the sampling
+  * @throws IOException if a trace cannot be read
+  * @throws IllegalArgumentException if the traces contain no status of the lab
+  */
+  public ReplayEnvironment(List<String> traces, Mode mode, long seed) throws IOException {
+    super();
+    this.mode = mode;
+    this.random = new Random(seed);
+
+    Map<String, Integer> actionKeys = new HashMap<>();
+    for (int a = 0; a < getActionCount(); a++) {
+      Action action = getAction(a);
+      actionKeys.put(action.getActionTag() + ' '
+        + TraceWriter.describePayload(action.getPayloadTags(), action.getPayload()), a);
+    }
+
+    LabStatusDecoder decoder = LabStatusDecoder.forPropertyNames();
+    double[] first = null;
+
+    for (String trace : traces) {
+      int lastState = -1;
+      int pendingAction = -1;
+
+      for (TraceRecord record : TraceReader.readAll(trace)) {
+        boolean succeeded = record.getStatusCode() >= 200 && record.getStatusCode() < 300;
+
+        if (!record.isRead()) {
+          Integer action = actionKeys.get(record.getTarget() + ' ' + record.getPayload());
+          pendingAction = succeeded && action != null ? action : -1;
+          continue;
+        }
+
+        double[] status = new double[LabStatusDecoder.getReadingCount()];
+        if (!succeeded || !STATUS_TYPE.equals(record.getTarget())
+          || !decoder.decode(record.getPayload(), status)) {
+          continue;
+        }
+
+        int reached = setCurrentState(status);
+        if (first == null) {
+          first = status;
+        }
+        if (lastState >= 0 && pendingAction >= 0) {
+          successors.computeIfAbsent(lastState * getActionCount() + pendingAction, k -> new ArrayList<>())
+            .add(status);
+          fromStates.add(lastState);
+          actions.add(pendingAction);
+          toReadings.add(status);
+          transitionCount++;
+        }
+        lastState = reached;
+        pendingAction = -1;
+      }
+    }
+
+    if (first == null) {
+      throw new IllegalArgumentException("The traces do not contain any status of the lab");
+    }
+    this.firstReadings = first;
+    restart();
+    LOGGER.info("Loaded " + transitionCount + " transitions of " + successors.size()
+      + " state-action pairs from " + traces.size() + " traces");
+  }
+
+  /**
+  * Returns to the first recorded state, and to the start of the recorded trajectory
+  *
+  * @return the first recorded state
+  */
+  public int restart() {
+    cursor = 0;
+    state = setReadings(firstReadings);
+    return state;
+  }
+
+  /**
+  * Returns the number of recorded transitions
+  */
+  public int getTransitionCount() {
+    return transitionCount;
+  }
+
+  /**
+  * Returns the number of actions for which no successor was recorded
+  */
+  public long getUnobservedCount() {
+    return unobservedCount;
+  }
+
+  /**
+  * @see {@link LearningEnvironment#readCurrentState()}
+  */
+  @Override
+  public int readCurrentState() {
+    return state;
+  }
+
+  /**
+  * @see {@link LearningEnvironment#performAction(int)}
+  */
+  @Override
+  public void performAction(int action) {
+    if (mode == Mode.REPLAY && cursor < fromStates.size() && fromStates.get(cursor) == state
+      && actions.get(cursor) == action) {
+      state = setReadings(toReadings.get(cursor++));
+      return;
+    }
+
+    List<double[]> recorded = successors.get(state * getActionCount() + action);
+    if (recorded != null) {
+      state = setReadings(recorded.get(random.nextInt(recorded.size())));
+    } else {
+      double[] next = readings.clone();
+      Action a = getAction(action);
+      next[a.getApplicableOnStateAxis()] = 1 - a.getApplicableOnStateValue();
+      state = setReadings(next);
+      unobservedCount++;
+    }
+
+    if (mode == Mode.REPLAY) {
+      // resume at the next recorded transition from the reached state
+      int resume = fromStates.subList(cursor, fromStates.size()).indexOf(state);
+      cursor = resume < 0 ? fromStates.size() : cursor + resume;
+    }
+  }
+
+  /**
+  * @see {@link LearningEnvironment#supportsReset()}
+  */
+  @Override
+  public boolean supportsReset() {
+    return true;
+  }
+
+  /**
+  * Resets the lab to any state of the state space. The readings are those of
+  * a recorded status in the state, or representative values otherwise.
+  *
+  * @see {@link LearningEnvironment#reset(int)}
+  */
+  @Override
+  public int reset(int state) {
+    for (int key = state * getActionCount(); key < (state + 1) * getActionCount(); key++) {
+      // the readings of a status recorded in the state, if any
+      for (double[] status : successors.getOrDefault(key, Collections.emptyList())) {
+        this.state = setReadings(status);
+        if (this.state == state) {
+          return state;
+        }
+      }
+    }
+
+    List<Integer> substates = getState(state);
+    double[] status = new double[LabStatusDecoder.getReadingCount()];
+    status[0] = SimulatedLab.LIGHT_LEVELS[substates.get(0)];
+    status[1] = SimulatedLab.LIGHT_LEVELS[substates.get(1)];
+    for (int i = 2; i <= 5; i++) {
+      status[i] = substates.get(i);
+    }
+    status[6] = SimulatedLab.SUNSHINE_LEVELS[substates.get(6)];
+    this.state = setReadings(status);
+    return this.state;
+  }
+
+  private int setReadings(double[] status) {
+    System.arraycopy(status, 0, readings, 0, readings.length);
+    return setCurrentState(readings);
+  }
+}
@@ -0,0 +1,126 @@
+package tools;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+* A worker process of a {@link ShardedTrainer}.
+*
+* <p>The worker connects to the coordinator, trains the shards assigned to it
+* against {@link SimulatedLab} instances, and sends back the Q values of the
+* state-action pairs that were updated, with their number of updates.</p>
+*/
+public class ShardWorker {
+
+  /**
+  * @param args the port of the coordinator and the index of the worker
+  */
+  public static void main(String[] args) throws IOException {
+    int port = Integer.parseInt(args[0]);
+    int worker = Integer.parseInt(args[1]);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+
+      out.writeInt(ShardedTrainer.MAGIC);
+      out.writeInt(ShardedTrainer.VERSION);
+      out.writeInt(worker);
+      out.flush();
+
+      TrainingOptions options = TrainingOptions.read(in);
+      double alpha = in.readDouble();
+      double gamma = in.readDouble();
+      double epsilon = in.readDouble();
+      double reward = in.readDouble();
+      int shards = in.readInt();
+
+      for (int i = 0; i < shards; i++) {
+        int index = in.readInt();
+        int[] goal = new int[in.readInt()];
+        for (int j = 0; j < goal.length; j++) {
+          goal[j] = in.readInt();
+        }
+        int episodes = in.readInt();
+        long seed = in.readLong();
+
+        SimulatedLab lab = new SimulatedLab(seed);
+        CountingQTable qTable = new CountingQTable(
+          options.createQTable(lab.getStateCount(), lab.getActionCount(), seed));
+        options.createLearning(lab, alpha, gamma, epsilon, reward, new Random(seed))
+          .train(qTable, goal, episodes);
+
+        out.writeInt(index);
+        qTable.write(out);
+        out.flush();
+      }
+
+      out.writeInt(-1);
+      out.flush();
+    }
+  }
+
+  /* Counts the updates of each state-action pair of a Q table */
+  private static class CountingQTable implements QTable {
+    private final QTable qTable;
+    private final int[] updates;
+
+    private CountingQTable(QTable qTable) {
+      this.qTable = qTable;
+      this.updates = new int[qTable.getStateCount() * qTable.getActionCount()];
+    }
+
+    @Override
+    public int getStateCount() {
+      return qTable.getStateCount();
+    }
+
+    @Override
+    public int getActionCount() {
+      return qTable.getActionCount();
+    }
+
+    @Override
+    public double get(int state, int action) {
+      return qTable.get(state, action);
+    }
+
+    @Override
+    public void set(int state, int action, double value) {
+      qTable.set(state, action, value);
+      updates[state * qTable.getActionCount() + action]++;
+    }
+
+    @Override
+    public void add(int state, int action, double delta) {
+      qTable.add(state, action, delta);
+      updates[state * qTable.getActionCount() + action]++;
+    }
+
+    @Override
+    public double[][] toArray() {
+      return qTable.toArray();
+    }
+
+    /* Writes the updated pairs */
+    private void write(DataOutput out) throws IOException {
+      int actionCount = qTable.getActionCount();
+      int entries = 0;
+      for (int count : updates) {
+        entries += count > 0 ? 1 : 0;
+      }
+
+      out.writeInt(qTable.getStateCount());
+      out.writeInt(actionCount);
+      out.writeInt(entries);
+      for (int i = 0; i < updates.length; i++) {
+        if (updates[i] > 0) {
+          out.writeInt(i);
+          out.writeDouble(qTable.get(i / actionCount, i % actionCount));
+          out.writeInt(updates[i]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package tools;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+* Trains Q matrices in several worker JVM processes on the same host.
+*
+* <p>The coordinator splits the goals and the episode budget of each goal into
+* shards, starts the worker processes (see {@link ShardWorker}), and assigns
+* the shards to the workers round-robin. Each worker trains its shards against
+* its own {@link SimulatedLab} instances and streams the learned Q values back
+* over a loopback socket. The Q matrices of the shards of a goal are merged by
+* averaging the Q value of each state-action pair, weighted by the number of
+* updates of the pair in each shard.</p>
+*
+* <p>The protocol is binary (big-endian, see {@link DataOutput}):</p>
+* <ul>
+* <li> worker: MAGIC, VERSION, worker index
+* <li> coordinator: training options, alpha, gamma, epsilon, reward, the number of shards,
+* and for each shard: shard index, goal length, goal, episodes, seed
+* <li> worker, for each shard: shard index, state count, action count, the number of
+* updated pairs, and for each pair: state * action count + action, Q value, updates
+* <li> worker: -1
+* </ul>
+*/
+public class ShardedTrainer {
+
+  static final int MAGIC = 0x51534844;
+  static final int VERSION = 3;
+
+  private static final int ACCEPT_TIMEOUT_MILLIS = 60000;
+
+  private final int workers;
+  private final List<String> jvmOptions = new ArrayList<>();
+
+  private static final Logger LOGGER = Logger.getLogger(ShardedTrainer.class.getName());
+
+  /**
+  * @param workers the number of worker processes
+  */
+  public ShardedTrainer(int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("The number of workers must be positive: " + workers);
+    }
+    this.workers = workers;
+  }
+
+  /**
+  * Sets the options of the worker JVMs (e.g., -Xmx256m)
+  *
+  * @param options the JVM options
+  * @return this trainer
+  */
+  public ShardedTrainer setJvmOptions(String... options) {
+    jvmOptions.clear();
+    jvmOptions.addAll(Arrays.asList(options));
+    return this;
+  }
+
+  /**
+  * Computes a Q matrix for each of the given goals
+  *
+  * @param goals the goals (e.g., [[2,3],[3,3]])
+  * @param episodes the number of episodes of each goal
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability [0,1]
+  * @param reward the reward assigned when reaching the goal state
+  * @param seed the seed of the first shard (shard i uses seed + i)
+  * @param options the training options
+  * @return the Q matrix of each goal, by goal key (see {@link PolicyRegistry#getGoalKey(int[])})
+  * @throws IOException if a worker cannot be started or fails
+  */
+  public Map<Integer, double[][]> train(List<int[]> goals, int episodes, double alpha, double gamma,
+    double epsilon, double reward, long seed, TrainingOptions options) throws IOException {
+    List<Shard> shards = createShards(goals, episodes, seed);
+    int processCount = Math.min(workers, shards.size());
+    LearningEnvironment environment = new SimulatedLab();
+    Map<Integer, Merge> merges = new HashMap<>();
+
+    for (int[] goal : goals) {
+      merges.put(PolicyRegistry.getGoalKey(goal),
+        new Merge(environment.getStateCount(), environment.getActionCount()));
+    }
+
+    List<Process> processes = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(processCount);
+
+    try (ServerSocket server = new ServerSocket(0, processCount, InetAddress.getLoopbackAddress())) {
+      server.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+
+      for (int i = 0; i < processCount; i++) {
+        processes.add(startWorker(server.getLocalPort(), i));
+      }
+
+      List<Future<?>> sessions = new ArrayList<>();
+      for (int i = 0; i < processCount; i++) {
+        Socket socket = server.accept();
+        sessions.add(executor.submit(() -> {
+          serve(socket, shards, processCount, options, alpha, gamma, epsilon, reward, merges);
+          return null;
+        }));
+      }
+
+      for (Future<?> session : sessions) {
+        session.get();
+      }
+    } catch (SocketTimeoutException e) {
+      throw new IOException("The workers did not connect within " + ACCEPT_TIMEOUT_MILLIS + " ms", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while training");
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+        : new IOException("A worker session failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+      for (Process process : processes) {
+        process.destroy();
+      }
+    }
+
+    Map<Integer, double[][]> qTables = new HashMap<>();
+    merges.forEach((goalKey, merge) -> qTables.put(goalKey, merge.toArray()));
+    LOGGER.info("Trained " + goals.size() + " goals in " + shards.size() + " shards on "
+      + processCount + " worker processes");
+    return qTables;
+  }
+
+  /* Splits the episodes of each goal, such that there are about as many shards as workers */
+  private List<Shard> createShards(List<int[]> goals, int episodes, long seed) {
+    int shardsPerGoal = Math.max(1, Math.min(episodes, workers / Math.max(1, goals.size())));
+    List<Shard> shards = new ArrayList<>();
+
+    for (int[] goal : goals) {
+      for (int i = 0; i < shardsPerGoal; i++) {
+        int shardEpisodes = episodes / shardsPerGoal + (i < episodes % shardsPerGoal ? 1 : 0);
+        shards.add(new Shard(shards.size(), goal, shardEpisodes, seed + shards.size()));
+      }
+    }
+    return shards;
+  }
+
+  private Process startWorker(int port, int index) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.addAll(jvmOptions);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(ShardWorker.class.getName());
+    command.add(String.valueOf(port));
+    command.add(String.valueOf(index));
+
+    return new ProcessBuilder(command)
+      .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+  }
+
+  /* Sends its shards to a worker and merges the Q values sent back */
+  private void serve(Socket socket, List<Shard> shards, int processCount, TrainingOptions options,
+    double alpha, double gamma, double epsilon, double reward, Map<Integer, Merge> merges)
+    throws IOException {
+    try (Socket s = socket;
+      DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unexpected connection to the coordinator");
+      }
+      int worker = in.readInt();
+
+      List<Shard> assigned = new ArrayList<>();
+      for (Shard shard : shards) {
+        if (shard.index % processCount == worker) {
+          assigned.add(shard);
+        }
+      }
+
+      options.write(out);
+      out.writeDouble(alpha);
+      out.writeDouble(gamma);
+      out.writeDouble(epsilon);
+      out.writeDouble(reward);
+      out.writeInt(assigned.size());
+      for (Shard shard : assigned) {
+        out.writeInt(shard.index);
+        out.writeInt(shard.goal.length);
+        for (int value : shard.goal) {
+          out.writeInt(value);
+        }
+        out.writeInt(shard.episodes);
+        out.writeLong(shard.seed);
+      }
+      out.flush();
+
+      for (int index = in.readInt(); index >= 0; index = in.readInt()) {
+        Shard shard = shards.get(index);
+        Merge merge = merges.get(PolicyRegistry.getGoalKey(shard.goal));
+
+        if (in.readInt() != merge.stateCount || in.readInt() != merge.actionCount) {
+          throw new IOException("Worker " + worker + " learned in a different environment");
+        }
+
+        int entries = in.readInt();
+        synchronized (merge) {
+          for (int i = 0; i < entries; i++) {
+            merge.add(in.readInt(), in.readDouble(), in.readInt());
+          }
+        }
+        LOGGER.fine("Merged shard " + index + " of worker " + worker + " (" + entries + " pairs)");
+      }
+    }
+  }
+
+  /* The episodes of a goal trained by one worker */
+  private static class Shard {
+    private final int index;
+    private final int[] goal;
+    private final int episodes;
+    private final long seed;
+
+    private Shard(int index, int[] goal, int episodes, long seed) {
+      this.index = index;
+      this.goal = goal;
+      this.episodes = episodes;
+      this.seed = seed;
+    }
+  }
+
+  /* The update-weighted average of the Q values of the shards of a goal */
+  private static class Merge {
+    private final int stateCount;
+    private final int actionCount;
+    private final double[] weightedSums;
+    private final long[] updates;
+
+    private Merge(int stateCount, int actionCount) {
+      this.stateCount = stateCount;
+      this.actionCount = actionCount;
+      this.weightedSums = new double[stateCount * actionCount];
+      this.updates = new long[stateCount * actionCount];
+    }
+
+    private void add(int index, double value, int count) {
+      weightedSums[index] += value * count;
+      updates[index] += count;
+    }
+
+    private double[][] toArray() {
+      double[][] qTable = new double[stateCount][actionCount];
+      for (int i = 0; i < updates.length; i++) {
+        if (updates[i] > 0) {
+          qTable[i / actionCount][i % actionCount] = weightedSums[i] / updates[i];
+        }
+      }
+      return qTable;
+    }
+  }
+}
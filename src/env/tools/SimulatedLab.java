@@ -0,0 +1,181 @@
+package tools;
+
+import java.util.*;
+
+/**
+* A {@link Lab} that is simulated within the JVM.
+*
+* <p>The simulation follows the dynamics of the Node-RED simulator of the lab
+* (see simulator/simulator_flow.json): the lights and the blinds of each zone
+* contribute to the light level of both zones, and the sunshine hovers around
+* 600..650 lux. The Node-RED simulator updates the environment once per second;
+* the simulated lab updates the environment once after every action.
+* </p>
+*
+* <p>A simulated lab is not thread-safe, but it is cheap to create, so each
+* training thread can step its own instance.</p>
+*/
+public class SimulatedLab extends Lab {
+
+  /* Representative lux values of the light level and the sunshine substates */
+  static final double[] LIGHT_LEVELS = { 25, 75, 200, 400 };
+  static final double[] SUNSHINE_LEVELS = { 25, 125, 450, 800 };
+
+  private final Random random;
+
+  private boolean z1Light;
+  private boolean z2Light;
+  private boolean z1Blinds;
+  private boolean z2Blinds;
+
+  private double z1Level;
+  private double z2Level;
+  private double sunshine;
+  private double totalEnergyCost;
+
+  /**
+  * Constructs a simulated lab in the initial state of the Node-RED simulator
+  */
+  public SimulatedLab() {
+    this(new Random());
+  }
+
+  /**
+  * Constructs a simulated lab in the initial state of the Node-RED simulator
+  *
+  * @param seed the seed of the sunshine fluctuations
+  */
+  public SimulatedLab(long seed) {
+    this(new Random(seed));
+  }
+
+  private SimulatedLab(Random random) {
+    super();
+    this.random = random;
+  }
+
+  /**
+  * @see {@link LearningEnvironment#readCurrentState()}
+  */
+  @Override
+  public int readCurrentState() {
+    int z1 = discretizeLightLevel(z1Level);
+    int z2 = discretizeLightLevel(z2Level);
+    int sun = discretizeSunshine(sunshine);
+
+    currentState.set(0, z1);
+    currentState.set(1, z2);
+    currentState.set(2, z1Light ? 1 : 0);
+    currentState.set(3, z2Light ? 1 : 0);
+    currentState.set(4, z1Blinds ? 1 : 0);
+    currentState.set(5, z2Blinds ? 1 : 0);
+    currentState.set(6, sun);
+
+    readings[0] = z1Level;
+    readings[1] = z2Level;
+    readings[2] = z1Light ? 1 : 0;
+    readings[3] = z2Light ? 1 : 0;
+    readings[4] = z1Blinds ? 1 : 0;
+    readings[5] = z2Blinds ? 1 : 0;
+    readings[6] = sunshine;
+
+    return encodeState(z1, z2, z1Light ? 1 : 0, z2Light ? 1 : 0, z1Blinds ? 1 : 0,
+      z2Blinds ? 1 : 0, sun);
+  }
+
+  /**
+  * @see {@link LearningEnvironment#performAction(int)}
+  */
+  @Override
+  public void performAction(int action) {
+    Action a = getAction(action);
+    boolean value = (Boolean) a.getPayload()[0];
+
+    switch (a.getApplicableOnStateAxis()) {
+      case 2:
+        z1Light = value;
+        break;
+      case 3:
+        z2Light = value;
+        break;
+      case 4:
+        z1Blinds = value;
+        break;
+      case 5:
+        z2Blinds = value;
+        break;
+      default:
+        break;
+    }
+
+    updateEnvironment();
+  }
+
+  /**
+  * @see {@link LearningEnvironment#supportsReset()}
+  */
+  @Override
+  public boolean supportsReset() {
+    return true;
+  }
+
+  /**
+  * Resets the simulated lab to any state of the state space. The light levels
+  * and the sunshine are set to representative values of their substates, and
+  * follow the dynamics of the lab again after the next action.
+  *
+  * @see {@link LearningEnvironment#reset(int)}
+  */
+  @Override
+  public int reset(int state) {
+    List<Integer> substates = getState(state);
+
+    z1Level = LIGHT_LEVELS[substates.get(0)];
+    z2Level = LIGHT_LEVELS[substates.get(1)];
+    z1Light = substates.get(2) == 1;
+    z2Light = substates.get(3) == 1;
+    z1Blinds = substates.get(4) == 1;
+    z2Blinds = substates.get(5) == 1;
+    sunshine = SUNSHINE_LEVELS[substates.get(6)];
+
+    return readCurrentState();
+  }
+
+  /**
+  * Returns the energy consumed by the lights since the lab was constructed
+  *
+  * @return the total energy cost
+  */
+  public double getTotalEnergyCost() {
+    return totalEnergyCost;
+  }
+
+  /* Mirrors the "Update environment" node of the Node-RED simulator */
+  private void updateEnvironment() {
+    double sun = sunshine;
+    sunshine = 600 + 50 * random.nextDouble();
+
+    z1Level = zone1Level(z1Light, z2Light, z1Blinds, z2Blinds, sun);
+    z2Level = zone2Level(z1Light, z2Light, z1Blinds, z2Blinds, sun);
+
+    totalEnergyCost += (z1Light ? 1 : 0) + (z2Light ? 1 : 0);
+  }
+
+  /**
+  * Computes the light level (in lux) of Zone 1 of the lab
+  */
+  static double zone1Level(boolean z1Light, boolean z2Light, boolean z1Blinds, boolean z2Blinds,
+    double sunshine) {
+    return (z1Light ? 300 : 0) + (z2Light ? 50 : 0) + (z1Blinds ? sunshine * 0.5 : 0)
+      + (z2Blinds ? sunshine * 0.25 : 0);
+  }
+
+  /**
+  * Computes the light level (in lux) of Zone 2 of the lab
+  */
+  static double zone2Level(boolean z1Light, boolean z2Light, boolean z1Blinds, boolean z2Blinds,
+    double sunshine) {
+    return (z1Light ? 50 : 0) + (z2Light ? 300 : 0) + (z1Blinds ? sunshine * 0.25 : 0)
+      + (z2Blinds ? sunshine * 0.5 : 0);
+  }
+}
@@ -0,0 +1,443 @@
+package tools;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+* An HTTP stand-in for the Node-RED simulator of the lab, embedded in the JVM.
+*
+* <p>The server exposes the endpoints of the Node-RED flow (see
+* simulator/simulator_flow.json) with the same semantics:</p>
+* <ul>
+* <li> GET /was/rl/status returns the status of the lab
+* <li> POST /was/rl/action sets the lights and the blinds given in the payload,
+* and responds with the payload and the cost of the action
+* </ul>
+*
+* <p>It also serves a local copy of the Thing Description of the lab at
+* /interactions-lab.ttl (with the forms targeting the server), so that a
+* {@link Lab} or a ThingArtifact can be run end-to-end without Node-RED and
+* without network access. Latency and errors can be injected in the responses
+* for load testing.</p>
+*
+* <p>Unlike the Node-RED simulator, the lab can be reset natively with
+* POST /was/rl/reset, which the Thing Description offers as an action: without
+* a payload, the initial state of the lab is restored; a payload with the
+* properties of the status (e.g., {"Z1Level": 400, "Z1Light": true}) sets them
+* and restores the initial values of the others, and {"Random": true} sets the
+* lab to a random state, with representative values of the light levels and of
+* the sunshine. The response is the status that was reached.</p>
+*/
+public class SimulatedLabServer {
+
+  private static final String TD_RESOURCE = "/tds/interactions-lab.ttl";
+  private static final String TD_PATH = "/interactions-lab.ttl";
+  private static final String[] DEVICES = { "Z1Light", "Z2Light", "Z1Blinds", "Z2Blinds" };
+
+  private final int port;
+  private final Random random;
+  private HttpServer server;
+  private ScheduledExecutorService updates;
+  private String td;
+
+  private volatile long minLatencyMillis;
+  private volatile long maxLatencyMillis;
+  private volatile double errorRate;
+  private long updatePeriodMillis = 1000;
+
+  /* The flow context of the Node-RED simulator */
+  private double z1Level;
+  private double z2Level;
+  private final boolean[] devices = new boolean[DEVICES.length];
+  private double sunshine;
+  private double totalEnergyCost;
+  private double energyCost;
+  private double hour;
+
+  private static final Logger LOGGER = Logger.getLogger(SimulatedLabServer.class.getName());
+
+  /**
+  * @param port the port of the server (0 for any free port)
+  * @param seed the seed of the sunshine fluctuations and of the injected faults
+  */
+  public SimulatedLabServer(int port, long seed) {
+    this.port = port;
+    this.random = new Random(seed);
+    initialize();
+  }
+
+  /**
+  * Sets the latency injected before each response. The latency of a response
+  * is drawn uniformly from [min, max].
+  *
+  * @param minMillis the minimum latency in milliseconds
+  * @param maxMillis the maximum latency in milliseconds
+  * @return this server
+  */
+  public SimulatedLabServer setLatency(long minMillis, long maxMillis) {
+    if (minMillis < 0 || maxMillis < minMillis) {
+      throw new IllegalArgumentException("Invalid latency range: [" + minMillis + ", " + maxMillis + "]");
+    }
+    this.minLatencyMillis = minMillis;
+    this.maxLatencyMillis = maxMillis;
+    return this;
+  }
+
+  /**
+  * Sets the rate of the requests to the lab that fail with the status code 503
+  *
+  * @param errorRate the error rate with range [0,1]
+  * @return this server
+  */
+  public SimulatedLabServer setErrorRate(double errorRate) {
+    if (errorRate < 0 || errorRate > 1) {
+      throw new IllegalArgumentException("The error rate must be in [0,1]: " + errorRate);
+    }
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+  * Sets the period of the updates of the environment. The Node-RED simulator
+  * updates the environment once per second; with a period of 0, the
+  * environment is updated once after every action instead, which makes runs
+  * independent of timing. Takes effect when the server is started.
+  *
+  * @param periodMillis the update period in milliseconds
+  * @return this server
+  */
+  public SimulatedLabServer setUpdatePeriod(long periodMillis) {
+    if (periodMillis < 0) {
+      throw new IllegalArgumentException("The update period cannot be negative: " + periodMillis);
+    }
+    this.updatePeriodMillis = periodMillis;
+    return this;
+  }
+
+  /**
+  * Starts the server
+  *
+  * @throws IOException if the server cannot be bound to its port
+  */
+  public synchronized void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    server.setExecutor(Executors.newCachedThreadPool(daemonThreads("lab-server")));
+
+    td = readTd().replace("${base}", getBaseUrl());
+
+    server.createContext(TD_PATH, exchange -> handle(exchange, "GET", false, () ->
+      respond(exchange, 200, "text/turtle", td)));
+    server.createContext("/was/rl/status", exchange -> handle(exchange, "GET", true, () ->
+      respond(exchange, 200, "application/json", getStatus().toString())));
+    server.createContext("/was/rl/action", exchange -> handle(exchange, "POST", true, () ->
+      performAction(exchange)));
+    server.createContext("/was/rl/reset", exchange -> handle(exchange, "POST", false, () ->
+      reset(exchange)));
+    server.start();
+
+    if (updatePeriodMillis > 0) {
+      updates = Executors.newSingleThreadScheduledExecutor(daemonThreads("lab-server-updates"));
+      updates.scheduleAtFixedRate(this::updateEnvironment, updatePeriodMillis, updatePeriodMillis,
+        TimeUnit.MILLISECONDS);
+    }
+    LOGGER.info("The simulated lab is served at " + getBaseUrl());
+  }
+
+  /**
+  * Stops the server
+  */
+  public synchronized void stop() {
+    if (updates != null) {
+      updates.shutdownNow();
+      updates = null;
+    }
+    if (server != null) {
+      server.stop(0);
+      ((ExecutorService) server.getExecutor()).shutdownNow();
+      server = null;
+    }
+  }
+
+  /**
+  * Returns the base URL of the server (e.g., http://localhost:1880)
+  */
+  public String getBaseUrl() {
+    int boundPort = server == null ? port : server.getAddress().getPort();
+    return "http://localhost:" + boundPort;
+  }
+
+  /**
+  * Returns the URL of the Thing Description of the lab, which can be used to
+  * construct a {@link Lab} or a ThingArtifact
+  */
+  public String getTdUrl() {
+    return getBaseUrl() + TD_PATH;
+  }
+
+  /* Mirrors the "Status" node of the Node-RED simulator */
+  private synchronized JsonObject getStatus() {
+    JsonObject status = new JsonObject();
+    status.addProperty("Z1Level", z1Level);
+    status.addProperty("Z2Level", z2Level);
+    for (int i = 0; i < DEVICES.length; i++) {
+      status.addProperty(DEVICES[i], devices[i]);
+    }
+    status.addProperty("Sunshine", sunshine);
+    status.addProperty("TotalEnergyCost", totalEnergyCost);
+    status.addProperty("EnergyCost", energyCost);
+    status.addProperty("Hour", hour);
+    return status;
+  }
+
+  /* Mirrors the "Update action" node of the Node-RED simulator */
+  private void performAction(HttpExchange exchange) throws IOException {
+    JsonObject payload;
+
+    try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+      JsonElement body = JsonParser.parseReader(reader);
+      if (!body.isJsonObject()) {
+        respond(exchange, 400, "text/plain", "The action must be a JSON object");
+        return;
+      }
+      payload = body.getAsJsonObject();
+    } catch (RuntimeException e) {
+      respond(exchange, 400, "text/plain", "Invalid JSON payload: " + e.getMessage());
+      return;
+    }
+
+    double cost = 0;
+    synchronized (this) {
+      for (int i = 0; i < DEVICES.length; i++) {
+        JsonElement value = payload.get(DEVICES[i]);
+
+        if (value != null) {
+          if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isBoolean()) {
+            respond(exchange, 400, "text/plain", DEVICES[i] + " must be a boolean");
+            return;
+          }
+
+          boolean previous = devices[i];
+          devices[i] = value.getAsBoolean();
+
+          // switching on the lights costs 100, opening the blinds costs 5
+          if (!previous && devices[i]) {
+            cost = i < 2 ? 100 : 5;
+            energyCost = cost;
+          }
+        }
+      }
+
+      if (updatePeriodMillis == 0) {
+        updateEnvironment();
+      }
+    }
+
+    payload.addProperty("cost", cost);
+    respond(exchange, 200, "application/json", payload.toString());
+  }
+
+  /* Resets the lab to the state given in the payload, if any */
+  private void reset(HttpExchange exchange) throws IOException {
+    JsonObject payload;
+
+    try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+      JsonElement body = JsonParser.parseReader(reader);
+      if (!body.isJsonNull() && !body.isJsonObject()) {
+        respond(exchange, 400, "text/plain", "The target state must be a JSON object");
+        return;
+      }
+      payload = body.isJsonNull() ? new JsonObject() : body.getAsJsonObject();
+    } catch (RuntimeException e) {
+      respond(exchange, 400, "text/plain", "Invalid JSON payload: " + e.getMessage());
+      return;
+    }
+
+    JsonObject status;
+    synchronized (this) {
+      double[] levels = { z1Level, z2Level, sunshine };
+      boolean[] targetDevices = devices.clone();
+
+      if (isTrue(payload.get("Random"))) {
+        levels[0] = SimulatedLab.LIGHT_LEVELS[random.nextInt(SimulatedLab.LIGHT_LEVELS.length)];
+        levels[1] = SimulatedLab.LIGHT_LEVELS[random.nextInt(SimulatedLab.LIGHT_LEVELS.length)];
+        levels[2] = SimulatedLab.SUNSHINE_LEVELS[random.nextInt(SimulatedLab.SUNSHINE_LEVELS.length)];
+        for (int i = 0; i < DEVICES.length; i++) {
+          targetDevices[i] = random.nextBoolean();
+        }
+      } else {
+        // the initial values, overridden by the payload
+        Arrays.fill(levels, 0);
+        Arrays.fill(targetDevices, false);
+        String[] levelNames = { "Z1Level", "Z2Level", "Sunshine" };
+
+        for (int i = 0; i < levelNames.length; i++) {
+          JsonElement value = payload.get(levelNames[i]);
+          if (value != null) {
+            if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+              respond(exchange, 400, "text/plain", levelNames[i] + " must be a number");
+              return;
+            }
+            levels[i] = value.getAsDouble();
+          }
+        }
+        for (int i = 0; i < DEVICES.length; i++) {
+          JsonElement value = payload.get(DEVICES[i]);
+          if (value != null) {
+            if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isBoolean()) {
+              respond(exchange, 400, "text/plain", DEVICES[i] + " must be a boolean");
+              return;
+            }
+            targetDevices[i] = value.getAsBoolean();
+          }
+        }
+      }
+
+      initialize();
+      z1Level = levels[0];
+      z2Level = levels[1];
+      sunshine = levels[2];
+      System.arraycopy(targetDevices, 0, devices, 0, devices.length);
+      status = getStatus();
+    }
+
+    respond(exchange, 200, "application/json", status.toString());
+  }
+
+  private static boolean isTrue(JsonElement value) {
+    return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()
+      && value.getAsBoolean();
+  }
+
+  /* Mirrors the "Initialization" node of the Node-RED simulator */
+  private synchronized void initialize() {
+    z1Level = 0;
+    z2Level = 0;
+    Arrays.fill(devices, false);
+    sunshine = 0;
+    totalEnergyCost = 0;
+    energyCost = 0;
+    hour = 0;
+  }
+
+  /* Mirrors the "Update environment" node of the Node-RED simulator */
+  private synchronized void updateEnvironment() {
+    double sun = sunshine;
+    hour = hour >= 24 ? 0.1 : hour + 0.1;
+    sunshine = 600 + 50 * random.nextDouble();
+
+    z1Level = SimulatedLab.zone1Level(devices[0], devices[1], devices[2], devices[3], sun);
+    z2Level = SimulatedLab.zone2Level(devices[0], devices[1], devices[2], devices[3], sun);
+    totalEnergyCost += (devices[0] ? 1 : 0) + (devices[1] ? 1 : 0);
+  }
+
+  /* Handles a request, injecting latency and errors into the requests to the lab */
+  private void handle(HttpExchange exchange, String method, boolean faulty, Handler handler)
+    throws IOException {
+    try {
+      if (!method.equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, "text/plain", "Method not allowed");
+        return;
+      }
+
+      long latency = minLatencyMillis;
+      boolean error;
+      synchronized (this) {
+        if (maxLatencyMillis > minLatencyMillis) {
+          latency += (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis));
+        }
+        error = faulty && random.nextDouble() < errorRate;
+      }
+
+      if (latency > 0) {
+        Thread.sleep(latency);
+      }
+
+      if (error) {
+        respond(exchange, 503, "text/plain", "Injected error");
+      } else {
+        handler.handle();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warning("Failed to handle " + exchange.getRequestURI() + ": " + e.getMessage());
+      throw e;
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int statusCode, String contentType, String body)
+    throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(statusCode, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static String readTd() throws IOException {
+    try (InputStream in = SimulatedLabServer.class.getResourceAsStream(TD_RESOURCE)) {
+      if (in == null) {
+        throw new FileNotFoundException("Missing resource: " + TD_RESOURCE);
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /* Handles a request after the injected faults */
+  private interface Handler {
+    void handle() throws IOException;
+  }
+
+  /**
+  * Runs the server until the JVM is stopped
+  *
+  * @param args [port [min latency ms [max latency ms [error rate [update period ms]]]]]
+  */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 1880;
+    SimulatedLabServer server = new SimulatedLabServer(port, System.nanoTime());
+
+    if (args.length > 1) {
+      long minLatency = Long.parseLong(args[1]);
+      server.setLatency(minLatency, args.length > 2 ? Long.parseLong(args[2]) : minLatency);
+    }
+    if (args.length > 3) {
+      server.setErrorRate(Double.parseDouble(args[3]));
+    }
+    if (args.length > 4) {
+      server.setUpdatePeriod(Long.parseLong(args[4]));
+    }
+
+    server.start();
+    System.out.println("Thing Description of the simulated lab: " + server.getTdUrl());
+
+    // the threads of the server are daemon threads
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,43 @@
+package tools;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+* A JDK Flight Recorder event for a step of an episode of Q learning: the
+* action performed on the environment, and the update of the Q values. The
+* event is disabled by default, since training on simulated labs performs
+* millions of steps; it can be enabled with the setting was.Step#enabled=true.
+*/
+@Name("was.Step")
+@Label("Q Learning Step")
+@Category({ "WAS", "Q Learning" })
+@Description("An action performed during an episode of Q learning, and the update of the Q values")
+@StackTrace(false)
+@Enabled(false)
+public class StepEvent extends Event {
+
+  @Label("Goal")
+  public String goal;
+
+  @Label("State")
+  public int state;
+
+  @Label("Action")
+  public int action;
+
+  @Label("Reward")
+  public double reward;
+
+  @Label("Next State")
+  public int nextState;
+
+  @Label("Q Delta")
+  @Description("The change of the Q value of the state and the action")
+  public double qDelta;
+}
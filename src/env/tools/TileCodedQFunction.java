@@ -0,0 +1,158 @@
+package tools;
+
+import java.util.*;
+
+/**
+* A linear Q function over tile-coded readings of the lab, as an alternative
+* to a {@link QTable} over the discretized states of the lab.
+*
+* <p>The light levels of the zones and the sunshine are tile coded from their
+* raw lux values (see {@link TileCoder}), and the status of the lights and the
+* blinds selects separate tilings. Q(s,a) is the sum of the weights of the
+* active features of s for a; the weights are stored in a flat array, row-major
+* by action. Reading or updating a Q value touches one weight per tiling.</p>
+*
+* <p>The tiles are hashed into a fixed number of weights per action (see
+* {@link TileCoder}), so the memory of a Q function depends on that number, not
+* on the number of tiles: at 8 tilings of 8 tiles per lux value, there are
+* 65536 tiles per action.</p>
+*
+* <p>A Q function is not thread-safe.</p>
+*/
+public class TileCodedQFunction {
+
+  /* The largest lux values of the light levels and the sunshine that are told apart */
+  static final double MAX_LIGHT_LEVEL = 1000;
+  static final double MAX_SUNSHINE = 1000;
+
+  /** The number of weights per action used when none is given */
+  public static final int DEFAULT_WEIGHTS_PER_ACTION = 2048;
+
+  private final TileCoder coder;
+  private final int actionCount;
+  private final int featureCount;
+  private final double[] weights;
+
+  /* The continuous inputs of the coder, reused for every activation */
+  private final double[] inputs = new double[3];
+
+  /**
+  * Creates a Q function with {@value #DEFAULT_WEIGHTS_PER_ACTION} weights per action
+  *
+  * @param tilings the number of tilings
+  * @param tiles the number of tiles of each tiling along each lux value
+  * @param actionCount the number of actions
+  */
+  public TileCodedQFunction(int tilings, int tiles, int actionCount) {
+    this(tilings, tiles, actionCount, DEFAULT_WEIGHTS_PER_ACTION);
+  }
+
+  /**
+  * @param tilings the number of tilings
+  * @param tiles the number of tiles of each tiling along each lux value
+  * @param actionCount the number of actions
+  * @param weightsPerAction the number of weights per action, into which the
+  * tiles are hashed
+  */
+  public TileCodedQFunction(int tilings, int tiles, int actionCount, int weightsPerAction) {
+    this.coder = new TileCoder(tilings, tiles, new double[]{ 0, 0, 0 },
+      new double[]{ MAX_LIGHT_LEVEL, MAX_LIGHT_LEVEL, MAX_SUNSHINE }, 16, weightsPerAction);
+    this.actionCount = actionCount;
+    this.featureCount = coder.getFeatureCount();
+    this.weights = new double[actionCount * featureCount];
+  }
+
+  public int getTilingCount() {
+    return coder.getTilingCount();
+  }
+
+  public int getActionCount() {
+    return actionCount;
+  }
+
+  /**
+  * Returns the number of weights, i.e., the number of features times the number of actions
+  */
+  public int getWeightCount() {
+    return weights.length;
+  }
+
+  /**
+  * Activates the features of the readings of a lab
+  *
+  * @param lab the lab, whose readings are those of its last status
+  * @param features receives the active features, one per tiling
+  */
+  public void activate(Lab lab, int[] features) {
+    activate(lab.readings, features);
+  }
+
+  /**
+  * Activates the features of raw readings, in the order of the substates of the lab
+  *
+  * @param readings the light levels and the sunshine in lux, and the lights
+  * and the blinds as 0 or 1
+  * @param features receives the active features, one per tiling
+  */
+  public void activate(double[] readings, int[] features) {
+    inputs[0] = readings[0];
+    inputs[1] = readings[1];
+    inputs[2] = readings[6];
+    int devices = (int) readings[2] | (int) readings[3] << 1 | (int) readings[4] << 2
+      | (int) readings[5] << 3;
+    coder.activate(inputs, devices, features);
+  }
+
+  /**
+  * Returns the Q value of an action for active features
+  */
+  public double getValue(int[] features, int action) {
+    int row = action * featureCount;
+    double value = 0;
+    for (int feature : features) {
+      value += weights[row + feature];
+    }
+    return value;
+  }
+
+  /**
+  * Adds a step to the weights of the active features for an action
+  *
+  * @param features the active features
+  * @param action the action
+  * @param step the step of each weight, e.g., alpha / tilings * TD error
+  */
+  public void update(int[] features, int action, double step) {
+    int row = action * featureCount;
+    for (int feature : features) {
+      weights[row + feature] += step;
+    }
+  }
+
+  /**
+  * Returns the action with the highest Q value among the given actions
+  */
+  public int getBestAction(int[] features, List<Integer> actions) {
+    int bestAction = actions.get(0);
+    double maxValue = Double.NEGATIVE_INFINITY;
+    for (int a : actions) {
+      double value = getValue(features, a);
+      if (value > maxValue) {
+        maxValue = value;
+        bestAction = a;
+      }
+    }
+    return bestAction;
+  }
+
+  /**
+  * Returns the highest Q value among the given actions
+  */
+  public double maxValue(int[] features, List<Integer> actions) {
+    double maxValue = Double.NEGATIVE_INFINITY;
+    for (int a : actions) {
+      maxValue = Math.max(maxValue, getValue(features, a));
+    }
+    return maxValue;
+  }
+}
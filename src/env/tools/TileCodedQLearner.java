@@ -0,0 +1,156 @@
+package tools;
+
+import java.util.*;
+import java.util.logging.*;
+
+import cartago.Artifact;
+import cartago.OPERATION;
+import cartago.OpFeedbackParam;
+
+/**
+ * An artifact that learns like {@link QLearner}, but with a linear Q function
+ * over tile-coded raw readings of the lab (see {@link TileCodedQFunction})
+ * instead of a Q matrix over the discretized states of the lab.
+ *
+ * <p>The learned Q functions are kept by the artifact, one per goal. Since the
+ * Q functions depend on the readings of the lab, the artifact reads the status
+ * of the lab itself to choose an action.</p>
+ */
+public class TileCodedQLearner extends Artifact {
+
+    private Lab lab;
+    private int tilings;
+    private int tiles;
+    private int weightsPerAction;
+    private final Map<Integer, TileCodedQFunction> qFunctions = new HashMap<>();
+
+    private static final Logger LOGGER = Logger.getLogger(TileCodedQLearner.class.getName());
+
+    public void init(String environmentURL) {
+        init(environmentURL, 8, 8);
+    }
+
+    public void init(String environmentURL, int tilings, int tiles) {
+        init(environmentURL, tilings, tiles, TileCodedQFunction.DEFAULT_WEIGHTS_PER_ACTION);
+    }
+
+    /**
+     * @param environmentURL   the URL of the Thing Description of the lab
+     * @param tilings          the number of tilings
+     * @param tiles            the number of tiles of each tiling along each lux value
+     * @param weightsPerAction the number of weights per action of each Q function,
+     *                         into which the tiles are hashed
+     */
+    public void init(String environmentURL, int tilings, int tiles, int weightsPerAction) {
+        this.lab = new Lab(environmentURL);
+        this.tilings = tilings;
+        this.tiles = tiles;
+        this.weightsPerAction = weightsPerAction;
+
+        TileCodedQFunction qFunction = newQFunction();
+        LOGGER.info("Initialized with " + tilings + " tilings of " + tiles + " tiles per lux value ("
+                + qFunction.getWeightCount() + " weights per goal)");
+    }
+
+    /**
+     * Learns a Q function for a goal against the lab of the artifact, like
+     * {@link QLearner#calculateQ(Object[], Object, Object, Object, Object, Object)}.
+     * The Q function is not learned again if the artifact already learned one
+     * for the goal.
+     *
+     * @param goalDescription the desired goal against the which the Q function
+     *                        is learned (e.g., [2,3])
+     * @param episodes        the number of episodes
+     * @param alpha           the learning rate with range [0,1].
+     * @param gamma           the discount factor [0,1]
+     * @param epsilon         the exploration probability [0,1]
+     * @param reward          the reward assigned when reaching the goal state
+     */
+    @OPERATION
+    public void calculateQ(Object[] goalDescription, Object episodes, Object alpha, Object gamma, Object epsilon,
+                           Object reward) {
+        train(lab, false, goalDescription, episodes, alpha, gamma, epsilon, reward);
+    }
+
+    /**
+     * Learns a Q function for a goal like
+     * {@link #calculateQ(Object[], Object, Object, Object, Object, Object)}, but
+     * against a simulated lab (see {@link SimulatedLab}) whose episodes start
+     * from random states.
+     *
+     * @param goalDescription the desired goal against the which the Q function
+     *                        is learned (e.g., [2,3])
+     * @param episodes        the number of episodes
+     * @param alpha           the learning rate with range [0,1].
+     * @param gamma           the discount factor [0,1]
+     * @param epsilon         the exploration probability [0,1]
+     * @param reward          the reward assigned when reaching the goal state
+     */
+    @OPERATION
+    public void calculateQSimulated(Object[] goalDescription, Object episodes, Object alpha, Object gamma,
+                                    Object epsilon, Object reward) {
+        SimulatedLab simulatedLab = new SimulatedLab();
+        if (!simulatedLab.getFingerprint().equals(lab.getFingerprint())) {
+            failed("The lab " + lab.getFingerprint() + " cannot be simulated");
+        }
+        train(simulatedLab, true, goalDescription, episodes, alpha, gamma, epsilon, reward);
+    }
+
+    /**
+     * Reads the status of the lab, and returns the greedy action of the Q
+     * function of a goal
+     *
+     * @param goalDescription the goal (e.g., [2,3])
+     * @param actionTag       the type of the action
+     * @param payloadTags     the payload tags of the action
+     * @param payload         the payload of the action
+     */
+    @OPERATION
+    public void getAction(Object[] goalDescription, OpFeedbackParam<String> actionTag,
+                          OpFeedbackParam<Object[]> payloadTags, OpFeedbackParam<Object[]> payload) {
+        int[] goal = getGoal(goalDescription);
+        TileCodedQFunction qFunction = qFunctions.get(PolicyRegistry.getGoalKey(goal));
+        if (qFunction == null) {
+            failed("No Q function was learned for goal " + Arrays.toString(goal));
+        }
+
+        int state = lab.readCurrentState();
+        int[] features = new int[qFunction.getTilingCount()];
+        qFunction.activate(lab, features);
+
+        Action action = lab.getAction(qFunction.getBestAction(features, lab.getApplicableActions(state)));
+        actionTag.set(action.getActionTag());
+        payloadTags.set(action.getPayloadTags());
+        payload.set(action.getPayload());
+    }
+
+    private void train(Lab environment, boolean randomStarts, Object[] goalDescription, Object episodes,
+                       Object alpha, Object gamma, Object epsilon, Object reward) {
+        int[] goal = getGoal(goalDescription);
+        int goalKey = PolicyRegistry.getGoalKey(goal);
+        if (qFunctions.containsKey(goalKey)) {
+            LOGGER.info("Reusing the Q function for goal " + Arrays.toString(goal));
+            return;
+        }
+
+        TileCodedQFunction qFunction = newQFunction();
+        new TileCodedQLearning(environment, qFunction, Double.valueOf(alpha.toString()),
+                Double.valueOf(gamma.toString()), Double.valueOf(epsilon.toString()),
+                Double.valueOf(reward.toString()), new Random())
+                .setRandomStarts(randomStarts)
+                .train(goal, Integer.valueOf(episodes.toString()));
+        qFunctions.put(goalKey, qFunction);
+    }
+
+    private TileCodedQFunction newQFunction() {
+        return new TileCodedQFunction(tilings, tiles, lab.getActionCount(), weightsPerAction);
+    }
+
+    private int[] getGoal(Object[] goalDescription) {
+        int[] goal = new int[goalDescription.length];
+        for (int i = 0; i < goalDescription.length; i++) {
+            goal[i] = Integer.valueOf(goalDescription[i].toString());
+        }
+        return goal;
+    }
+}
@@ -0,0 +1,151 @@
+package tools;
+
+import java.util.*;
+import java.util.logging.*;
+
+/**
+* Q learning of a {@link TileCodedQFunction} from the raw readings of a lab,
+* with semi-gradient one-step updates and epsilon-greedy exploration.
+*
+* <p>The goal and the rewards are the same as for tabular Q learning (see
+* {@link QLearning}): an episode ends when the discretized light levels of the
+* lab satisfy the goal. The states only serve as the termination condition and
+* to find the applicable actions; the Q values are computed from the readings of
+* the lab, e.g., the light levels in lux instead of their four buckets.</p>
+*
+* <p>A step activates the features into arrays that are allocated once, and
+* updates one weight per tiling. An instance is not thread-safe.</p>
+*/
+public class TileCodedQLearning {
+
+  private final Lab lab;
+  private final TileCodedQFunction qFunction;
+  private final double alpha;
+  private final double gamma;
+  private final double epsilon;
+  private final double reward;
+  private final Random random;
+  private boolean randomStarts;
+  private int maxSteps = QLearning.DEFAULT_MAX_STEPS;
+
+  private int[] features;
+  private int[] nextFeatures;
+
+  private static final Logger LOGGER = Logger.getLogger(TileCodedQLearning.class.getName());
+
+  /**
+  * @param lab the lab used for learning
+  * @param qFunction the Q function to learn
+  * @param alpha the learning rate with range [0,1], divided among the tilings
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability [0,1]
+  * @param reward the reward assigned when reaching the goal state
+  * @param random the source of randomness for exploration
+  */
+  public TileCodedQLearning(Lab lab, TileCodedQFunction qFunction, double alpha, double gamma,
+    double epsilon, double reward, Random random) {
+    this.lab = lab;
+    this.qFunction = qFunction;
+    this.alpha = alpha;
+    this.gamma = gamma;
+    this.epsilon = epsilon;
+    this.reward = reward;
+    this.random = random;
+    this.features = new int[qFunction.getTilingCount()];
+    this.nextFeatures = new int[qFunction.getTilingCount()];
+  }
+
+  /**
+  * Starts each episode from a random state that does not satisfy the goal, if
+  * the lab can be reset (see {@link LearningEnvironment#supportsReset()}), or
+  * from the current state of the lab (the default)
+  *
+  * @param randomStarts true for random starts
+  * @return this instance
+  */
+  public TileCodedQLearning setRandomStarts(boolean randomStarts) {
+    this.randomStarts = randomStarts;
+    return this;
+  }
+
+  /**
+  * Sets the largest number of actions of an episode, like
+  * {@link QLearning#setMaxSteps(int)}: an episode that does not reach the goal
+  * within the step cap is cut. The default step cap is
+  * {@value QLearning#DEFAULT_MAX_STEPS} actions.
+  *
+  * @param maxSteps the step cap, or 0 for no cap
+  * @return this instance
+  */
+  public TileCodedQLearning setMaxSteps(int maxSteps) {
+    if (maxSteps < 0) {
+      throw new IllegalArgumentException("The step cap cannot be negative: " + maxSteps);
+    }
+    this.maxSteps = maxSteps == 0 ? Integer.MAX_VALUE : maxSteps;
+    return this;
+  }
+
+  /**
+  * Learns the Q function for a goal over a number of episodes
+  *
+  * @param goal the goal, i.e. the required values of the first substates (e.g., [2,3])
+  * @param episodes the number of episodes
+  */
+  public void train(int[] goal, int episodes) {
+    for (int i = 0; i < episodes; i++) {
+      int steps = runEpisode(goal);
+      LOGGER.fine("Episode " + i + " ended after " + steps + " steps");
+    }
+  }
+
+  /**
+  * Runs one episode, ending when the goal is reached or the step cap is reached
+  *
+  * @param goal the goal
+  * @return the number of actions performed during the episode
+  */
+  public int runEpisode(int[] goal) {
+    int s = chooseStart(goal);
+    boolean terminal = QLearning.isGoalState(lab, s, goal);
+    double step = alpha / qFunction.getTilingCount();
+    int steps = 0;
+
+    qFunction.activate(lab, features);
+
+    while (!terminal && steps < maxSteps) {
+      List<Integer> actions = lab.getApplicableActions(s);
+      int action = random.nextDouble() < epsilon ? actions.get(random.nextInt(actions.size()))
+        : qFunction.getBestAction(features, actions);
+
+      lab.performAction(action);
+      int sPrime = QLearning.requireState(lab.readCurrentState());
+      terminal = QLearning.isGoalState(lab, sPrime, goal);
+      qFunction.activate(lab, nextFeatures);
+
+      double target = QLearning.getReward(lab, action, reward, terminal);
+      if (!terminal) {
+        target += gamma * qFunction.maxValue(nextFeatures, lab.getApplicableActions(sPrime));
+      }
+      qFunction.update(features, action, step * (target - qFunction.getValue(features, action)));
+
+      int[] swap = features;
+      features = nextFeatures;
+      nextFeatures = swap;
+      s = sPrime;
+      steps++;
+    }
+    return steps;
+  }
+
+  private int chooseStart(int[] goal) {
+    if (!randomStarts || !lab.supportsReset()) {
+      return QLearning.requireState(lab.readCurrentState());
+    }
+
+    int start = -1;
+    for (int i = 0; i < 32 && (start < 0 || QLearning.isGoalState(lab, start, goal)); i++) {
+      start = random.nextInt(lab.getStateCount());
+    }
+    return QLearning.requireState(lab.reset(start));
+  }
+}
@@ -0,0 +1,123 @@
+package tools;
+
+/**
+* Tile coding of continuous inputs, combined with a discrete input.
+*
+* <p>Each of the tilings partitions the range of the continuous inputs into a
+* grid of tiles, offset from the other tilings by a fraction of the width of a
+* tile (with asymmetric offsets 1, 3, 5, ... per dimension). An input activates
+* exactly one tile per tiling, so the number of active features is the number
+* of tilings, whatever the resolution of the inputs. The discrete input (e.g.,
+* the status of the devices of the lab) selects a separate set of grids.</p>
+*
+* <p>The tiles of all the tilings are hashed into a fixed number of features,
+* so the number of features does not grow with the number of tiles, which grows
+* as a power of the resolution. Most tiles are never visited (e.g., the light
+* levels of the lab follow from its devices and the sunshine), so few visited
+* tiles share a feature. If there are no more tiles than features, each tile
+* is its own feature.</p>
+*
+* <p>Features are activated into an array provided by the caller, without
+* allocating. A tile coder is immutable.</p>
+*/
+public final class TileCoder {
+
+  private final int tilings;
+  private final int tiles;
+  private final int dimensions;
+  private final int discreteValues;
+  private final double[] minimums;
+  private final double[] widths;
+  private final long tilesPerGrid;
+  private final int featureCount;
+  private final boolean hashed;
+
+  /**
+  * @param tilings the number of tilings
+  * @param tiles the number of tiles of each tiling along each dimension
+  * @param minimums the smallest value of each continuous input
+  * @param maximums the largest value of each continuous input; larger values
+  * (and values smaller than the minimums) activate the tiles at the border
+  * @param discreteValues the number of values of the discrete input
+  * @param maxFeatures the number of features into which the tiles are hashed
+  */
+  public TileCoder(int tilings, int tiles, double[] minimums, double[] maximums, int discreteValues,
+    int maxFeatures) {
+    if (tilings < 1 || tiles < 2 || discreteValues < 1) {
+      throw new IllegalArgumentException("A tile coder needs at least 1 tiling of 2 tiles per dimension");
+    }
+    if (maxFeatures < 1) {
+      throw new IllegalArgumentException("A tile coder needs at least 1 feature: " + maxFeatures);
+    }
+    this.tilings = tilings;
+    this.tiles = tiles;
+    this.dimensions = minimums.length;
+    this.discreteValues = discreteValues;
+    this.minimums = minimums.clone();
+    this.widths = new double[dimensions];
+
+    long grid = 1;
+    for (int d = 0; d < dimensions; d++) {
+      // tiles - 1 tiles cover the range, so that every offset tiling covers it
+      widths[d] = (maximums[d] - minimums[d]) / (tiles - 1);
+      grid = grid <= Long.MAX_VALUE / tiles ? grid * tiles : Long.MAX_VALUE;
+    }
+    this.tilesPerGrid = grid;
+
+    long tileCount = grid <= Long.MAX_VALUE / tilings / discreteValues ? grid * tilings * discreteValues
+      : Long.MAX_VALUE;
+    this.hashed = tileCount > maxFeatures;
+    this.featureCount = hashed ? maxFeatures : (int) tileCount;
+  }
+
+  public int getTilingCount() {
+    return tilings;
+  }
+
+  /**
+  * Returns the number of features: the number of tiles of all the tilings for
+  * all the values of the discrete input, or the number of features into which
+  * they are hashed if there are more tiles
+  */
+  public int getFeatureCount() {
+    return featureCount;
+  }
+
+  /**
+  * Returns whether several tiles may share a feature
+  */
+  public boolean isHashed() {
+    return hashed;
+  }
+
+  /**
+  * Activates one feature per tiling
+  *
+  * @param inputs the continuous inputs
+  * @param discrete the discrete input
+  * @param features receives the active feature of each tiling
+  */
+  public void activate(double[] inputs, int discrete, int[] features) {
+    for (int t = 0; t < tilings; t++) {
+      long tile = 0;
+
+      for (int d = 0; d < dimensions; d++) {
+        double offset = (double) (t * (2 * d + 1) % tilings) / tilings;
+        int coordinate = (int) Math.floor((inputs[d] - minimums[d]) / widths[d] + offset);
+        tile = tile * tiles + Math.max(0, Math.min(tiles - 1, coordinate));
+      }
+
+      long index = ((long) t * discreteValues + discrete) * tilesPerGrid + tile;
+      features[t] = hashed ? hash(index) : (int) index;
+    }
+  }
+
+  /* Maps a tile to a feature, mixing the bits of its index (as in SplitMix64) */
+  private int hash(long index) {
+    long z = index;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z ^= z >>> 31;
+    return (int) ((z >>> 1) % featureCount);
+  }
+}
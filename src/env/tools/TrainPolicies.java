@@ -0,0 +1,119 @@
+package tools;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+* Trains policies for a list of goals without starting the agent platform, and
+* writes them as policy files (see {@link PolicyFile}) that learners can load
+* with {@link QLearner#loadPolicies(String)}.
+*
+* <p>The policies are learned with the Q learning core of the learners (see
+* {@link HogwildTrainer}) against one of the following environments:</p>
+* <ul>
+* <li> simulated: {@link SimulatedLab} instances within the JVM, one per thread
+* <li> stand-in: a {@link Lab} of a {@link SimulatedLabServer} started within
+* the JVM, over HTTP
+* <li> the URL of the Thing Description of a lab, e.g., the Node-RED simulator
+* or the real lab, over HTTP
+* </ul>
+*
+* <p>Labs that can be reset start each episode from a random state; other labs
+* start each episode from their current state. Labs over HTTP are trained on a
+* single thread. After training, each policy is evaluated on simulated labs
+* (see {@link PolicyEvaluator}) if the lab can be simulated.</p>
+*/
+public class TrainPolicies {
+
+  /**
+  * Trains and writes the policies
+  *
+  * @param args environment (simulated, stand-in or a TD URL), goals (e.g.,
+  * 3,3/0,0) [episodes [alpha [gamma [epsilon [reward [threads [output directory]]]]]]]
+  */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: TrainPolicies <simulated|stand-in|TD URL> <goals, e.g. 3,3/0,0> "
+        + "[episodes [alpha [gamma [epsilon [reward [threads [output directory]]]]]]]");
+      System.exit(2);
+    }
+
+    String environment = args[0];
+    List<int[]> goals = parseGoals(args[1]);
+    int episodes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    double alpha = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+    double gamma = args.length > 4 ? Double.parseDouble(args[4]) : 0.9;
+    double epsilon = args.length > 5 ? Double.parseDouble(args[5]) : 0.1;
+    double reward = args.length > 6 ? Double.parseDouble(args[6]) : 100;
+    int threads = args.length > 7 ? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors();
+    File directory = new File(args.length > 8 ? args[8] : "build/policies");
+
+    // the labs log every action otherwise
+    Logger.getLogger(Lab.class.getName()).setLevel(Level.WARNING);
+
+    SimulatedLabServer server = null;
+    try {
+      HogwildTrainer trainer;
+      String fingerprint;
+
+      if ("simulated".equals(environment)) {
+        trainer = new HogwildTrainer(i -> new SimulatedLab(i), threads);
+        fingerprint = new SimulatedLab().getFingerprint();
+      } else {
+        if ("stand-in".equals(environment)) {
+          server = new SimulatedLabServer(0, 0).setUpdatePeriod(0);
+          server.start();
+          environment = server.getTdUrl();
+        }
+        Lab lab = new Lab(environment);
+        trainer = new HogwildTrainer(i -> lab, 1);
+        fingerprint = lab.getFingerprint();
+      }
+
+      PolicyEvaluator evaluator = new SimulatedLab().getFingerprint().equals(fingerprint)
+        ? new PolicyEvaluator(i -> new SimulatedLab(i), 1) : null;
+      TrainingOptions options = new TrainingOptions().setStartMode("random");
+      String description = String.format(Locale.ROOT, "episodes=%d alpha=%s gamma=%s epsilon=%s reward=%s "
+        + "environment=%s", episodes, alpha, gamma, epsilon, reward, args[0]);
+
+      for (int[] goal : goals) {
+        long start = System.nanoTime();
+        double[][] qTable = trainer.train(goal, episodes, alpha, gamma, epsilon, reward,
+          PolicyRegistry.getGoalKey(goal), options);
+        PolicyFile policy = new PolicyFile(fingerprint, goal, description, PolicySnapshot.of(qTable));
+
+        File file = new File(directory, PolicyFile.getFileName(goal));
+        policy.write(file);
+        System.out.println(String.format(Locale.ROOT, "Trained goal %s in %.1f s, written to %s",
+          Arrays.toString(goal), (System.nanoTime() - start) / 1e9, file));
+
+        if (evaluator != null) {
+          System.out.println("  " + evaluator.evaluate(policy.getSnapshot(), goal));
+        }
+      }
+
+      if (evaluator != null) {
+        evaluator.close();
+      }
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  /* Parses goals of the form 3,3/0,0 */
+  private static List<int[]> parseGoals(String description) {
+    List<int[]> goals = new ArrayList<>();
+    for (String goalDescription : description.split("/")) {
+      String[] values = goalDescription.trim().split(",");
+      int[] goal = new int[values.length];
+      for (int i = 0; i < values.length; i++) {
+        goal[i] = Integer.parseInt(values[i].trim());
+      }
+      goals.add(goal);
+    }
+    return goals;
+  }
+}
@@ -0,0 +1,155 @@
+package tools;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* The budget of a training run: a wall-clock time and a number of actions
+* performed in the environment, after which the episodes are cut and no new
+* episode is started (see {@link QLearning#setBudget(TrainingBudget)}).
+*
+* <p>The time starts when the budget is created. A budget is thread-safe, so
+* that the workers of a run (e.g., of a {@link HogwildTrainer}) share it. The
+* workers do not take the actions one by one, which would make them contend on
+* the count of the budget at every step, but in leases of up to
+* {@value #MAX_LEASE} actions (see {@link #newLease()}).</p>
+*/
+public final class TrainingBudget {
+
+  /** The largest number of actions leased at once by a worker */
+  public static final int MAX_LEASE = 64;
+
+  private final long timeNanos;
+  private final long maxActions;
+  private final int leaseSize;
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong actions = new AtomicLong();
+
+  /**
+  * @param timeMillis the wall-clock time in milliseconds, or 0 for no time limit
+  * @param maxActions the number of actions, or 0 for no limit
+  */
+  public TrainingBudget(long timeMillis, long maxActions) {
+    if (timeMillis < 0 || maxActions < 0) {
+      throw new IllegalArgumentException("A training budget cannot be negative");
+    }
+    this.timeNanos = timeMillis * 1000000L;
+    this.maxActions = maxActions;
+    // small budgets are leased one action at a time, so that no worker keeps actions from the others
+    this.leaseSize = (int) Math.max(1, Math.min(MAX_LEASE, maxActions >> 10));
+  }
+
+  /**
+  * Returns true if the budget limits the time or the actions of the training
+  */
+  public boolean isLimited() {
+    return timeNanos > 0 || maxActions > 0;
+  }
+
+  /**
+  * Returns true if the time or the actions of the budget are used up
+  */
+  public boolean isExhausted() {
+    return isTimeUp() || maxActions > 0 && actions.get() >= maxActions;
+  }
+
+  /**
+  * Creates a lease through which one worker takes actions from the budget
+  */
+  public Lease newLease() {
+    return new Lease();
+  }
+
+  private boolean isTimeUp() {
+    return timeNanos > 0 && System.nanoTime() - startNanos >= timeNanos;
+  }
+
+  /* Takes up to leaseSize actions from the budget, and returns how many were taken */
+  private long take() {
+    while (true) {
+      long taken = actions.get();
+      long leased = Math.min(leaseSize, maxActions - taken);
+      if (leased <= 0) {
+        return 0;
+      }
+      if (actions.compareAndSet(taken, taken + leased)) {
+        return leased;
+      }
+    }
+  }
+
+  /**
+  * Returns the number of actions taken from the budget, including the actions
+  * leased by workers that were not performed yet. Actions are only counted if
+  * the budget limits them.
+  */
+  public long getActionCount() {
+    return actions.get();
+  }
+
+  /**
+  * Returns the time elapsed since the budget was created, in milliseconds
+  */
+  public long getElapsedMillis() {
+    return (System.nanoTime() - startNanos) / 1000000L;
+  }
+
+  @Override
+  public String toString() {
+    // unlimited actions are not counted
+    return String.format(Locale.ROOT, "%d ms%s%s", getElapsedMillis(),
+      timeNanos > 0 ? " of " + timeNanos / 1000000L : "",
+      maxActions > 0 ? ", " + getActionCount() + " actions of " + maxActions : "");
+  }
+
+  /**
+  * The actions of a {@link TrainingBudget} leased by one worker. A lease is not
+  * thread-safe: each worker takes its actions through its own lease.
+  */
+  public final class Lease {
+
+    private long remaining;
+
+    private Lease() {
+    }
+
+    /**
+    * Takes one action from the budget, leasing more actions if needed
+    *
+    * @return false if the budget is exhausted, in which case the action must not be performed
+    */
+    public boolean tryAcquireAction() {
+      if (isTimeUp()) {
+        return false;
+      }
+      if (maxActions == 0) {
+        return true;
+      }
+      if (remaining == 0) {
+        remaining = take();
+        if (remaining == 0) {
+          return false;
+        }
+      }
+      remaining--;
+      return true;
+    }
+
+    /**
+    * Returns true if the budget is exhausted and no leased action is left
+    */
+    public boolean isExhausted() {
+      return isTimeUp() || remaining == 0 && TrainingBudget.this.isExhausted();
+    }
+
+    /**
+    * Returns the leased actions that were not performed to the budget
+    */
+    public void release() {
+      if (remaining > 0) {
+        actions.addAndGet(-remaining);
+        remaining = 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,485 @@
+package tools;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* Optional settings of Q learning, on top of the learning rate, the discount
+* factor, the exploration probability and the goal reward.
+*
+* <p>Agents pass the options to the operations of {@link QLearner} as a list of
+* options, where each option is a list whose first element names the option,
+* e.g., [["update", "watkins", 0.8]]. The supported options are:</p>
+* <ul>
+* <li> ["update", "one-step"]: one-step Q learning (default)
+* <li> ["update", "watkins", lambda]: Watkins's Q(lambda) (see {@link WatkinsLambdaUpdate})
+* <li> ["update", "n-step", n]: n-step Q learning (see {@link NStepQUpdate})
+* <li> ["exploration", "epsilon", epsilon]: epsilon-greedy exploration with a constant
+* epsilon (default, with the epsilon given to the operation)
+* <li> ["exploration", "linear", start, end, episodes]: epsilon-greedy exploration with
+* an epsilon that decays linearly (see {@link EpsilonGreedyExploration})
+* <li> ["exploration", "exponential", start, end, factor]: epsilon-greedy exploration with
+* an epsilon that decays exponentially
+* <li> ["exploration", "boltzmann", temperature, minTemperature, decay]: softmax exploration
+* (see {@link BoltzmannExploration})
+* <li> ["exploration", "ucb1", c]: UCB1 exploration (see {@link Ucb1Exploration})
+* <li> ["starts", "current"]: episodes start from the current state of the environment (default)
+* <li> ["starts", "random"]: episodes start from a random state, if the environment can be reset
+* <li> ["starts", "least-visited"]: episodes start from the least visited state, if the
+* environment can be reset (see {@link QLearning.StartMode})
+* <li> ["storage", "double"]: Q values are learned and published as doubles (default)
+* <li> ["storage", "float"]: Q values are learned and published as floats (see {@link FloatQTable}
+* and {@link PolicySnapshot#toFloats()})
+* <li> ["storage", "float-stochastic"]: Q values are learned as floats with stochastic rounding,
+* and published as floats
+* <li> ["storage", "quantized"]: Q values are learned as floats, and published as a
+* 16-bit quantized policy (see {@link PolicySnapshot#quantize()})
+* <li> ["max-steps", n]: episodes are cut after n actions (see {@link QLearning#setMaxSteps(int)}),
+* by default after {@value QLearning#DEFAULT_MAX_STEPS} actions; 0 runs every episode until it
+* reaches the goal
+* <li> ["budget", "time", milliseconds]: the training stops after a wall-clock time
+* (see {@link TrainingBudget})
+* <li> ["budget", "actions", n]: the training stops after n actions in the environment
+* <li> ["publish-every", n]: the best Q matrix so far is published every n episodes,
+* so that a policy is available while the training runs
+* </ul>
+*/
+public class TrainingOptions {
+
+  private String updateRule = "one-step";
+  private double updateParameter;
+  private String exploration = "epsilon";
+  private double[] explorationParameters = new double[0];
+  private QLearning.StartMode startMode = QLearning.StartMode.CURRENT;
+  private String storage = "double";
+  private int maxSteps = QLearning.DEFAULT_MAX_STEPS;
+  private long budgetMillis;
+  private long budgetActions;
+  private int publishInterval;
+
+  /**
+  * Parses a list of options
+  *
+  * @param options the options, e.g., [["update", "n-step", 3]]
+  * @return the parsed options
+  * @throws IllegalArgumentException if an option is unknown or malformed
+  */
+  public static TrainingOptions parse(Object[] options) {
+    TrainingOptions parsed = new TrainingOptions();
+
+    for (Object option : options) {
+      if (!(option instanceof Object[]) || ((Object[]) option).length == 0) {
+        throw new IllegalArgumentException("Malformed option: " + option);
+      }
+      Object[] values = (Object[]) option;
+      String name = values[0].toString();
+
+      switch (name) {
+        case "update":
+          parsed.setUpdateRule(stringAt(values, 1),
+            values.length > 2 ? numberAt(values, 2) : Double.NaN);
+          break;
+        case "exploration":
+          double[] parameters = new double[Math.max(0, values.length - 2)];
+          for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = numberAt(values, i + 2);
+          }
+          parsed.setExploration(stringAt(values, 1), parameters);
+          break;
+        case "starts":
+          parsed.setStartMode(stringAt(values, 1));
+          break;
+        case "storage":
+          parsed.setStorage(stringAt(values, 1));
+          break;
+        case "max-steps":
+          parsed.setMaxSteps((int) numberAt(values, 1));
+          break;
+        case "budget":
+          parsed.setBudget(stringAt(values, 1), (long) numberAt(values, 2));
+          break;
+        case "publish-every":
+          parsed.setPublishInterval((int) numberAt(values, 1));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + name);
+      }
+    }
+    return parsed;
+  }
+
+  /**
+  * Selects the update rule
+  *
+  * @param name "one-step", "watkins" or "n-step"
+  * @param parameter lambda for "watkins", n for "n-step", or NaN for the defaults
+  * (lambda = 0.9, n = 3)
+  * @return these options
+  */
+  public TrainingOptions setUpdateRule(String name, double parameter) {
+    switch (name) {
+      case "one-step":
+        break;
+      case "watkins":
+        parameter = Double.isNaN(parameter) ? 0.9 : parameter;
+        break;
+      case "n-step":
+        parameter = Double.isNaN(parameter) ? 3 : parameter;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown update rule: " + name);
+    }
+    this.updateRule = name;
+    this.updateParameter = parameter;
+    return this;
+  }
+
+  public String getUpdateRule() {
+    return updateRule;
+  }
+
+  /**
+  * Selects the exploration strategy
+  *
+  * @param name "epsilon", "linear", "exponential", "boltzmann" or "ucb1"
+  * @param parameters the parameters of the strategy, as listed in the description of
+  * {@link TrainingOptions}
+  * @return these options
+  */
+  public TrainingOptions setExploration(String name, double... parameters) {
+    int required;
+    switch (name) {
+      case "epsilon":
+      case "ucb1":
+        required = 1;
+        break;
+      case "linear":
+      case "exponential":
+      case "boltzmann":
+        required = 3;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown exploration strategy: " + name);
+    }
+    if (parameters.length != required && !("epsilon".equals(name) && parameters.length == 0)) {
+      throw new IllegalArgumentException("The exploration strategy " + name + " takes "
+        + required + " parameters");
+    }
+    this.exploration = name;
+    this.explorationParameters = parameters.clone();
+    return this;
+  }
+
+  public String getExploration() {
+    return exploration;
+  }
+
+  /**
+  * Selects how the start state of each episode is chosen
+  *
+  * @param name "current", "random" or "least-visited"
+  * @return these options
+  */
+  public TrainingOptions setStartMode(String name) {
+    try {
+      this.startMode = QLearning.StartMode.valueOf(name.toUpperCase().replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown start mode: " + name);
+    }
+    return this;
+  }
+
+  public QLearning.StartMode getStartMode() {
+    return startMode;
+  }
+
+  /**
+  * Selects how Q values are stored
+  *
+  * @param name "double", "float", "float-stochastic" or "quantized"
+  * @return these options
+  */
+  public TrainingOptions setStorage(String name) {
+    switch (name) {
+      case "double":
+      case "float":
+      case "float-stochastic":
+      case "quantized":
+        this.storage = name;
+        return this;
+      default:
+        throw new IllegalArgumentException("Unknown storage: " + name);
+    }
+  }
+
+  public String getStorage() {
+    return storage;
+  }
+
+  /**
+  * Sets the largest number of actions of an episode
+  *
+  * @param maxSteps the step cap ({@value QLearning#DEFAULT_MAX_STEPS} by default), or
+  * 0 for no cap
+  * @return these options
+  */
+  public TrainingOptions setMaxSteps(int maxSteps) {
+    if (maxSteps < 0) {
+      throw new IllegalArgumentException("The step cap cannot be negative: " + maxSteps);
+    }
+    this.maxSteps = maxSteps;
+    return this;
+  }
+
+  public int getMaxSteps() {
+    return maxSteps;
+  }
+
+  /**
+  * Limits the training
+  *
+  * @param kind "time" for a wall-clock time in milliseconds, or "actions" for a
+  * number of actions in the environment
+  * @param amount the budget, or 0 for no limit (the default)
+  * @return these options
+  */
+  public TrainingOptions setBudget(String kind, long amount) {
+    if (amount < 0) {
+      throw new IllegalArgumentException("A training budget cannot be negative: " + amount);
+    }
+    switch (kind) {
+      case "time":
+        this.budgetMillis = amount;
+        return this;
+      case "actions":
+        this.budgetActions = amount;
+        return this;
+      default:
+        throw new IllegalArgumentException("Unknown budget: " + kind);
+    }
+  }
+
+  /**
+  * Creates the budget of a training run, which starts now
+  *
+  * @return the budget, or null if the options do not limit the training
+  */
+  public TrainingBudget createBudget() {
+    if (budgetMillis == 0 && budgetActions == 0) {
+      return null;
+    }
+    return new TrainingBudget(budgetMillis, budgetActions);
+  }
+
+  /**
+  * Sets how often the best Q matrix so far is published during the training
+  *
+  * @param episodes the number of episodes between publications, or 0 for
+  * publishing only at the end of the training (the default)
+  * @return these options
+  */
+  public TrainingOptions setPublishInterval(int episodes) {
+    if (episodes < 0) {
+      throw new IllegalArgumentException("The publication interval cannot be negative: " + episodes);
+    }
+    this.publishInterval = episodes;
+    return this;
+  }
+
+  public int getPublishInterval() {
+    return publishInterval;
+  }
+
+  /**
+  * Creates a Q table with all Q values set to 0, stored as selected
+  *
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @param seed the seed of stochastic rounding
+  * @return the Q table
+  */
+  public QTable createQTable(int stateCount, int actionCount, long seed) {
+    switch (storage) {
+      case "float":
+      case "quantized":
+        return new FloatQTable(stateCount, actionCount);
+      case "float-stochastic":
+        return new FloatQTable(stateCount, actionCount, FloatQTable.Rounding.STOCHASTIC, seed);
+      default:
+        return new ArrayQTable(stateCount, actionCount);
+    }
+  }
+
+  /**
+  * Creates a Q table with all Q values set to 0, stored as selected, that can
+  * be updated by several threads without locking (see {@link HogwildTrainer})
+  *
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @return the Q table
+  */
+  public QTable createConcurrentQTable(int stateCount, int actionCount) {
+    switch (storage) {
+      case "float":
+      case "quantized":
+        return new ConcurrentFloatQTable(stateCount, actionCount, FloatQTable.Rounding.NEAREST);
+      case "float-stochastic":
+        return new ConcurrentFloatQTable(stateCount, actionCount, FloatQTable.Rounding.STOCHASTIC);
+      default:
+        return new ConcurrentQTable(stateCount, actionCount);
+    }
+  }
+
+  /**
+  * Creates the snapshot of a learned Q matrix to be published, stored as selected:
+  * as doubles, as floats or quantized
+  *
+  * @param qTable the Q matrix
+  * @return the snapshot
+  */
+  public PolicySnapshot createSnapshot(double[][] qTable) {
+    PolicySnapshot snapshot = PolicySnapshot.of(qTable);
+    switch (storage) {
+      case "float":
+      case "float-stochastic":
+        return snapshot.toFloats();
+      case "quantized":
+        return snapshot.quantize();
+      default:
+        return snapshot;
+    }
+  }
+
+  /**
+  * Creates a Q learning instance configured with these options
+  *
+  * @param environment the environment used for learning
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param epsilon the exploration probability used by default
+  * @param reward the reward assigned when reaching the goal state
+  * @param random the source of randomness of the training
+  * @return the Q learning instance
+  */
+  public QLearning createLearning(LearningEnvironment environment, double alpha, double gamma,
+    double epsilon, double reward, Random random) {
+    int stateCount = environment.getStateCount();
+    int actionCount = environment.getActionCount();
+
+    return new QLearning(environment, createUpdateRule(alpha, gamma, stateCount, actionCount),
+      createExplorationStrategy(epsilon, stateCount, actionCount), reward, random)
+      .setStartMode(startMode)
+      .setMaxSteps(maxSteps);
+  }
+
+  /**
+  * Creates a new instance of the selected update rule
+  *
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @return the update rule
+  */
+  public UpdateRule createUpdateRule(double alpha, double gamma, int stateCount, int actionCount) {
+    switch (updateRule) {
+      case "watkins":
+        return new WatkinsLambdaUpdate(alpha, gamma, updateParameter, stateCount, actionCount);
+      case "n-step":
+        return new NStepQUpdate(alpha, gamma, (int) updateParameter);
+      default:
+        return new OneStepQUpdate(alpha, gamma);
+    }
+  }
+
+  /**
+  * Creates a new instance of the selected exploration strategy
+  *
+  * @param epsilon the exploration probability used by default
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  * @return the exploration strategy
+  */
+  public ExplorationStrategy createExplorationStrategy(double epsilon, int stateCount,
+    int actionCount) {
+    double[] p = explorationParameters;
+    switch (exploration) {
+      case "linear":
+        return EpsilonGreedyExploration.linear(p[0], p[1], (int) p[2]);
+      case "exponential":
+        return EpsilonGreedyExploration.exponential(p[0], p[1], p[2]);
+      case "boltzmann":
+        return new BoltzmannExploration(p[0], p[1], p[2]);
+      case "ucb1":
+        return new Ucb1Exploration(p[0], stateCount, actionCount);
+      default:
+        return EpsilonGreedyExploration.constant(p.length > 0 ? p[0] : epsilon);
+    }
+  }
+
+  /**
+  * Writes these options in binary form (e.g., for a {@link ShardWorker})
+  */
+  void write(DataOutput out) throws IOException {
+    out.writeUTF(updateRule);
+    out.writeDouble(updateParameter);
+    out.writeUTF(exploration);
+    out.writeInt(explorationParameters.length);
+    for (double parameter : explorationParameters) {
+      out.writeDouble(parameter);
+    }
+    out.writeUTF(startMode.name());
+    out.writeUTF(storage);
+    out.writeInt(maxSteps);
+    out.writeLong(budgetMillis);
+    out.writeLong(budgetActions);
+    out.writeInt(publishInterval);
+  }
+
+  /**
+  * Reads options written by {@link #write(DataOutput)}
+  */
+  static TrainingOptions read(DataInput in) throws IOException {
+    TrainingOptions options = new TrainingOptions();
+    options.updateRule = in.readUTF();
+    options.updateParameter = in.readDouble();
+    options.exploration = in.readUTF();
+    options.explorationParameters = new double[in.readInt()];
+    for (int i = 0; i < options.explorationParameters.length; i++) {
+      options.explorationParameters[i] = in.readDouble();
+    }
+    options.startMode = QLearning.StartMode.valueOf(in.readUTF());
+    options.storage = in.readUTF();
+    options.maxSteps = in.readInt();
+    options.budgetMillis = in.readLong();
+    options.budgetActions = in.readLong();
+    options.publishInterval = in.readInt();
+    return options;
+  }
+
+  @Override
+  public String toString() {
+    return "update=" + updateRule + ("one-step".equals(updateRule) ? "" : "(" + updateParameter + ")")
+      + ", exploration=" + exploration + Arrays.toString(explorationParameters)
+      + ", starts=" + startMode + ", storage=" + storage
+      + ", max-steps=" + (maxSteps > 0 ? String.valueOf(maxSteps) : "none")
+      + (budgetMillis > 0 ? ", budget=" + budgetMillis + " ms" : "")
+      + (budgetActions > 0 ? ", budget=" + budgetActions + " actions" : "")
+      + (publishInterval > 0 ? ", publish-every=" + publishInterval : "");
+  }
+
+  static String stringAt(Object[] values, int i) {
+    if (values.length <= i) {
+      throw new IllegalArgumentException("Missing value of option " + values[0]);
+    }
+    return values[i].toString();
+  }
+
+  static double numberAt(Object[] values, int i) {
+    try {
+      return Double.valueOf(stringAt(values, i));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number in option " + values[0] + ": " + values[i]);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package tools;
+
+import java.util.*;
+
+/**
+* UCB1 exploration: the chosen action maximizes
+* Q(S,A) + c * sqrt(ln N(S) / N(S,A)), where N(S) counts the visits of the
+* state and N(S,A) the times the action was chosen in the state. Actions that
+* were never chosen in a state are chosen first.
+*
+* <p>The visit counts are kept in primitive arrays, one entry per state and
+* one entry per state-action pair.</p>
+*/
+public class Ucb1Exploration implements ExplorationStrategy {
+
+  private final double c;
+  private final int actionCount;
+  private final int[] stateVisits;
+  private final int[] actionVisits;
+
+  /**
+  * @param c the weight of the exploration bonus
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  */
+  public Ucb1Exploration(double c, int stateCount, int actionCount) {
+    this.c = c;
+    this.actionCount = actionCount;
+    this.stateVisits = new int[stateCount];
+    this.actionVisits = new int[stateCount * actionCount];
+  }
+
+  @Override
+  public void startEpisode(int episode) {
+  }
+
+  @Override
+  public int selectAction(QTable qTable, int state, List<Integer> actions, Random random) {
+    int row = state * actionCount;
+    double logVisits = Math.log(stateVisits[state] + 1);
+    int action = actions.get(0);
+    double maxValue = Double.NEGATIVE_INFINITY;
+
+    for (int a : actions) {
+      int visits = actionVisits[row + a];
+      if (visits == 0) {
+        action = a;
+        break;
+      }
+
+      double value = qTable.get(state, a) + c * Math.sqrt(logVisits / visits);
+      if (value > maxValue) {
+        maxValue = value;
+        action = a;
+      }
+    }
+
+    stateVisits[state]++;
+    actionVisits[row + action]++;
+    return action;
+  }
+
+  /**
+  * Returns the number of times an action was chosen in a state
+  */
+  public int getVisits(int state, int action) {
+    return actionVisits[state * actionCount + action];
+  }
+}
@@ -0,0 +1,42 @@
+package tools;
+
+import java.util.*;
+
+/**
+* A rule for updating the Q values of a {@link QTable} from the transitions
+* observed during an episode of Q learning.
+*
+* <p>An update rule may keep state across the steps of an episode (e.g.,
+* eligibility traces), so each learning thread uses its own instance.</p>
+*/
+public interface UpdateRule {
+
+  /**
+  * Called before the first step of an episode
+  */
+  void startEpisode();
+
+  /**
+  * Updates the Q table after a step of an episode
+  *
+  * @param qTable the Q table
+  * @param s the state in which the action was performed
+  * @param a the performed action
+  * @param r the observed reward
+  * @param sPrime the observed next state
+  * @param actionsPrime the actions applicable in the next state
+  * @param aPrime the action that will be performed in the next state, the greedy
+  * action if the episode is cut after this step, or -1 if the next state is terminal
+  * @param terminal whether the next state is terminal
+  */
+  void update(QTable qTable, int s, int a, double r, int sPrime, List<Integer> actionsPrime,
+    int aPrime, boolean terminal);
+
+  /**
+  * Called after the last step of an episode, including episodes that end
+  * before reaching a terminal state
+  *
+  * @param qTable the Q table
+  */
+  void endEpisode(QTable qTable);
+}
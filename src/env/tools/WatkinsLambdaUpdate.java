@@ -0,0 +1,120 @@
+package tools;
+
+import java.util.*;
+
+/**
+* Watkins's Q(lambda) update with replacing eligibility traces.
+*
+* <p>Every step spreads the temporal-difference error of the step back to all
+* the state-action pairs visited since the last exploratory action, weighted
+* by their eligibility. The traces are cut when an exploratory action is
+* chosen, and dropped once they decay below a threshold.</p>
+*
+* <p>The traces are stored sparsely in primitive arrays: the eligible pairs
+* and their traces are kept in parallel arrays, and a per-pair slot index
+* locates the trace of a pair in constant time. A step therefore costs time
+* proportional to the number of eligible pairs, and allocates nothing once
+* the arrays have grown to the longest chain of eligible pairs.</p>
+*/
+public class WatkinsLambdaUpdate implements UpdateRule {
+
+  private static final double MIN_TRACE = 1e-4;
+
+  private final double alpha;
+  private final double gamma;
+  private final double lambda;
+  private final int actionCount;
+
+  /* slot of each state-action pair in the trace arrays, or -1 */
+  private final int[] slots;
+  private int[] pairs = new int[16];
+  private double[] traces = new double[16];
+  private int size;
+
+  /**
+  * @param alpha the learning rate with range [0,1]
+  * @param gamma the discount factor [0,1]
+  * @param lambda the trace decay [0,1]
+  * @param stateCount the number of states
+  * @param actionCount the number of actions
+  */
+  public WatkinsLambdaUpdate(double alpha, double gamma, double lambda, int stateCount,
+    int actionCount) {
+    this.alpha = alpha;
+    this.gamma = gamma;
+    this.lambda = lambda;
+    this.actionCount = actionCount;
+    this.slots = new int[stateCount * actionCount];
+    Arrays.fill(slots, -1);
+  }
+
+  @Override
+  public void startEpisode() {
+    clearTraces();
+  }
+
+  @Override
+  public void update(QTable qTable, int s, int a, double r, int sPrime, List<Integer> actionsPrime,
+    int aPrime, boolean terminal) {
+    double maxQ = terminal ? 0.0 : QLearning.maxQ(qTable, sPrime, actionsPrime);
+    double delta = r + gamma * maxQ - qTable.get(s, a);
+
+    setTrace(s * actionCount + a, 1.0);
+
+    // the traces decay if the next action is greedy, and are cut otherwise
+    boolean greedy = !terminal && qTable.get(sPrime, aPrime) == maxQ;
+    double decay = greedy ? gamma * lambda : 0.0;
+
+    int i = 0;
+    while (i < size) {
+      int pair = pairs[i];
+      qTable.add(pair / actionCount, pair % actionCount, alpha * delta * traces[i]);
+      traces[i] *= decay;
+
+      if (traces[i] < MIN_TRACE) {
+        removeTrace(i);
+      } else {
+        i++;
+      }
+    }
+  }
+
+  @Override
+  public void endEpisode(QTable qTable) {
+    clearTraces();
+  }
+
+  private void setTrace(int pair, double trace) {
+    int slot = slots[pair];
+
+    if (slot < 0) {
+      if (size == pairs.length) {
+        pairs = Arrays.copyOf(pairs, size * 2);
+        traces = Arrays.copyOf(traces, size * 2);
+      }
+      slot = size++;
+      pairs[slot] = pair;
+      slots[pair] = slot;
+    }
+    traces[slot] = trace;
+  }
+
+  /* Moves the last trace into the slot of the removed one */
+  private void removeTrace(int slot) {
+    slots[pairs[slot]] = -1;
+    size--;
+
+    if (slot < size) {
+      pairs[slot] = pairs[size];
+      traces[slot] = traces[size];
+      slots[pairs[slot]] = slot;
+    }
+  }
+
+  private void clearTraces() {
+    for (int i = 0; i < size; i++) {
+      slots[pairs[i]] = -1;
+    }
+    size = 0;
+  }
+}
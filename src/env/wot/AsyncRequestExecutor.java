@@ -0,0 +1,265 @@
+package wot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import cartago.IBlockingCmd;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+
+/**
+ * Executes the requests of an artifact outside of the artifact, such that the artifact is released
+ * while the requests are in flight.
+ *
+ * Requests are executed as CArtAgO blocking commands (see
+ * {@link cartago.Artifact#await(IBlockingCmd)}): a command issues its requests concurrently, each
+ * on its own thread (a virtual thread when the JVM supports them), and gives up on the requests
+ * that do not complete within the request timeout. A command takes one of the permits of the
+ * artifact before it submits each request, so an artifact never has more requests in flight, nor
+ * holds more threads, than it has permits. On JVMs without virtual threads, the requests run on a
+ * pool of at most {@value #MAX_PLATFORM_THREADS} platform threads, and further requests are queued.
+ */
+final class AsyncRequestExecutor {
+  /* The maximum number of platform threads of each pool, when virtual threads are not available */
+  static final int MAX_PLATFORM_THREADS = 64;
+
+  private static final ExecutorService EXECUTOR = newExecutor("thing-artifact-request");
+
+  private Semaphore permits;
+  private long timeoutMillis;
+
+  /**
+   * @param maxOutstandingRequests The maximum number of requests in flight.
+   * @param timeoutMillis The request timeout in milliseconds (0 for no timeout).
+   */
+  AsyncRequestExecutor(int maxOutstandingRequests, long timeoutMillis) {
+    setMaxOutstandingRequests(maxOutstandingRequests);
+    setTimeoutMillis(timeoutMillis);
+  }
+
+  /**
+   * Sets the maximum number of requests in flight. Requests already in flight are not affected.
+   */
+  void setMaxOutstandingRequests(int maxOutstandingRequests) {
+    if (maxOutstandingRequests < 1) {
+      throw new IllegalArgumentException("The maximum number of outstanding requests must be "
+          + "positive: " + maxOutstandingRequests);
+    }
+    this.permits = new Semaphore(maxOutstandingRequests, true);
+  }
+
+  /**
+   * Sets the request timeout in milliseconds (0 for no timeout). The timeout includes the time
+   * spent waiting for a permit.
+   */
+  void setTimeoutMillis(long timeoutMillis) {
+    if (timeoutMillis < 0) {
+      throw new IllegalArgumentException("The request timeout cannot be negative: "
+          + timeoutMillis);
+    }
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Returns a blocking command that executes a request. The request must not be bound (see
+   * {@link RequestPlan#prepare(Object[], String, RequestPlan.RequestPreparer)}), since other
+   * requests may be in flight.
+   *
+   * @param plan The plan with which the request was built.
+   * @param request The request.
+   * @param newRequests Builds the requests of the further attempts of the request.
+   */
+  Command newCommand(RequestPlan plan, TDHttpRequest request,
+      Supplier<TDHttpRequest> newRequests) {
+    List<Supplier<TDHttpRequest>> requestSuppliers = new ArrayList<Supplier<TDHttpRequest>>();
+    requestSuppliers.add(newRequests);
+    return newCommand(new RequestPlan[] { plan }, new TDHttpRequest[] { request }, requestSuppliers);
+  }
+
+  /**
+   * Returns a blocking command that executes requests concurrently. The requests must not be bound.
+   *
+   * @param plans The plan with which each request was built.
+   * @param requests The requests.
+   * @param newRequests Builds the requests of the further attempts of each request.
+   */
+  Command newCommand(RequestPlan[] plans, TDHttpRequest[] requests,
+      List<Supplier<TDHttpRequest>> newRequests) {
+    return new Command(plans, requests, newRequests, permits, timeoutMillis);
+  }
+
+  /**
+   * Returns an executor of requests: virtual threads when they are available (Java 21+), and a
+   * pool of at most {@value #MAX_PLATFORM_THREADS} daemon platform threads otherwise, whose idle
+   * threads are stopped.
+   *
+   * @param name The name of the platform threads.
+   */
+  static ExecutorService newExecutor(String name) {
+    return newExecutor(name, MAX_PLATFORM_THREADS);
+  }
+
+  /**
+   * Returns an executor of requests like {@link #newExecutor(String)}, with a given bound on the
+   * number of platform threads.
+   *
+   * @param name The name of the platform threads.
+   * @param maxPlatformThreads The maximum number of platform threads.
+   */
+  static ExecutorService newExecutor(String name, int maxPlatformThreads) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads,
+          30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+          });
+      pool.allowCoreThreadTimeOut(true);
+      return pool;
+    }
+  }
+
+  /* Requests in flight */
+  static final class Command implements IBlockingCmd {
+    private final RequestPlan[] plans;
+    private final TDHttpRequest[] requests;
+    private final List<Supplier<TDHttpRequest>> newRequests;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+
+    private final TDHttpResponse[] responses;
+    private final IOException[] errors;
+
+    private Command(RequestPlan[] plans, TDHttpRequest[] requests,
+        List<Supplier<TDHttpRequest>> newRequests, Semaphore permits, long timeoutMillis) {
+      this.plans = plans;
+      this.requests = requests;
+      this.newRequests = newRequests;
+      this.permits = permits;
+      this.timeoutMillis = timeoutMillis;
+      this.responses = new TDHttpResponse[requests.length];
+      this.errors = new IOException[requests.length];
+    }
+
+    @Override
+    public void exec() {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      List<Future<TDHttpResponse>> futures = new ArrayList<Future<TDHttpResponse>>();
+
+      for (int i = 0; i < requests.length; i ++) {
+        futures.add(null);
+        try {
+          if (!acquirePermit(deadline)) {
+            errors[i] = new IOException("The request timed out after " + timeoutMillis
+                + " ms while waiting to be issued.");
+            continue;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          errors[i] = new IOException("Interrupted while waiting to issue the request.", e);
+          continue;
+        }
+        futures.set(i, submit(plans[i], requests[i], newRequests.get(i)));
+      }
+
+      for (int i = 0; i < requests.length; i ++) {
+        Future<TDHttpResponse> future = futures.get(i);
+        if (future == null) {
+          continue;
+        }
+
+        try {
+          responses[i] = timeoutMillis == 0 ? future.get()
+              : future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          future.cancel(true);
+          errors[i] = new IOException("The request timed out after " + timeoutMillis + " ms.");
+        } catch (ExecutionException e) {
+          errors[i] = e.getCause() instanceof IOException ? (IOException) e.getCause()
+              : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+          future.cancel(true);
+          Thread.currentThread().interrupt();
+          errors[i] = new IOException("Interrupted while waiting for the response.", e);
+        }
+      }
+    }
+
+    private boolean acquirePermit(long deadline) throws InterruptedException {
+      if (timeoutMillis == 0) {
+        permits.acquire();
+        return true;
+      }
+      return permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /* Submits a request holding a permit, which is released once the request completes */
+    private Future<TDHttpResponse> submit(RequestPlan plan, TDHttpRequest request,
+        Supplier<TDHttpRequest> requestSupplier) {
+      AtomicBoolean started = new AtomicBoolean();
+      AtomicBoolean released = new AtomicBoolean();
+      Runnable release = () -> {
+        if (released.compareAndSet(false, true)) {
+          permits.release();
+        }
+      };
+
+      FutureTask<TDHttpResponse> task = new FutureTask<TDHttpResponse>(() -> {
+        started.set(true);
+        try {
+          return plan.execute(request, requestSupplier);
+        } finally {
+          release.run();
+        }
+      }) {
+        @Override
+        protected void done() {
+          // a request cancelled before it started does not run its own release
+          if (!started.get()) {
+            release.run();
+          }
+        }
+      };
+      EXECUTOR.execute(task);
+      return task;
+    }
+
+    /**
+     * Returns the response to the first request, once the command was executed.
+     *
+     * @throws IOException if the request failed or timed out.
+     */
+    TDHttpResponse getResponse() throws IOException {
+      return getResponse(0);
+    }
+
+    /**
+     * Returns the response to a request, once the command was executed.
+     *
+     * @param index The position of the request.
+     * @throws IOException if the request failed or timed out.
+     */
+    TDHttpResponse getResponse(int index) throws IOException {
+      if (errors[index] != null) {
+        throw errors[index];
+      }
+      return responses[index];
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package wot;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request was not issued because the circuit breaker of its Thing is open (see
+ * {@link ResilientExecutor}), i.e., the Thing failed repeatedly and is given time to recover.
+ */
+public class CircuitOpenException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public CircuitOpenException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,70 @@
+package wot;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A write-through cache of the last confirmed value of each writable affordance of a Thing (a
+ * property write or an action invocation, with its payload), used to skip invocations that would not
+ * change the state of a device, e.g., switching on a light that is already on.
+ *
+ * A value is confirmed when its request succeeded, and forgotten when a request for the affordance
+ * failed. Since the cache cannot tell which property reflects which affordance, the whole cache is
+ * invalidated when a property of the Thing is read or when the Thing notifies a change.
+ *
+ * Caches are not thread-safe.
+ */
+final class DeviceStateCache {
+  /* The last confirmed payload tags and payload, keyed by affordance tag and operation type */
+  private final Map<String, Object[][]> values = new HashMap<String, Object[][]>();
+  private long skipped;
+
+  /**
+   * Returns true if a request would set the last confirmed value of its affordance, and counts it as
+   * skipped.
+   */
+  boolean isCurrent(String affordanceTag, String operationType, Object[] tags, Object[] payload) {
+    Object[][] value = values.get(key(affordanceTag, operationType));
+
+    if (value != null && Arrays.deepEquals(value[0], tags) && Arrays.deepEquals(value[1], payload)) {
+      skipped ++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Records the outcome of a request for an affordance.
+   *
+   * @param succeeded True if the Thing confirmed the request.
+   */
+  void update(String affordanceTag, String operationType, Object[] tags, Object[] payload,
+      boolean succeeded) {
+    String key = key(affordanceTag, operationType);
+
+    if (succeeded) {
+      values.put(key, new Object[][] { tags.clone(), payload.clone() });
+    } else {
+      values.remove(key);
+    }
+  }
+
+  /**
+   * Forgets all the confirmed values.
+   */
+  void invalidate() {
+    values.clear();
+  }
+
+  /**
+   * Returns the number of requests that were skipped.
+   */
+  long getSkippedCount() {
+    return skipped;
+  }
+
+  private static String key(String affordanceTag, String operationType) {
+    return affordanceTag + " " + operationType;
+  }
+}
@@ -0,0 +1,204 @@
+package wot;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+
+/**
+ * A decoder for JSON payloads that is compiled once for a TD data schema.
+ *
+ * The decoder streams a payload straight into the values returned by ThingArtifact operations,
+ * without building an intermediate tree of maps and lists. For object schemas, the properties of
+ * the schema are resolved to their tags when the decoder is compiled: a property is tagged with
+ * its first semantic type that is not a JSON schema type, or with its name otherwise.
+ *
+ * Decoders are immutable and can be shared among threads.
+ */
+public final class PayloadDecoder {
+  private static final String JSON_SCHEMA_PREFIX = "https://www.w3.org/2019/wot/json-schema#";
+
+  private final String datatype;
+  private final Map<String, Property> properties;
+
+  /* A property of an object schema */
+  private static final class Property {
+    private final String tag;
+    private final String datatype;
+
+    private Property(String tag, String datatype) {
+      this.tag = tag;
+      this.datatype = datatype;
+    }
+  }
+
+  private PayloadDecoder(String datatype, Map<String, Property> properties) {
+    this.datatype = datatype;
+    this.properties = properties;
+  }
+
+  /**
+   * Compiles a decoder for a data schema.
+   *
+   * @param schema The data schema of the payloads.
+   */
+  public static PayloadDecoder compile(DataSchema schema) {
+    Map<String, Property> properties = new HashMap<String, Property>();
+
+    if (DataSchema.OBJECT.equals(schema.getDatatype())) {
+      for (Map.Entry<String, DataSchema> property
+          : ((ObjectSchema) schema).getProperties().entrySet()) {
+        properties.put(property.getKey(), new Property(getTag(property.getKey(), property.getValue()),
+            property.getValue().getDatatype()));
+      }
+    }
+
+    return new PayloadDecoder(schema.getDatatype(), properties);
+  }
+
+  /**
+   * Returns the tag of an object property: its first semantic type that is not a JSON schema
+   * type, or its name.
+   */
+  public static String getTag(String name, DataSchema schema) {
+    for (String type : schema.getSemanticTypes()) {
+      if (!type.startsWith(JSON_SCHEMA_PREFIX)) {
+        return type;
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Returns true if the decoder was compiled for an object schema.
+   */
+  public boolean isObject() {
+    return DataSchema.OBJECT.equals(datatype);
+  }
+
+  /**
+   * Decodes a payload.
+   *
+   * @param payload The JSON payload.
+   * @param tags For object schemas, receives the tag of each decoded value.
+   * @return A single-element array for primitive schemas, the values of the properties for object
+   * schemas (in the order of the payload), or the items for array schemas (nested arrays are
+   * decoded as nested Object arrays).
+   * @throws IOException if the payload does not match the schema.
+   */
+  public Object[] decode(String payload, List<String> tags) throws IOException {
+    try (JsonReader reader = new JsonReader(new StringReader(payload))) {
+      reader.setLenient(true);
+
+      switch (datatype) {
+        case DataSchema.BOOLEAN:
+          return new Boolean[] { reader.nextBoolean() };
+        case DataSchema.STRING:
+          return new String[] { reader.nextString() };
+        case DataSchema.INTEGER:
+          return new Integer[] { (int) reader.nextLong() };
+        case DataSchema.NUMBER:
+          return new Double[] { reader.nextDouble() };
+        case DataSchema.OBJECT:
+          return decodeObject(reader, tags);
+        case DataSchema.ARRAY:
+          return decodeArray(reader);
+        default:
+          return new Object[] { readValue(reader) };
+      }
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException("The payload does not match the " + datatype + " schema: "
+          + e.getMessage(), e);
+    }
+  }
+
+  private Object[] decodeObject(JsonReader reader, List<String> tags) throws IOException {
+    List<Object> values = new ArrayList<Object>(properties.size());
+    reader.beginObject();
+
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      Property property = properties.get(name);
+
+      if (property == null) {
+        reader.skipValue();
+        continue;
+      }
+
+      tags.add(property.tag);
+
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        values.add(null);
+        continue;
+      }
+
+      switch (property.datatype) {
+        case DataSchema.BOOLEAN:
+          values.add(reader.nextBoolean());
+          break;
+        case DataSchema.INTEGER:
+          values.add((int) reader.nextLong());
+          break;
+        case DataSchema.NUMBER:
+          values.add(reader.nextDouble());
+          break;
+        case DataSchema.STRING:
+          values.add(reader.nextString());
+          break;
+        default:
+          values.add(readValue(reader));
+          break;
+      }
+    }
+
+    reader.endObject();
+    return values.toArray();
+  }
+
+  private static Object[] decodeArray(JsonReader reader) throws IOException {
+    List<Object> items = new ArrayList<Object>();
+    reader.beginArray();
+
+    while (reader.hasNext()) {
+      items.add(readValue(reader));
+    }
+
+    reader.endArray();
+    return items.toArray();
+  }
+
+  /* Reads a value without a schema; nested objects are read as maps */
+  private static Object readValue(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_ARRAY:
+        return decodeArray(reader);
+      case BEGIN_OBJECT:
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          object.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return object;
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NUMBER:
+        return reader.nextDouble();
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        return reader.nextString();
+    }
+  }
+}
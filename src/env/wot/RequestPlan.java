@@ -0,0 +1,250 @@
+package wot;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import ch.unisg.ics.interactions.wot.td.affordances.Form;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+import ch.unisg.ics.interactions.wot.td.schemas.ArraySchema;
+import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+
+/**
+ * A compiled plan for issuing requests to one affordance of a Thing with one payload shape.
+ *
+ * The affordance lookup, the form and schema resolution, and the schema datatype checks are done
+ * once when the plan is compiled. Binding the values of a payload then only builds the request
+ * payload, and the bound requests of the most recently used payloads are kept for reuse, such that
+ * a repeated invocation only sends the request.
+ *
+ * A request is sent by one attempt at a time: bound requests are only sent by synchronous requests,
+ * and the requests that may be in flight together with others (concurrent requests, and the retries
+ * and hedged attempts of a request) are built anew. The bound requests are guarded by the plan, but
+ * plans are otherwise used by the artifact that compiled them only.
+ */
+final class RequestPlan {
+  private static final int MAX_BOUND_REQUESTS = 64;
+
+  /* The payload shapes supported by the ThingArtifact API */
+  enum PayloadKind { NONE, PRIMITIVE, OBJECT, ARRAY }
+
+  private final String affordanceTag;
+  private final String operationType;
+  private final Form form;
+  private final Optional<DataSchema> schema;
+  private final PayloadKind kind;
+  private final String[] tags;
+  private PayloadDecoder decoder;
+  private final ResilientExecutor resilience;
+
+  private final Map<List<Object>, TDHttpRequest> boundRequests =
+      new LinkedHashMap<List<Object>, TDHttpRequest>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, TDHttpRequest> eldest) {
+          return size() > MAX_BOUND_REQUESTS;
+        }
+      };
+
+  private RequestPlan(String affordanceTag, String operationType, Form form,
+      Optional<DataSchema> schema, PayloadKind kind, String[] tags, ResilientExecutor resilience) {
+    this.affordanceTag = affordanceTag;
+    this.operationType = operationType;
+    this.form = form;
+    this.schema = schema;
+    this.kind = kind;
+    this.tags = tags;
+    this.resilience = resilience;
+  }
+
+  /**
+   * Compiles a plan for an affordance.
+   *
+   * @param affordanceTag The tag with which the affordance was looked up (e.g., its semantic type).
+   * @param operationType The operation type (e.g., TD.invokeAction).
+   * @param form The form of the affordance for the operation type.
+   * @param schema The schema of the payload (action input or property data schema).
+   * @param tags The payload tags used with the plan (used for object schema payloads).
+   * @param payloadShape A payload of the shape used with the plan.
+   * @param resilience The executor of the Thing, shared by all its plans.
+   * @throws IllegalArgumentException if the payload shape does not match the schema.
+   */
+  static RequestPlan compile(String affordanceTag, String operationType, Form form,
+      Optional<DataSchema> schema, Object[] tags, Object[] payloadShape,
+      ResilientExecutor resilience) {
+    PayloadKind kind = payloadKind(tags, payloadShape);
+
+    if (kind != PayloadKind.NONE && !schema.isPresent()) {
+      throw new IllegalArgumentException("This type of affordance does not take any input.");
+    }
+
+    if (kind == PayloadKind.OBJECT && !DataSchema.OBJECT.equals(schema.get().getDatatype())
+        || kind == PayloadKind.ARRAY && !DataSchema.ARRAY.equals(schema.get().getDatatype())) {
+      throw new IllegalArgumentException("TD mismatch: illegal arguments, this affordance uses a "
+          + "data schema of type " + schema.get().getDatatype());
+    }
+
+    String[] stringTags = new String[tags.length];
+    for (int i = 0; i < tags.length; i ++) {
+      stringTags[i] = tags[i] instanceof String ? (String) tags[i] : null;
+    }
+
+    return new RequestPlan(affordanceTag, operationType, form, schema, kind, stringTags, resilience);
+  }
+
+  /**
+   * Returns the key of the plan to be used for an affordance and a payload shape.
+   */
+  static String key(String affordanceTag, String operationType, Object[] tags,
+      Object[] payloadShape) {
+    return affordanceTag + ' ' + operationType + ' ' + payloadKind(tags, payloadShape)
+        + Arrays.toString(tags);
+  }
+
+  Optional<DataSchema> getSchema() {
+    return schema;
+  }
+
+  /**
+   * Returns the decoder of the payloads read with this plan, compiled on first use.
+   */
+  PayloadDecoder getDecoder() {
+    if (decoder == null) {
+      decoder = PayloadDecoder.compile(schema.get());
+    }
+    return decoder;
+  }
+
+  /**
+   * Returns a request with the given payload values, reusing the request bound to equal values by
+   * the same agent if there is one. Bound requests must only be sent by synchronous requests (see
+   * {@link #prepare(Object[], String, RequestPreparer)}).
+   *
+   * @param payload The payload values.
+   * @param agentName The name of the operating agent.
+   * @param preparer Prepares new requests (e.g., sets authentication headers).
+   */
+  synchronized TDHttpRequest bind(Object[] payload, String agentName, RequestPreparer preparer) {
+    Object[] key = Arrays.copyOf(payload, payload.length + 1);
+    key[payload.length] = agentName;
+    List<Object> boundKey = Arrays.asList(key);
+
+    TDHttpRequest request = boundRequests.get(boundKey);
+    if (request == null) {
+      request = prepare(payload, agentName, preparer);
+      boundRequests.put(boundKey, request);
+    }
+    return request;
+  }
+
+  /**
+   * Builds and prepares a request with the given payload values, which is not bound, for the
+   * requests that may be in flight together with others.
+   *
+   * @param payload The payload values.
+   * @param agentName The name of the operating agent.
+   * @param preparer Prepares new requests (e.g., sets authentication headers).
+   */
+  TDHttpRequest prepare(Object[] payload, String agentName, RequestPreparer preparer) {
+    return preparer.prepare(newRequest(payload), agentName);
+  }
+
+  /**
+   * Builds a request with the given payload values, without reusing bound requests.
+   */
+  TDHttpRequest newRequest(Object[] payload) {
+    TDHttpRequest request = new TDHttpRequest(form, operationType);
+
+    switch (kind) {
+      case PRIMITIVE:
+        setPrimitivePayload(request, schema.get(), payload[0]);
+        break;
+      case OBJECT:
+        Map<String, Object> requestPayload = new HashMap<String, Object>();
+        for (int i = 0; i < tags.length; i ++) {
+          if (tags[i] != null) {
+            requestPayload.put(tags[i], payload[i]);
+          }
+        }
+        request.setObjectPayload((ObjectSchema) schema.get(), requestPayload);
+        break;
+      case ARRAY:
+        request.setArrayPayload((ArraySchema) schema.get(), Arrays.asList(payload));
+        break;
+      default:
+        break;
+    }
+    return request;
+  }
+
+  /**
+   * Executes a request built with this plan, within a {@link WotRequestEvent} per attempt, through
+   * the {@link ResilientExecutor} of the Thing: property reads are retried and hedged, other
+   * operations only have a deadline. The first attempt sends the given request, and the further
+   * attempts, which may be in flight together with it, send new requests.
+   *
+   * @param request The request.
+   * @param newRequests Builds the requests of the further attempts, with the same values.
+   */
+  TDHttpResponse execute(TDHttpRequest request, Supplier<TDHttpRequest> newRequests)
+      throws IOException {
+    AtomicBoolean sent = new AtomicBoolean();
+    ResilientExecutor.Call call = () -> WotRequestEvent.execute(
+        sent.compareAndSet(false, true) ? request : newRequests.get(), affordanceTag, operationType,
+        form.getTarget());
+    return TD.readProperty.equals(operationType) ? resilience.read(call) : resilience.invoke(call);
+  }
+
+  /**
+   * Forgets the bound requests (e.g., after the credentials used by the artifact changed).
+   */
+  synchronized void clearBoundRequests() {
+    boundRequests.clear();
+  }
+
+  private static PayloadKind payloadKind(Object[] tags, Object[] payload) {
+    if (payload.length == 0) {
+      return PayloadKind.NONE;
+    } else if (tags.length > 0) {
+      return PayloadKind.OBJECT;
+    } else if (payload.length == 1 && !(payload[0] instanceof Object[])) {
+      return PayloadKind.PRIMITIVE;
+    }
+    return PayloadKind.ARRAY;
+  }
+
+  /* Set a primitive payload. */
+  private static void setPrimitivePayload(TDHttpRequest request, DataSchema schema, Object payload) {
+    if (payload instanceof Boolean) {
+      // Matches to TD BooleanSchema
+      request.setPrimitivePayload(schema, (boolean) payload);
+    } else if (payload instanceof Byte || payload instanceof Integer || payload instanceof Long) {
+      // Matches to TD IntegerSchema
+      request.setPrimitivePayload(schema, Long.valueOf(String.valueOf(payload)));
+    } else if (payload instanceof Float || payload instanceof Double) {
+      // Matches to TD NumberSchema
+      request.setPrimitivePayload(schema, Double.valueOf(String.valueOf(payload)));
+    } else if (payload instanceof String) {
+      // Matches to TD StringSchema
+      request.setPrimitivePayload(schema, (String) payload);
+    } else {
+      throw new IllegalArgumentException("Unable to detect the primitive datatype of payload: "
+          + payload.getClass().getCanonicalName());
+    }
+  }
+
+  /* Prepares new requests before they are bound */
+  interface RequestPreparer {
+    TDHttpRequest prepare(TDHttpRequest request, String agentName);
+  }
+}
@@ -0,0 +1,387 @@
+package wot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+
+/**
+ * Bounds the time spent on the requests issued to a Thing, e.g., a lab, such that a hung or failing
+ * Thing cannot stall its clients.
+ *
+ * Each operation has a deadline, which includes its retries: the attempt in flight when the
+ * deadline passes is cancelled, and the operation fails. Reads are idempotent, so failed reads
+ * (I/O errors, timeouts, 5xx and 429 responses) are retried a bounded number of times, after a
+ * backoff with full jitter. Optionally, a read that has not completed within the 95th percentile
+ * of the latencies of the recent successful requests is hedged: a second request is issued, and the
+ * first response wins. Actions are not retried nor hedged, since they may not be idempotent.
+ *
+ * A circuit breaker counts the consecutive failures of the requests to the Thing. Once they reach
+ * a threshold, the circuit opens and requests fail fast with a {@link CircuitOpenException}; after
+ * the open period, a single trial request is let through, which closes the circuit if it succeeds
+ * and opens it again otherwise.
+ *
+ * Executors are shared by all the clients of the same Thing in a JVM, e.g., a Lab and the
+ * ThingArtifacts of the same lab, and are thread-safe. A Thing is identified by the URL of its TD,
+ * not by the host of its forms, since Things may share a host (e.g., several labs behind one
+ * gateway), and their TDs may be hosted elsewhere.
+ *
+ * The attempts to each Thing run on a pool of their own, apart from the pool of the
+ * {@link AsyncRequestExecutor}, such that the requests waiting for their attempts cannot starve
+ * them. A cancelled attempt is interrupted, but the TD client sets no socket timeout, so a blocking
+ * HTTP read may hold its thread until the Thing responds. On JVMs without virtual threads, the pool
+ * of a Thing is therefore bounded to {@value #MAX_ATTEMPT_THREADS} platform threads: the attempts
+ * to a hung Thing queue behind its blocked ones and fail at their deadline, which opens its
+ * circuit, while the attempts to the other Things keep their threads.
+ */
+public final class ResilientExecutor {
+  /* The maximum number of platform threads of the attempts to a Thing, without virtual threads */
+  static final int MAX_ATTEMPT_THREADS = 16;
+
+  private static final Map<String, ResilientExecutor> EXECUTORS = new HashMap<String, ResilientExecutor>();
+
+  /* The number of recent latencies from which the hedging delay is computed */
+  private static final int LATENCY_SAMPLES = 128;
+
+  /* The number of latencies below which reads are not hedged */
+  private static final int MIN_HEDGING_SAMPLES = 20;
+
+  /**
+   * A request to execute.
+   */
+  public interface Call {
+    TDHttpResponse call() throws IOException;
+  }
+
+  /**
+   * The states of the circuit breaker.
+   */
+  public enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+  private final String thing;
+
+  /* Runs the attempts to the Thing, including the hedged ones */
+  private final ExecutorService attempts;
+
+  private volatile long deadlineMillis = 10000;
+  private volatile int maxRetries = 2;
+  private volatile long baseBackoffMillis = 100;
+  private volatile long maxBackoffMillis = 2000;
+  private volatile boolean hedging;
+  private volatile int failureThreshold = 5;
+  private volatile long openMillis = 30000;
+
+  /* The circuit breaker, guarded by this */
+  private CircuitState state = CircuitState.CLOSED;
+  private int consecutiveFailures;
+  private long openedNanos;
+  private boolean trialInFlight;
+
+  /* A ring buffer of the latencies of recent successful requests in nanoseconds, guarded by itself */
+  private final long[] latencies = new long[LATENCY_SAMPLES];
+  private int latencyCount;
+
+  private ResilientExecutor(String thing) {
+    this.thing = thing;
+    this.attempts = AsyncRequestExecutor.newExecutor("thing-request-attempt " + thing,
+        MAX_ATTEMPT_THREADS);
+  }
+
+  /**
+   * Returns the executor of a Thing, creating it with the default settings if needed: a deadline of
+   * 10 s, 2 retries with a backoff from 100 ms up to 2 s, no hedging, and a circuit that opens for
+   * 30 s after 5 consecutive failures.
+   *
+   * @param tdUrl The URL of the TD of the Thing.
+   */
+  public static ResilientExecutor forThing(String tdUrl) {
+    synchronized (EXECUTORS) {
+      ResilientExecutor executor = EXECUTORS.get(tdUrl);
+      if (executor == null) {
+        executor = new ResilientExecutor(tdUrl);
+        EXECUTORS.put(tdUrl, executor);
+      }
+      return executor;
+    }
+  }
+
+  /**
+   * Returns the URL of the TD of the Thing of this executor.
+   */
+  public String getThing() {
+    return thing;
+  }
+
+  /**
+   * Sets the deadline of each operation in milliseconds, including its retries.
+   */
+  public void setDeadlineMillis(long deadlineMillis) {
+    if (deadlineMillis < 1) {
+      throw new IllegalArgumentException("The deadline must be positive: " + deadlineMillis);
+    }
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /**
+   * Sets the number of times a failed read is retried (0 for no retries).
+   */
+  public void setMaxRetries(int maxRetries) {
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException("The number of retries cannot be negative: " + maxRetries);
+    }
+    this.maxRetries = maxRetries;
+  }
+
+  /**
+   * Sets the backoff before retries: the n-th retry waits for a random time up to
+   * min(maxMillis, baseMillis * 2^(n-1)).
+   */
+  public void setBackoffMillis(long baseMillis, long maxMillis) {
+    if (baseMillis < 0 || maxMillis < baseMillis) {
+      throw new IllegalArgumentException("Invalid backoff: " + baseMillis + " to " + maxMillis + " ms");
+    }
+    this.baseBackoffMillis = baseMillis;
+    this.maxBackoffMillis = maxMillis;
+  }
+
+  /**
+   * Sets whether reads are hedged once they take longer than the 95th percentile of the recent
+   * latencies.
+   */
+  public void setHedging(boolean hedging) {
+    this.hedging = hedging;
+  }
+
+  /**
+   * Sets the number of consecutive failures after which the circuit opens, and the time it stays
+   * open in milliseconds.
+   */
+  public void setCircuitBreaker(int failureThreshold, long openMillis) {
+    if (failureThreshold < 1 || openMillis < 0) {
+      throw new IllegalArgumentException("Invalid circuit breaker: " + failureThreshold
+          + " failures, open for " + openMillis + " ms");
+    }
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Returns the state of the circuit breaker.
+   */
+  public synchronized CircuitState getCircuitState() {
+    if (state == CircuitState.OPEN && System.nanoTime() - openedNanos >= millisToNanos(openMillis)) {
+      return CircuitState.HALF_OPEN;
+    }
+    return state;
+  }
+
+  /**
+   * Executes an idempotent read, with retries and, if enabled, hedging.
+   *
+   * @param call The read.
+   * @return The response; a response with an error status is returned once the retries are
+   * exhausted.
+   * @throws CircuitOpenException if the circuit is open.
+   * @throws IOException if the read failed without a response or did not complete in time.
+   */
+  public TDHttpResponse read(Call call) throws IOException {
+    long deadline = System.nanoTime() + millisToNanos(deadlineMillis);
+    TDHttpResponse response = null;
+    IOException failure = null;
+
+    for (int attempt = 0; ; attempt ++) {
+      response = null;
+      failure = null;
+
+      boolean trial = acquire();
+      try {
+        response = attempt(call, deadline, hedging);
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        release(trial, response != null && !isFailure(response.getStatusCode()));
+      }
+
+      if (failure == null && !isFailure(response.getStatusCode()) || attempt >= maxRetries) {
+        break;
+      }
+
+      long backoff = ThreadLocalRandom.current().nextLong(
+          Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 30)) + 1);
+      if (System.nanoTime() + millisToNanos(backoff) >= deadline) {
+        break;
+      }
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    return response;
+  }
+
+  /**
+   * Executes a request that may not be idempotent (e.g., an action) within the deadline, without
+   * retries nor hedging.
+   *
+   * @param call The request.
+   * @return The response.
+   * @throws CircuitOpenException if the circuit is open.
+   * @throws IOException if the request failed without a response or did not complete in time.
+   */
+  public TDHttpResponse invoke(Call call) throws IOException {
+    long deadline = System.nanoTime() + millisToNanos(deadlineMillis);
+    TDHttpResponse response = null;
+
+    boolean trial = acquire();
+    try {
+      response = attempt(call, deadline, false);
+      return response;
+    } finally {
+      release(trial, response != null && !isFailure(response.getStatusCode()));
+    }
+  }
+
+  /* Executes a request, and a hedged request if enabled, until the first response or the deadline */
+  private TDHttpResponse attempt(Call call, long deadline, boolean hedge) throws IOException {
+    CompletionService<TDHttpResponse> completion =
+        new ExecutorCompletionService<TDHttpResponse>(attempts);
+    List<Future<TDHttpResponse>> futures = new ArrayList<Future<TDHttpResponse>>(2);
+    long hedgeNanos = hedge ? getHedgingDelayNanos() : -1;
+    long start = System.nanoTime();
+    IOException failure = null;
+    int pending = 1;
+
+    futures.add(completion.submit(() -> timed(call)));
+    try {
+      while (pending > 0) {
+        long now = System.nanoTime();
+        if (now >= deadline) {
+          throw new IOException("The request to " + thing + " did not complete within "
+              + deadlineMillis + " ms.");
+        }
+
+        boolean canHedge = hedgeNanos >= 0 && futures.size() == 1;
+        long wait = canHedge ? Math.min(deadline, start + hedgeNanos) - now : deadline - now;
+        Future<TDHttpResponse> done = completion.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+
+        if (done == null) {
+          if (canHedge && System.nanoTime() - start >= hedgeNanos) {
+            futures.add(completion.submit(() -> timed(call)));
+            pending ++;
+          }
+          continue;
+        }
+
+        pending --;
+        try {
+          return done.get();
+        } catch (ExecutionException e) {
+          // wait for the hedged request, if any
+          failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+              : new IOException(e.getCause());
+        }
+      }
+      throw failure;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the response.", e);
+    } finally {
+      for (Future<TDHttpResponse> future : futures) {
+        future.cancel(true);
+      }
+      if (attempts instanceof ThreadPoolExecutor) {
+        // drop the cancelled attempts still queued behind blocked ones
+        ((ThreadPoolExecutor) attempts).purge();
+      }
+    }
+  }
+
+  /* Executes a request, and records its latency if it succeeded */
+  private TDHttpResponse timed(Call call) throws IOException {
+    long start = System.nanoTime();
+    TDHttpResponse response = call.call();
+
+    if (!isFailure(response.getStatusCode())) {
+      synchronized (latencies) {
+        latencies[latencyCount ++ % LATENCY_SAMPLES] = System.nanoTime() - start;
+      }
+    }
+    return response;
+  }
+
+  /* Returns the 95th percentile of the recent latencies, or -1 if there are too few of them */
+  private long getHedgingDelayNanos() {
+    long[] samples;
+    synchronized (latencies) {
+      if (latencyCount < MIN_HEDGING_SAMPLES) {
+        return -1;
+      }
+      samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+    }
+    Arrays.sort(samples);
+    return samples[(int) Math.ceil(0.95 * samples.length) - 1];
+  }
+
+  /* Lets a request through the circuit breaker, or fails fast; returns whether it is the trial */
+  private synchronized boolean acquire() throws CircuitOpenException {
+    if (state == CircuitState.OPEN) {
+      if (System.nanoTime() - openedNanos < millisToNanos(openMillis)) {
+        throw new CircuitOpenException("The circuit to " + thing + " is open after "
+            + consecutiveFailures + " consecutive failures.");
+      }
+      state = CircuitState.HALF_OPEN;
+    }
+
+    if (state == CircuitState.HALF_OPEN) {
+      if (trialInFlight) {
+        throw new CircuitOpenException("The circuit to " + thing + " is half-open, and its trial "
+            + "request is in flight.");
+      }
+      trialInFlight = true;
+      return true;
+    }
+    return false;
+  }
+
+  /* Records the outcome of a request let through the circuit breaker */
+  private synchronized void release(boolean trial, boolean succeeded) {
+    if (trial) {
+      trialInFlight = false;
+    }
+
+    if (succeeded) {
+      consecutiveFailures = 0;
+      state = CircuitState.CLOSED;
+    } else if (++ consecutiveFailures >= failureThreshold || trial) {
+      state = CircuitState.OPEN;
+      openedNanos = System.nanoTime();
+    }
+  }
+
+  /* Server errors and rate limiting count as failures, client errors do not */
+  private static boolean isFailure(int statusCode) {
+    return statusCode >= 500 || statusCode == 429;
+  }
+
+  private static long millisToNanos(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
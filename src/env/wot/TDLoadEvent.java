@@ -0,0 +1,66 @@
+package wot;
+
+import java.io.IOException;
+
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
+import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for retrieving and parsing a W3C WoT Thing Description (TD), by a
+ * ThingArtifact or a Lab.
+ */
+@Name("was.TDLoad")
+@Label("TD Load")
+@Category({ "WAS", "WoT" })
+@Description("A Thing Description retrieved and parsed from a URL")
+@StackTrace(false)
+public final class TDLoadEvent extends Event {
+
+  @Label("URL")
+  public String url;
+
+  @Label("Properties")
+  public int properties;
+
+  @Label("Actions")
+  public int actions;
+
+  @Label("Error")
+  public String error;
+
+  /**
+   * Retrieves and parses a TD in Turtle within an event.
+   *
+   * @param url A URL that dereferences to a W3C WoT Thing Description.
+   */
+  public static ThingDescription read(String url) throws IOException {
+    TDLoadEvent event = new TDLoadEvent();
+    event.begin();
+
+    try {
+      ThingDescription td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+
+      if (event.shouldCommit()) {
+        event.url = url;
+        event.properties = td.getProperties().size();
+        event.actions = td.getActions().size();
+        event.commit();
+      }
+      return td;
+    } catch (IOException | RuntimeException e) {
+      if (event.shouldCommit()) {
+        event.url = url;
+        event.error = String.valueOf(e.getMessage());
+        event.commit();
+      }
+      throw e;
+    }
+  }
+}
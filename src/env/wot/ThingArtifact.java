@@ -3,11 +3,11 @@ package wot;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import org.apache.hc.client5.http.fluent.Request;
 import org.apache.hc.core5.http.Header;
@@ -16,16 +16,12 @@ import cartago.Artifact;
 import cartago.OPERATION;
 import cartago.OpFeedbackParam;
 import ch.unisg.ics.interactions.wot.td.ThingDescription;
-import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
 import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
 import ch.unisg.ics.interactions.wot.td.affordances.Form;
 import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
 import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
-import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
-import ch.unisg.ics.interactions.wot.td.schemas.ArraySchema;
 import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
-import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
 import ch.unisg.ics.interactions.wot.td.security.APIKeySecurityScheme;
 import ch.unisg.ics.interactions.wot.td.security.SecurityScheme;
 import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
@@ -48,6 +44,22 @@ public class ThingArtifact extends Artifact {
   protected boolean dryRun;
   private Optional<String> apiKey;
 
+  /* Executes the requests outside of the artifact when the artifact is asynchronous */
+  private final AsyncRequestExecutor asyncExecutor = new AsyncRequestExecutor(4, 0);
+  private boolean async;
+
+  /* Bounds the time spent on the requests to the Thing, shared by its plans (see ResilientExecutor) */
+  private ResilientExecutor resilience;
+
+  /* The last confirmed values of the writable affordances, if the cache is enabled */
+  private DeviceStateCache stateCache;
+
+  /* The trace in which the reads and the invocations are recorded, if any */
+  private TraceWriter trace;
+
+  /* Compiled request plans, keyed by affordance tag, operation type and payload shape */
+  private final Map<String, RequestPlan> plans = new HashMap<String, RequestPlan>();
+
   private static Map<Integer, List> displacements  = new HashMap();
 
   static {
@@ -65,7 +77,8 @@ public class ThingArtifact extends Artifact {
    */
   public void init(String url) {
     try {
-      td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+      td = TDLoadEvent.read(url);
+      resilience = ResilientExecutor.forThing(url);
 
       for (SecurityScheme scheme : td.getSecuritySchemes()) {
         defineObsProperty("securityScheme", scheme.getSchemeType());
@@ -143,9 +156,14 @@ public class ThingArtifact extends Artifact {
       failed("The payload used when writing a property cannot be empty.");
     }
 
-    PropertyAffordance property = getPropertyOrFail(propertyTag);
-    Optional<TDHttpResponse> response = executePropertyRequest(property, TD.writeProperty,
-        payloadTags, payload);
+    RequestPlan plan = getPropertyPlan(propertyTag, TD.writeProperty, payloadTags, payload);
+    if (skipInvocation(propertyTag, TD.writeProperty, payloadTags, payload)) {
+      return;
+    }
+
+    Optional<TDHttpResponse> response = executePlan(plan, payload);
+    recordInvoke(propertyTag, payloadTags, payload, response);
+    confirmInvocation(propertyTag, TD.writeProperty, payloadTags, payload, response);
 
     if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
       failed("Status code: " + response.get().getStatusCode());
@@ -179,34 +197,168 @@ public class ThingArtifact extends Artifact {
   public void invokeAction(String actionTag, Object[] payloadTags, Object[] payload) {
     validateParameters(actionTag, payloadTags, payload);
 
-    Optional<ActionAffordance> action = td.getFirstActionBySemanticType(actionTag);
+    RequestPlan plan = getActionPlan(actionTag, payloadTags, payload);
+    if (skipInvocation(actionTag, TD.invokeAction, payloadTags, payload)) {
+      return;
+    }
 
-    if (!action.isPresent()) {
-      action = td.getActionByName(actionTag);
+    Optional<TDHttpResponse> response = executePlan(plan, payload);
+    recordInvoke(actionTag, payloadTags, payload, response);
+    confirmInvocation(actionTag, TD.invokeAction, payloadTags, payload, response);
+
+    if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
+      failed("Status code: " + response.get().getStatusCode());
     }
+  }
 
-    if (action.isPresent()) {
-      Optional<Form> form = action.get().getFirstForm();
+  /**
+   * CArtAgO operation for reading several properties of a Thing at once. The requests are issued
+   * concurrently, such that the operation takes about as long as the slowest request.
+   *
+   * @param propertyTags A list of property tags (IRIs that identify property types, or names).
+   * @param outputs The read values, in the order of the property tags. The values of an object
+   * property are listed in the order of the payload. The value of a failed read is an empty list.
+   * @param errors The error of each read, in the order of the property tags (an empty string if the
+   * read succeeded).
+   */
+  @OPERATION
+  public void readProperties(Object[] propertyTags, OpFeedbackParam<Object[]> outputs,
+      OpFeedbackParam<Object[]> errors) {
+    RequestPlan[] readPlans = new RequestPlan[propertyTags.length];
+    TDHttpRequest[] requests = new TDHttpRequest[propertyTags.length];
+    List<Supplier<TDHttpRequest>> newRequests = new ArrayList<Supplier<TDHttpRequest>>();
+    invalidateStateCache();
+
+    for (int i = 0; i < propertyTags.length; i ++) {
+      readPlans[i] = getPropertyPlan(String.valueOf(propertyTags[i]), TD.readProperty,
+          new Object[0], new Object[0]);
+      newRequests.add(newRequests(readPlans[i], new Object[0]));
+      requests[i] = newRequest(newRequests.get(i));
+    }
 
-      if (!form.isPresent()) {
-        // Should not happen (an exception will be raised by the TD library first)
-        failed("Invalid TD: the invoked action does not have a valid form.");
+    AsyncRequestExecutor.Command command = issueRequests(readPlans, requests, newRequests);
+    Object[] values = new Object[requests.length];
+    Object[] messages = new Object[requests.length];
+
+    for (int i = 0; i < requests.length; i ++) {
+      values[i] = new Object[0];
+      messages[i] = "";
+
+      if (command == null) {
+        continue;
       }
 
-      Optional<DataSchema> inputSchema = action.get().getInputSchema();
-      if (!inputSchema.isPresent() && payload.length > 0) {
-        failed("This type of action does not take any input: " + actionTag);
+      try {
+        TDHttpResponse response = command.getResponse(i);
+        Optional<String> payload = response.getPayload();
+        recordRead(String.valueOf(propertyTags[i]), Optional.of(response));
+
+        if (!requestSucceeded(response.getStatusCode())) {
+          messages[i] = "Status code: " + response.getStatusCode();
+        } else if (!payload.isPresent()) {
+          messages[i] = "The read property response does not have a payload.";
+        } else {
+          values[i] = readPlans[i].getDecoder().decode(payload.get(), new ArrayList<String>());
+        }
+      } catch (IOException e) {
+        messages[i] = String.valueOf(e.getMessage());
+      }
+    }
+
+    outputs.set(values);
+    errors.set(messages);
+  }
+
+  /**
+   * CArtAgO operation for invoking several actions on a Thing at once. The requests are issued
+   * concurrently, such that the operation takes about as long as the slowest request.
+   *
+   * @param actionTags A list of action tags (IRIs that identify action types, or names).
+   * @param payloads The payload of each action, in the order of the action tags.
+   * @param errors The error of each invocation, in the order of the action tags (an empty string
+   * if the invocation succeeded).
+   */
+  @OPERATION
+  public void invokeActions(Object[] actionTags, Object[] payloads,
+      OpFeedbackParam<Object[]> errors) {
+    Object[] payloadTags = new Object[actionTags.length];
+    Arrays.fill(payloadTags, new Object[0]);
+    invokeActions(actionTags, payloadTags, payloads, errors);
+  }
+
+  /**
+   * CArtAgO operation for invoking several actions on a Thing at once. The requests are issued
+   * concurrently, such that the operation takes about as long as the slowest request.
+   *
+   * @param actionTags A list of action tags (IRIs that identify action types, or names).
+   * @param payloadTags The payload tags of each action, in the order of the action tags (used for
+   * object schema payloads).
+   * @param payloads The payload of each action, in the order of the action tags.
+   * @param errors The error of each invocation, in the order of the action tags (an empty string
+   * if the invocation succeeded).
+   */
+  @OPERATION
+  public void invokeActions(Object[] actionTags, Object[] payloadTags, Object[] payloads,
+      OpFeedbackParam<Object[]> errors) {
+    if (payloadTags.length != actionTags.length || payloads.length != actionTags.length) {
+      failed("Illegal arguments: the lists of actions, tags and payloads should have equal length.");
+    }
+
+    // The actions that are not skipped, in the order of the action tags
+    List<RequestPlan> actionPlans = new ArrayList<RequestPlan>();
+    List<TDHttpRequest> requests = new ArrayList<TDHttpRequest>();
+    List<Supplier<TDHttpRequest>> newRequests = new ArrayList<Supplier<TDHttpRequest>>();
+    int[] requestIndexes = new int[actionTags.length];
+    Object[][] actionPayloadTags = new Object[actionTags.length][];
+    Object[][] actionPayloads = new Object[actionTags.length][];
+
+    for (int i = 0; i < actionTags.length; i ++) {
+      String actionTag = String.valueOf(actionTags[i]);
+      Object[] tags = asArray(payloadTags[i]);
+      Object[] payload = asArray(payloads[i]);
+
+      validateParameters(actionTag, tags, payload);
+      RequestPlan plan = getActionPlan(actionTag, tags, payload);
+      actionPayloadTags[i] = tags;
+      actionPayloads[i] = payload;
+      requestIndexes[i] = -1;
+
+      if (!skipInvocation(actionTag, TD.invokeAction, tags, payload)) {
+        requestIndexes[i] = requests.size();
+        actionPlans.add(plan);
+        newRequests.add(newRequests(plan, payload));
+        requests.add(newRequest(newRequests.get(requestIndexes[i])));
       }
+    }
 
-      Optional<TDHttpResponse> response = executeRequest(TD.invokeAction, form.get(), inputSchema,
-          payloadTags, payload);
+    AsyncRequestExecutor.Command command = requests.isEmpty() ? null
+        : issueRequests(actionPlans.toArray(new RequestPlan[0]),
+            requests.toArray(new TDHttpRequest[0]), newRequests);
+    Object[] messages = new Object[actionTags.length];
 
-      if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
-        failed("Status code: " + response.get().getStatusCode());
+    for (int i = 0; i < actionTags.length; i ++) {
+      messages[i] = "";
+
+      if (command == null || requestIndexes[i] < 0) {
+        continue;
+      }
+
+      try {
+        TDHttpResponse response = command.getResponse(requestIndexes[i]);
+        recordInvoke(String.valueOf(actionTags[i]), actionPayloadTags[i], actionPayloads[i],
+            Optional.of(response));
+        confirmInvocation(String.valueOf(actionTags[i]), TD.invokeAction, actionPayloadTags[i],
+            actionPayloads[i], Optional.of(response));
+
+        if (!requestSucceeded(response.getStatusCode())) {
+          messages[i] = "Status code: " + response.getStatusCode();
+        }
+      } catch (IOException e) {
+        messages[i] = String.valueOf(e.getMessage());
       }
-    } else {
-      failed("Unknown action: " + actionTag);
     }
+
+    errors.set(messages);
   }
 
   /**
@@ -218,55 +370,171 @@ public class ThingArtifact extends Artifact {
   public void setAPIKey(String token) {
     if (token != null && !token.isEmpty()) {
       this.apiKey = Optional.of(token);
+
+      // Requests bound with the previous token are not reused
+      for (RequestPlan plan : plans.values()) {
+        plan.clearBoundRequests();
+      }
+    }
+  }
+
+  /**
+   * CArtAgO operation that enables or disables asynchronous requests. When enabled, the artifact is
+   * released while a request is in flight, such that a slow Thing does not stall the other agents
+   * that use the artifact. Requests are synchronous by default.
+   *
+   * @param async True for asynchronous requests.
+   */
+  @OPERATION
+  public void setAsync(boolean async) {
+    this.async = async;
+  }
+
+  /**
+   * CArtAgO operation that sets the maximum number of asynchronous requests in flight for this
+   * artifact (4 by default). Further requests wait until a request completes.
+   *
+   * @param maxOutstandingRequests The maximum number of requests in flight.
+   */
+  @OPERATION
+  public void setMaxOutstandingRequests(int maxOutstandingRequests) {
+    try {
+      asyncExecutor.setMaxOutstandingRequests(maxOutstandingRequests);
+    } catch (IllegalArgumentException e) {
+      failed(e.getMessage());
     }
   }
 
-  /* Set a primitive payload. */
-  TDHttpRequest setPrimitivePayload(TDHttpRequest request, DataSchema schema, Object payload) {
+  /**
+   * CArtAgO operation that sets the timeout of asynchronous requests, including the time spent
+   * waiting for other requests in flight. Operations fail when their request times out.
+   *
+   * @param timeoutMillis The timeout in milliseconds (0 for no timeout, the default).
+   */
+  @OPERATION
+  public void setRequestTimeout(int timeoutMillis) {
     try {
-      if (payload instanceof Boolean) {
-        // Matches to TD BooleanSchema
-        request.setPrimitivePayload(schema, (boolean) payload);
-      } else if (payload instanceof Byte || payload instanceof Integer || payload instanceof Long) {
-        // Matches to TD IntegerSchema
-        request.setPrimitivePayload(schema, Long.valueOf(String.valueOf(payload)));
-      } else if (payload instanceof Float || payload instanceof Double) {
-        // Matches to TD NumberSchema
-        request.setPrimitivePayload(schema, Double.valueOf(String.valueOf(payload)));
-      } else if (payload instanceof String) {
-        // Matches to TD StringSchema
-        request.setPrimitivePayload(schema, (String) payload);
-      } else {
-        failed("Unable to detect the primitive datatype of payload: "
-            + payload.getClass().getCanonicalName());
-      }
+      asyncExecutor.setTimeoutMillis(timeoutMillis);
     } catch (IllegalArgumentException e) {
       failed(e.getMessage());
     }
+  }
 
-    return request;
+  /**
+   * CArtAgO operation that configures how the requests to the Thing are bounded in time (see
+   * {@link ResilientExecutor}). The settings are shared by all the artifacts and labs that issue
+   * requests to the Thing of the TD of this artifact.
+   *
+   * @param deadlineMillis The deadline of each operation in milliseconds, including its retries.
+   * @param maxRetries The number of times a failed property read is retried.
+   * @param hedging True for issuing a second read once a read is slower than 95% of the recent ones.
+   */
+  @OPERATION
+  public void setResilience(int deadlineMillis, int maxRetries, boolean hedging) {
+    try {
+      resilience.setDeadlineMillis(deadlineMillis);
+      resilience.setMaxRetries(maxRetries);
+      resilience.setHedging(hedging);
+    } catch (IllegalArgumentException e) {
+      failed(e.getMessage());
+    }
   }
 
-  /* Set a TD ObjectSchema payload */
-  TDHttpRequest setObjectPayload(TDHttpRequest request, DataSchema schema, Object[] tags,
-      Object[] payload) {
-    Map<String, Object> requestPayload = new HashMap<String, Object>();
+  /**
+   * CArtAgO operation that configures the circuit breaker of the requests to the Thing (see
+   * {@link ResilientExecutor}): after a number of consecutive failures, requests fail fast for a
+   * while. The state of the breaker is exposed to the agent through the feedback parameter.
+   *
+   * @param failureThreshold The number of consecutive failures that open the circuit.
+   * @param openMillis The time in milliseconds during which the circuit stays open.
+   * @param circuitState The current state of the circuit (CLOSED, OPEN or HALF_OPEN).
+   */
+  @OPERATION
+  public void setCircuitBreaker(int failureThreshold, int openMillis,
+      OpFeedbackParam<String> circuitState) {
+    try {
+      resilience.setCircuitBreaker(failureThreshold, openMillis);
+    } catch (IllegalArgumentException e) {
+      failed(e.getMessage());
+    }
+    circuitState.set(resilience.getCircuitState().name());
+  }
 
-    for (int i = 0; i < tags.length; i ++) {
-      if (tags[i] instanceof String) {
-        requestPayload.put((String) tags[i], payload[i]);
-      }
+  /**
+   * CArtAgO operation that enables or disables the device state cache of this artifact. When the
+   * cache is enabled, the artifact remembers the last confirmed value of each writable affordance,
+   * i.e., the payload of the last successful property write or action invocation, and skips the
+   * invocations that would set the same value again (e.g., switching on a light that is already
+   * on). Skipped invocations succeed without issuing a request. The cache is disabled by default.
+   *
+   * @param enabled True for enabling the cache.
+   */
+  @OPERATION
+  public void setStateCache(boolean enabled) {
+    if (!enabled) {
+      stateCache = null;
+    } else if (stateCache == null) {
+      stateCache = new DeviceStateCache();
     }
+  }
 
-    request.setObjectPayload((ObjectSchema) schema, requestPayload);
+  /**
+   * CArtAgO operation that forgets the confirmed values of the device state cache, e.g., when the
+   * Thing notifies a change of its state through WebSub, or when other clients may have changed it.
+   * Property reads of this artifact also invalidate the cache.
+   */
+  @OPERATION
+  public void invalidateStateCache() {
+    if (stateCache != null) {
+      stateCache.invalidate();
+    }
+  }
 
-    return request;
+  /**
+   * CArtAgO operation that returns the number of invocations skipped by the device state cache.
+   *
+   * @param count The number of skipped invocations (0 if the cache is disabled).
+   */
+  @OPERATION
+  public void getSkippedInvocations(OpFeedbackParam<Long> count) {
+    count.set(stateCache == null ? 0 : stateCache.getSkippedCount());
   }
 
-  /* Set a TD ArraySchema payload */
-  TDHttpRequest setArrayPayload(TDHttpRequest request, DataSchema schema, Object[] payload) {
-    request.setArrayPayload((ArraySchema) schema, Arrays.asList(payload));
-    return request;
+  /**
+   * CArtAgO operation that starts recording the property reads and the action invocations of this
+   * artifact in a trace file (see {@link TraceWriter}). The records are appended to the file if it
+   * exists. Requests that fail without a response and dry runs are not recorded.
+   *
+   * @param path The path of the trace file.
+   */
+  @OPERATION
+  public void startTrace(String path) {
+    stopTrace();
+    try {
+      trace = TraceWriter.open(path);
+    } catch (IOException e) {
+      failed("Unable to open the trace: " + e.getMessage());
+    }
+  }
+
+  /**
+   * CArtAgO operation that stops recording the trace of this artifact, if any.
+   */
+  @OPERATION
+  public void stopTrace() {
+    if (trace != null) {
+      try {
+        trace.close();
+      } catch (IOException e) {
+        log("Unable to close the trace: " + e.getMessage());
+      }
+      trace = null;
+    }
+  }
+
+  @Override
+  protected void dispose() {
+    stopTrace();
   }
 
   /*@LINK
@@ -317,6 +585,55 @@ public class ThingArtifact extends Artifact {
     }
   }
 
+  private void recordRead(String propertyTag, Optional<TDHttpResponse> response) {
+    if (trace != null && response.isPresent()) {
+      try {
+        trace.recordRead(propertyTag, response.get().getStatusCode(),
+            response.get().getPayload().orElse(""));
+      } catch (IOException e) {
+        log("Unable to record the read: " + e.getMessage());
+      }
+    }
+  }
+
+  private void recordInvoke(String affordanceTag, Object[] tags, Object[] payload,
+      Optional<TDHttpResponse> response) {
+    if (trace != null && response.isPresent()) {
+      try {
+        trace.recordInvoke(affordanceTag, TraceWriter.describePayload(tags, payload),
+            response.get().getStatusCode());
+      } catch (IOException e) {
+        log("Unable to record the invocation: " + e.getMessage());
+      }
+    }
+  }
+
+  /* Returns true if an invocation would set the last confirmed value of its affordance. Otherwise,
+   * the value of the affordance is unknown until the invocation is confirmed. */
+  private boolean skipInvocation(String affordanceTag, String operationType, Object[] tags,
+      Object[] payload) {
+    if (stateCache == null || dryRun) {
+      return false;
+    }
+
+    if (stateCache.isCurrent(affordanceTag, operationType, tags, payload)) {
+      log("Skipped " + affordanceTag + " " + Arrays.deepToString(payload)
+          + ": the value is already set.");
+      return true;
+    }
+
+    stateCache.update(affordanceTag, operationType, tags, payload, false);
+    return false;
+  }
+
+  private void confirmInvocation(String affordanceTag, String operationType, Object[] tags,
+      Object[] payload, Optional<TDHttpResponse> response) {
+    if (stateCache != null && response.isPresent()) {
+      stateCache.update(affordanceTag, operationType, tags, payload,
+          requestSucceeded(response.get().getStatusCode()));
+    }
+  }
+
   /* Matches the entire 2XX class */
   private boolean requestSucceeded(int statusCode) {
     return statusCode >= 200 && statusCode < 300;
@@ -330,9 +647,10 @@ public class ThingArtifact extends Artifact {
 
   private void readProperty(String semanticType, Optional<OpFeedbackParam<Object[]>> tags,
       OpFeedbackParam<Object[]> output) {
-    PropertyAffordance property = getPropertyOrFail(semanticType);
-    Optional<TDHttpResponse> response = executePropertyRequest(property, TD.readProperty,
-        new Object[0], new Object[0]);
+    RequestPlan plan = getPropertyPlan(semanticType, TD.readProperty, new Object[0], new Object[0]);
+    invalidateStateCache();
+    Optional<TDHttpResponse> response = executePlan(plan, new Object[0]);
+    recordRead(semanticType, response);
 
     if (!dryRun) {
       if (!response.isPresent()) {
@@ -340,7 +658,7 @@ public class ThingArtifact extends Artifact {
       }
 
       if (requestSucceeded(response.get().getStatusCode())) {
-        readPayloadWithSchema(response.get(), property.getDataSchema(), tags, output);
+        readPayloadWithSchema(response.get(), plan.getDecoder(), tags, output);
       } else {
         failed("Status code: " + response.get().getStatusCode());
       }
@@ -362,141 +680,143 @@ public class ThingArtifact extends Artifact {
     return property.get();
   }
 
-  // Reading payloads of type object currently works with 2 limitations:
-  // - only the first semantic tag is retrieved for object properties (one that is not a data schema)
-  // - we cannot use nested objects with the current ThingArtifact API (needs a more elaborated
-  // JaCa - WoT bridge)
-  @SuppressWarnings("unchecked")
-  private void readPayloadWithSchema(TDHttpResponse response, DataSchema schema,
-      Optional<OpFeedbackParam<Object[]>> tags, OpFeedbackParam<Object[]> output) {
+  /* Returns the cached plan for a property operation, or compiles it. */
+  private RequestPlan getPropertyPlan(String propertyTag, String operationType, Object[] tags,
+      Object[] payload) {
+    String key = RequestPlan.key(propertyTag, operationType, tags, payload);
+    RequestPlan plan = plans.get(key);
 
-    switch (schema.getDatatype()) {
-      case DataSchema.BOOLEAN:
-        output.set(new Boolean[] { response.getPayloadAsBoolean() });
-        break;
-      case DataSchema.STRING:
-        output.set(new String[] { response.getPayloadAsString() });
-        break;
-      case DataSchema.INTEGER:
-        output.set(new Integer[] { response.getPayloadAsInteger() });
-        break;
-      case DataSchema.NUMBER:
-        output.set(new Double[] { response.getPayloadAsDouble() });
-        break;
-      case DataSchema.OBJECT:
-        // Only consider this case if the invoked CArtAgO operation was for an object payload
-        // (i.e., a list of tags is expected).
-        if (tags.isPresent()) {
-          Map<String, Object> payload = response.getPayloadAsObject((ObjectSchema) schema);
-          List<String> tagList = new ArrayList<String>();
-          List<Object> data = new ArrayList<Object>();
-
-          for (String tag : payload.keySet()) {
-            tagList.add(tag);
-            Object value = payload.get(tag);
-            if (value instanceof Collection<?>) {
-              data.add(nestedListsToArrays((Collection<Object>) value));
-            } else {
-              data.add(value);
-            }
-          }
-
-          tags.get().set(tagList.toArray());
-          output.set(data.toArray());
-        }
-        break;
-      case DataSchema.ARRAY:
-        List<Object> payload = response.getPayloadAsArray((ArraySchema) schema);
-        output.set(nestedListsToArrays(payload));
-        break;
-      default:
-        break;
+    if (plan == null) {
+      PropertyAffordance property = getPropertyOrFail(propertyTag);
+      Optional<Form> form = property.getFirstFormForOperationType(operationType);
+
+      if (!form.isPresent()) {
+        // Should not happen (an exception will be raised by the TD library first)
+        failed("Invalid TD: the property does not have a valid form.");
+      }
+
+      plan = compilePlan(propertyTag, operationType, form.get(),
+          Optional.of(property.getDataSchema()), tags, payload);
+      plans.put(key, plan);
     }
+
+    return plan;
   }
 
-  @SuppressWarnings("unchecked")
-  Object[] nestedListsToArrays(Collection<Object> data) {
-    Object[] out = data.toArray();
+  /* Returns the cached plan for an action, or compiles it. */
+  private RequestPlan getActionPlan(String actionTag, Object[] tags, Object[] payload) {
+    String key = RequestPlan.key(actionTag, TD.invokeAction, tags, payload);
+    RequestPlan plan = plans.get(key);
+
+    if (plan == null) {
+      Optional<ActionAffordance> action = td.getFirstActionBySemanticType(actionTag);
 
-    for (int i = 0; i < out.length; i ++) {
-      if (out[i] instanceof Collection<?>) {
-        out[i] = nestedListsToArrays((Collection<Object>) out[i]);
+      if (!action.isPresent()) {
+        action = td.getActionByName(actionTag);
       }
-    }
 
-    return out;
-  }
+      if (!action.isPresent()) {
+        failed("Unknown action: " + actionTag);
+      }
 
-  private Optional<TDHttpResponse> executePropertyRequest(PropertyAffordance property,
-    String operationType, Object[] tags, Object[] payload) {
-    Optional<Form> form = property.getFirstFormForOperationType(operationType);
+      Optional<Form> form = action.get().getFirstForm();
 
-    if (!form.isPresent()) {
-      // Should not happen (an exception will be raised by the TD library first)
-      failed("Invalid TD: the property does not have a valid form.");
-    }
+      if (!form.isPresent()) {
+        // Should not happen (an exception will be raised by the TD library first)
+        failed("Invalid TD: the invoked action does not have a valid form.");
+      }
+
+      Optional<DataSchema> inputSchema = action.get().getInputSchema();
+      if (!inputSchema.isPresent() && payload.length > 0) {
+        failed("This type of action does not take any input: " + actionTag);
+      }
 
-    DataSchema schema = property.getDataSchema();
+      plan = compilePlan(actionTag, TD.invokeAction, form.get(), inputSchema, tags, payload);
+      plans.put(key, plan);
+    }
 
-    return executeRequest(operationType, form.get(), Optional.of(schema), tags, payload);
+    return plan;
   }
 
-  private Optional<TDHttpResponse> executeRequest(String operationType, Form form,
+  private RequestPlan compilePlan(String affordanceTag, String operationType, Form form,
       Optional<DataSchema> schema, Object[] tags, Object[] payload) {
-    if (schema.isPresent() && payload.length > 0) {
-      // Request with payload
-      if (tags.length > 0) {
-        return executeRequestObjectPayload(operationType, form, schema.get(), tags, payload);
-      } else if (payload.length == 1 && !(payload[0] instanceof Object[])) {
-        return executeRequestPrimitivePayload(operationType, form, schema.get(), payload[0]);
-      } else if (payload.length >= 1) {
-        return executeRequestArrayPayload(operationType, form, schema.get(), payload);
-      } else {
-        failed("Could not detect the type of payload (primitive, object, or array).");
-        return Optional.empty();
-      }
-    } else {
-      // Request without payload
-      TDHttpRequest request = new TDHttpRequest(form, operationType);
-      return issueRequest(request);
+    try {
+      return RequestPlan.compile(affordanceTag, operationType, form, schema, tags, payload, resilience);
+    } catch (IllegalArgumentException e) {
+      failed(e.getMessage());
+      return null;
     }
   }
 
-  private Optional<TDHttpResponse> executeRequestPrimitivePayload(String operationType, Form form,
-      DataSchema schema, Object payload) {
-    TDHttpRequest request = new TDHttpRequest(form, operationType);
-    request = setPrimitivePayload(request, schema, payload);
+  // Reading payloads of type object currently works with 2 limitations:
+  // - only the first semantic tag is retrieved for object properties (one that is not a data schema)
+  // - we cannot use nested objects with the current ThingArtifact API (needs a more elaborated
+  // JaCa - WoT bridge)
+  private void readPayloadWithSchema(TDHttpResponse response, PayloadDecoder decoder,
+      Optional<OpFeedbackParam<Object[]>> tags, OpFeedbackParam<Object[]> output) {
+    Optional<String> payload = response.getPayload();
+
+    if (!payload.isPresent()) {
+      failed("The read property response does not have a payload.");
+    }
 
-    return issueRequest(request);
-  }
+    try {
+      List<String> tagList = new ArrayList<String>();
+      Object[] data = decoder.decode(payload.get(), tagList);
 
-  private Optional<TDHttpResponse> executeRequestObjectPayload(String operationType, Form form,
-      DataSchema schema, Object[] tags, Object[] payload) {
-    if (schema.getDatatype() != DataSchema.OBJECT) {
-      failed("TD mismatch: illegal arguments, this affordance uses a data schema of type "
-          + schema.getDatatype());
+      if (!decoder.isObject()) {
+        output.set(data);
+      } else if (tags.isPresent()) {
+        // Only consider this case if the invoked CArtAgO operation was for an object payload
+        // (i.e., a list of tags is expected).
+        tags.get().set(tagList.toArray());
+        output.set(data);
+      }
+    } catch (IOException e) {
+      failed(e.getMessage());
     }
+  }
 
-    TDHttpRequest request = new TDHttpRequest(form, operationType);
-    request = setObjectPayload(request, schema, tags, payload);
+  private Optional<TDHttpResponse> executePlan(RequestPlan plan, Object[] payload) {
+    Supplier<TDHttpRequest> newRequests = newRequests(plan, payload);
 
-    return issueRequest(request);
+    // The artifact is released while an asynchronous request is in flight, so another request with
+    // the same values may be sent meanwhile, and a bound request would be sent twice at once
+    return issueRequest(plan, this.async ? newRequest(newRequests) : bindPlan(plan, payload), newRequests);
   }
 
-  private Optional<TDHttpResponse> executeRequestArrayPayload(String operationType, Form form,
-      DataSchema schema, Object[] payload) {
-    if (schema.getDatatype() != DataSchema.ARRAY) {
-      failed("TD mismatch: illegal arguments, this affordance uses a data schema of type "
-          + schema.getDatatype());
+  private TDHttpRequest bindPlan(RequestPlan plan, Object[] payload) {
+    try {
+      return plan.bind(payload, getCurrentOpAgentId().getAgentName(), this::prepareRequest);
+    } catch (IllegalArgumentException e) {
+      failed(e.getMessage());
+      return null;
     }
+  }
 
-    TDHttpRequest request = new TDHttpRequest(form, operationType);
-    request = setArrayPayload(request, schema, payload);
+  /* Builds new requests with the payload values of the operating agent, which are not bound. The
+   * further attempts of a request build theirs outside of the artifact. */
+  private Supplier<TDHttpRequest> newRequests(RequestPlan plan, Object[] payload) {
+    String agentName = getCurrentOpAgentId().getAgentName();
+    return () -> plan.prepare(payload, agentName, this::prepareRequest);
+  }
 
-    return issueRequest(request);
+  private TDHttpRequest newRequest(Supplier<TDHttpRequest> newRequests) {
+    try {
+      return newRequests.get();
+    } catch (IllegalArgumentException e) {
+      failed(e.getMessage());
+      return null;
+    }
   }
 
-  private Optional<TDHttpResponse> issueRequest(TDHttpRequest request) {
+  /* A single payload value is used as a payload of one value */
+  private static Object[] asArray(Object payload) {
+    return payload instanceof Object[] ? (Object[]) payload : new Object[] { payload };
+  }
+
+  /* Sets the credentials and the id of the operating agent on a new request. */
+  private TDHttpRequest prepareRequest(TDHttpRequest request, String agentName) {
     Optional<SecurityScheme> scheme = td.getFirstSecuritySchemeByType(WoTSec.APIKeySecurityScheme);
 
     if (scheme.isPresent() && apiKey.isPresent()) {
@@ -504,16 +824,32 @@ public class ThingArtifact extends Artifact {
     }
 
     // Set a header with the id of the operating agent
-    request.addHeader("X-Agent-WebID", WEBID_PREFIX + getCurrentOpAgentId().getAgentName());
-    //log("operating agent: " + getCurrentOpAgentId().getAgentName());
+    request.addHeader("X-Agent-WebID", WEBID_PREFIX + agentName);
 
+    return request;
+  }
+
+  private Optional<TDHttpResponse> issueRequest(RequestPlan plan, TDHttpRequest request,
+      Supplier<TDHttpRequest> newRequests) {
     if (this.dryRun) {
       log(request.toString());
       return Optional.empty();
+    } else if (this.async) {
+      log(request.toString());
+
+      // The artifact is released until the command completes
+      AsyncRequestExecutor.Command command = asyncExecutor.newCommand(plan, request, newRequests);
+      await(command);
+
+      try {
+        return Optional.of(command.getResponse());
+      } catch (IOException e) {
+        failed(e.getMessage());
+      }
     } else {
       log(request.toString());
       try {
-        return Optional.of(request.execute());
+        return Optional.of(plan.execute(request, newRequests));
       } catch (IOException e) {
         failed(e.getMessage());
       }
@@ -521,4 +857,26 @@ public class ThingArtifact extends Artifact {
 
     return Optional.empty();
   }
+
+  /* Issues requests concurrently (see AsyncRequestExecutor). The artifact is released while the
+   * requests are in flight if it is asynchronous. Returns null for dry runs. */
+  private AsyncRequestExecutor.Command issueRequests(RequestPlan[] requestPlans,
+      TDHttpRequest[] requests, List<Supplier<TDHttpRequest>> newRequests) {
+    for (TDHttpRequest request : requests) {
+      log(request.toString());
+    }
+
+    if (this.dryRun) {
+      return null;
+    }
+
+    AsyncRequestExecutor.Command command = asyncExecutor.newCommand(requestPlans, requests,
+        newRequests);
+    if (this.async) {
+      await(command);
+    } else {
+      command.exec();
+    }
+    return command;
+  }
 }
@@ -0,0 +1,174 @@
+package wot;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of a trace file written by a {@link TraceWriter}.
+ */
+public final class TraceReader implements Closeable {
+  private final PositionInputStream position;
+  private final DataInputStream in;
+  private final List<String> strings = new ArrayList<String>();
+  private long timestampMicros;
+  private long completeLength;
+
+  /**
+   * Opens a trace file.
+   *
+   * @param path The path of the trace file.
+   * @throws IOException if the file is not a trace file.
+   */
+  public TraceReader(String path) throws IOException {
+    this.position = new PositionInputStream(new BufferedInputStream(new FileInputStream(path)));
+    this.in = new DataInputStream(position);
+
+    try {
+      if (in.readInt() != TraceWriter.MAGIC || in.readInt() != TraceWriter.VERSION) {
+        throw new IOException("Not a trace file of version " + TraceWriter.VERSION + ": " + path);
+      }
+      completeLength = position.position;
+    } catch (IOException e) {
+      in.close();
+      throw e instanceof EOFException ? new IOException("Not a trace file: " + path, e) : e;
+    }
+  }
+
+  /**
+   * Reads all the records of a trace file.
+   *
+   * @param path The path of the trace file.
+   */
+  public static List<TraceRecord> readAll(String path) throws IOException {
+    List<TraceRecord> records = new ArrayList<TraceRecord>();
+
+    try (TraceReader reader = new TraceReader(path)) {
+      for (TraceRecord record = reader.next(); record != null; record = reader.next()) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Returns the next record, or null at the end of the trace (including a last record that was
+   * cut off while being written).
+   */
+  public TraceRecord next() throws IOException {
+    try {
+      while (true) {
+        int type = in.read();
+
+        switch (type) {
+          case -1:
+            return null;
+          case TraceRecord.DEFINE:
+            int id = (int) readVarLong();
+            String value = in.readUTF();
+            if (id != strings.size()) {
+              throw new IOException("Corrupt trace: unexpected string " + id);
+            }
+            strings.add(value);
+            completeLength = position.position;
+            break;
+          case TraceRecord.SESSION:
+            strings.clear();
+            timestampMicros = in.readLong() * 1000;
+            completeLength = position.position;
+            break;
+          case TraceRecord.READ:
+          case TraceRecord.INVOKE:
+            timestampMicros += readVarLong();
+            int target = (int) readVarLong();
+            int statusCode = (int) readVarLong();
+            byte[] payload = new byte[(int) readVarLong()];
+            in.readFully(payload);
+
+            if (target >= strings.size()) {
+              throw new IOException("Corrupt trace: undefined string " + target);
+            }
+            completeLength = position.position;
+            return new TraceRecord(type == TraceRecord.READ, timestampMicros, strings.get(target),
+                new String(payload, StandardCharsets.UTF_8), statusCode);
+          default:
+            throw new IOException("Corrupt trace: unknown record type " + type);
+        }
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the length of the trace up to the end of the last complete entry read, e.g., to cut
+   * off a record that was being written when the writer died.
+   */
+  long getCompleteLength() {
+    return completeLength;
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupt trace: malformed number");
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /* Counts the bytes read from a stream */
+  private static final class PositionInputStream extends FilterInputStream {
+    private long position;
+
+    PositionInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        position ++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        position += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package wot;
+
+/**
+ * A record of a trace (see {@link TraceWriter}): a property read or an action invocation, with
+ * its time, its target, its payload and the status code of the response.
+ */
+public final class TraceRecord {
+  /* The types of the records of a trace */
+  static final byte DEFINE = 0;
+  static final byte SESSION = 1;
+  static final byte READ = 2;
+  static final byte INVOKE = 3;
+
+  private final boolean read;
+  private final long timestampMicros;
+  private final String target;
+  private final String payload;
+  private final int statusCode;
+
+  TraceRecord(boolean read, long timestampMicros, String target, String payload, int statusCode) {
+    this.read = read;
+    this.timestampMicros = timestampMicros;
+    this.target = target;
+    this.payload = payload;
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * Returns true for a property read, false for an action invocation.
+   */
+  public boolean isRead() {
+    return read;
+  }
+
+  /**
+   * Returns the time of the record, in microseconds since the epoch.
+   */
+  public long getTimestampMicros() {
+    return timestampMicros;
+  }
+
+  /**
+   * Returns the tag of the read property or of the invoked action.
+   */
+  public String getTarget() {
+    return target;
+  }
+
+  /**
+   * Returns the raw payload of the read response, or the payload of the invocation.
+   */
+  public String getPayload() {
+    return payload;
+  }
+
+  /**
+   * Returns the status code of the response (0 if the request failed without a response).
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  @Override
+  public String toString() {
+    return (read ? "READ " : "INVOKE ") + timestampMicros + " " + target + " " + statusCode + " "
+        + payload;
+  }
+}
@@ -0,0 +1,211 @@
+package wot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+/**
+ * Appends the property reads and the action invocations of a Thing to a trace file, e.g., to train
+ * against the recorded dynamics of a real lab later on (see {@link TraceReader}).
+ *
+ * The trace is a compact append-only binary log. Each time a writer opens the file, it starts a new
+ * session with the current time; the records of a session store their time as a variable-length
+ * offset in microseconds from the previous record, and the targets of the records as references to
+ * strings that are defined once per session. A trace that was cut off while being written can be
+ * read up to its last complete record; when a writer opens such a trace again, it first cuts off
+ * the incomplete record, such that the new session is appended after the last complete one.
+ *
+ * Writers are shared by all the users of the same file in a JVM (e.g., a Lab and a ThingArtifact),
+ * and are thread-safe.
+ */
+public final class TraceWriter implements Closeable {
+  static final int MAGIC = 0x574F5454;
+  static final int VERSION = 1;
+
+  private static final Map<String, TraceWriter> WRITERS = new HashMap<String, TraceWriter>();
+  private static final Gson GSON = new Gson();
+
+  private final String path;
+  private final DataOutputStream out;
+  private final Map<String, Integer> strings = new HashMap<String, Integer>();
+  private final long startNanos;
+  private long lastMicros;
+  private int users;
+
+  private TraceWriter(String path) throws IOException {
+    File file = new File(path);
+    boolean empty = !file.exists() || truncateToCompleteRecords(file) == 0;
+
+    this.path = path;
+    this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    this.startNanos = System.nanoTime();
+
+    if (empty) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+    out.writeByte(TraceRecord.SESSION);
+    out.writeLong(System.currentTimeMillis());
+    out.flush();
+  }
+
+  /*
+   * Cuts off the incomplete record at the end of a trace, if any, and returns the remaining length.
+   * A file cut off within its header is emptied; other files that are not traces are left as is.
+   */
+  private static long truncateToCompleteRecords(File file) throws IOException {
+    long length = file.length();
+    long complete;
+
+    if (length < 8) {
+      byte[] header = new byte[(int) length];
+      try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+        in.readFully(header);
+      }
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      DataOutputStream headerOut = new DataOutputStream(expected);
+      headerOut.writeInt(MAGIC);
+      headerOut.writeInt(VERSION);
+      if (!Arrays.equals(header, Arrays.copyOf(expected.toByteArray(), header.length))) {
+        throw new IOException("Not a trace file: " + file);
+      }
+      complete = 0;
+    } else {
+      try (TraceReader reader = new TraceReader(file.getPath())) {
+        while (reader.next() != null) {
+          // reads up to the last complete record
+        }
+        complete = reader.getCompleteLength();
+      }
+    }
+
+    if (complete < length) {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(complete);
+      }
+    }
+    return complete;
+  }
+
+  /**
+   * Opens the writer of a trace file, creating the file if it does not exist. Each call must be
+   * matched by a call to {@link #close()}.
+   *
+   * @param path The path of the trace file.
+   */
+  public static TraceWriter open(String path) throws IOException {
+    String key = new File(path).getCanonicalPath();
+
+    synchronized (WRITERS) {
+      TraceWriter writer = WRITERS.get(key);
+      if (writer == null) {
+        writer = new TraceWriter(key);
+        WRITERS.put(key, writer);
+      }
+      writer.users ++;
+      return writer;
+    }
+  }
+
+  /**
+   * Returns the description of a payload used in the records of invocations: a JSON object if
+   * payload tags are given, a JSON array otherwise.
+   *
+   * @param tags The payload tags (used for object schema payloads).
+   * @param payload The payload values.
+   */
+  public static String describePayload(Object[] tags, Object[] payload) {
+    if (tags.length == 0) {
+      return GSON.toJson(payload);
+    }
+
+    Map<String, Object> object = new LinkedHashMap<String, Object>();
+    for (int i = 0; i < tags.length && i < payload.length; i ++) {
+      object.put(String.valueOf(tags[i]), payload[i]);
+    }
+    return GSON.toJson(object);
+  }
+
+  /**
+   * Records a property read.
+   *
+   * @param target The property tag.
+   * @param statusCode The status code of the response (0 if there was no response).
+   * @param payload The raw payload of the response.
+   */
+  public void recordRead(String target, int statusCode, String payload) throws IOException {
+    record(TraceRecord.READ, target, statusCode, payload);
+  }
+
+  /**
+   * Records an action invocation.
+   *
+   * @param target The action tag.
+   * @param payload The payload of the invocation (see {@link #describePayload(Object[], Object[])}).
+   * @param statusCode The status code of the response (0 if there was no response).
+   */
+  public void recordInvoke(String target, String payload, int statusCode) throws IOException {
+    record(TraceRecord.INVOKE, target, statusCode, payload);
+  }
+
+  private synchronized void record(byte type, String target, int statusCode, String payload)
+      throws IOException {
+    Integer id = strings.get(target);
+    if (id == null) {
+      id = strings.size();
+      strings.put(target, id);
+      out.writeByte(TraceRecord.DEFINE);
+      writeVarLong(id);
+      out.writeUTF(target);
+    }
+
+    long micros = (System.nanoTime() - startNanos) / 1000;
+    byte[] bytes = payload == null ? new byte[0] : payload.getBytes(StandardCharsets.UTF_8);
+
+    out.writeByte(type);
+    writeVarLong(micros - lastMicros);
+    writeVarLong(id);
+    writeVarLong(statusCode);
+    writeVarLong(bytes.length);
+    out.write(bytes);
+    out.flush();
+    lastMicros = micros;
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /**
+   * Releases the writer; the file is closed when the last user released it.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (WRITERS) {
+      if (-- users == 0) {
+        WRITERS.remove(path);
+        synchronized (this) {
+          out.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package wot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for an HTTP request issued for an affordance of a Thing, by a
+ * ThingArtifact or a Lab. Each attempt of a request is an event, whose duration is the time from
+ * sending the request until the response was received. The time spent waiting for a permit of an
+ * asynchronous artifact, which is taken before the request is submitted, is not included.
+ *
+ * The event is cheap when it is not recorded: the fields are only set when the event is committed.
+ */
+@Name("was.WotRequest")
+@Label("WoT Request")
+@Category({ "WAS", "WoT" })
+@Description("An HTTP request issued for an affordance of a Thing")
+@StackTrace(false)
+public final class WotRequestEvent extends Event {
+
+  @Label("Affordance")
+  public String affordance;
+
+  @Label("Operation")
+  public String operation;
+
+  @Label("URL")
+  public String url;
+
+  @Label("Status Code")
+  @Description("The status code of the response, or 0 if the request failed without a response")
+  public int statusCode;
+
+  @Label("Response Size")
+  @DataAmount
+  public long bytes;
+
+  @Label("Error")
+  public String error;
+
+  /**
+   * Executes a request within an event.
+   *
+   * @param request The request.
+   * @param affordance The tag of the affordance (e.g., its semantic type).
+   * @param operation The operation type (e.g., TD.invokeAction).
+   * @param url The target of the request.
+   */
+  public static TDHttpResponse execute(TDHttpRequest request, String affordance, String operation,
+      String url) throws IOException {
+    WotRequestEvent event = new WotRequestEvent();
+    event.begin();
+
+    try {
+      TDHttpResponse response = request.execute();
+
+      if (event.shouldCommit()) {
+        Optional<String> payload = response.getPayload();
+        event.statusCode = response.getStatusCode();
+        event.bytes = payload.isPresent() ? payload.get().getBytes(StandardCharsets.UTF_8).length : 0;
+        event.commit(affordance, operation, url);
+      }
+      return response;
+    } catch (IOException | RuntimeException e) {
+      if (event.shouldCommit()) {
+        event.error = String.valueOf(e.getMessage());
+        event.commit(affordance, operation, url);
+      }
+      throw e;
+    }
+  }
+
+  private void commit(String affordance, String operation, String url) {
+    this.affordance = affordance;
+    this.operation = operation;
+    this.url = url;
+    commit();
+  }
+}